@@ -0,0 +1,134 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates the sparse rows of the benchmarks. A row of a given length takes
+ * its column indices from a space four times as wide, so that rows can share
+ * any fraction of their indices.
+ */
+class BenchmarkRows {
+
+	/**
+	 * The distributions of the values: uniform in (0, 1], small integer
+	 * counts as in term frequencies, or heavy-tailed log-normal weights.
+	 */
+	enum distributions {
+		uniform, counts, lognormal
+	};
+
+	/** The ratio of the column space to the length of a row. */
+	static final int SPREAD = 4;
+
+	private Random random;
+	private distributions distribution;
+
+	BenchmarkRows(long seed, String distribution) {
+		this.random = new Random(seed);
+		this.distribution = distributions.valueOf(distribution);
+	}
+
+	/**
+	 * Generates a row.
+	 *
+	 * @param length
+	 *            the number of entries
+	 * @return the row
+	 */
+	VectorNode[] generate(int length) {
+		return toRow(sample(length, null, 0), length);
+	}
+
+	/**
+	 * Generates a row sharing a fraction of its indices with another.
+	 *
+	 * @param other
+	 *            the other row, of the same length
+	 * @param overlap
+	 *            the fraction of the indices shared
+	 * @return the row
+	 */
+	VectorNode[] generate(VectorNode[] other, double overlap) {
+		return toRow(sample(other.length, other, overlap), other.length);
+	}
+
+	/**
+	 * Draws distinct indices, the shared ones from the other row and the
+	 * rest outside it.
+	 */
+	private int[] sample(int length, VectorNode[] other, double overlap) {
+		boolean[] taken = new boolean[SPREAD * length];
+		boolean[] excluded = new boolean[SPREAD * length];
+		int nShared = 0;
+		if (other != null) {
+			nShared = (int) Math.round(overlap * length);
+			int[] shared = new int[other.length];
+			for (int i = 0; i < other.length; i++) {
+				shared[i] = other[i].index;
+				excluded[other[i].index] = true;
+			}
+			for (int i = 0; i < nShared; i++) {
+				int j = i + random.nextInt(shared.length - i);
+				int tmp = shared[i];
+				shared[i] = shared[j];
+				shared[j] = tmp;
+				taken[shared[i]] = true;
+			}
+		}
+		int[] result = new int[length];
+		int k = 0;
+		for (int i = 0; i < taken.length; i++) {
+			if (taken[i]) {
+				result[k++] = i;
+			}
+		}
+		while (k < length) {
+			int index = random.nextInt(taken.length);
+			if (!taken[index] && !excluded[index]) {
+				taken[index] = true;
+				result[k++] = index;
+			}
+		}
+		Arrays.sort(result);
+		return result;
+	}
+
+	private VectorNode[] toRow(int[] indices, int length) {
+		VectorNode[] result = new VectorNode[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = new VectorNode(indices[i], nextValue());
+		}
+		return result;
+	}
+
+	private double nextValue() {
+		switch (distribution) {
+		case counts:
+			return 1 + random.nextInt(9);
+		case lognormal:
+			return Math.exp(random.nextGaussian());
+		default:
+			return 1 - random.nextDouble();
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the allocation profiler, which adds the
+ * gc.alloc.rate and gc.alloc.rate.norm (bytes per call) of every benchmark
+ * to the results.
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * @param args
+	 *            the JMH command line: regular expressions of the benchmarks
+	 *            to run, all by default, and options such as -p
+	 *            parameter=values, -f forks, -wi warmup iterations and -i
+	 *            iterations, e.g. "cosine -p length=128 -f 1"
+	 * @throws CommandLineOptionException
+	 *             if an option is not understood
+	 * @throws RunnerException
+	 *             if a benchmark fails
+	 */
+	public static void main(String[] args) throws CommandLineOptionException,
+			RunnerException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.parent(commandLine).addProfiler(GCProfiler.class);
+		if (commandLine.getIncludes().isEmpty()) {
+			options.include(DistanceBenchmark.class.getSimpleName());
+			options.include(MatrixBenchmark.class.getSimpleName());
+		}
+		new Runner(options.build()).run();
+	}
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The distances of SparseVector on pairs of rows. Every call takes the next
+ * of a pool of pairs, so that the branches of the merge loops cannot be
+ * learnt from a single pair.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistanceBenchmark {
+
+	private static final int N_PAIRS = 256;
+	private static final int N_BINS = 100;
+
+	/** The number of entries of a row. */
+	@Param({ "16", "128", "1024" })
+	int length;
+
+	/** The fraction of the indices the rows of a pair share. */
+	@Param({ "0.1", "0.5", "0.9" })
+	double overlap;
+
+	@Param({ "uniform", "counts", "lognormal" })
+	String distribution;
+
+	private VectorNode[][] xs;
+	private VectorNode[][] ys;
+	private VectorNode[][] binnedXs;
+	private VectorNode[][] binnedYs;
+	private int dimension;
+	private int next = 0;
+
+	@Setup
+	public void setUp() {
+		BenchmarkRows rows = new BenchmarkRows(1, distribution);
+		xs = new VectorNode[N_PAIRS][];
+		ys = new VectorNode[N_PAIRS][];
+		for (int i = 0; i < N_PAIRS; i++) {
+			xs[i] = rows.generate(length);
+			ys[i] = rows.generate(xs[i], overlap);
+		}
+		binnedXs = SparseVector.binify(xs, N_BINS);
+		binnedYs = SparseVector.binify(ys, N_BINS);
+		dimension = BenchmarkRows.SPREAD * length;
+	}
+
+	private int nextPair() {
+		next = (next + 1) & (N_PAIRS - 1);
+		return next;
+	}
+
+	@Benchmark
+	public double dotProduct() {
+		int i = nextPair();
+		return SparseVector.dotProduct(xs[i], ys[i]);
+	}
+
+	@Benchmark
+	public double cosine() {
+		int i = nextPair();
+		return SparseVector.cosine(xs[i], ys[i]);
+	}
+
+	@Benchmark
+	public double correlation() {
+		int i = nextPair();
+		return SparseVector.correlation(xs[i], ys[i], dimension);
+	}
+
+	@Benchmark
+	public double euclidean() {
+		int i = nextPair();
+		return SparseVector.euclidean(xs[i], ys[i]);
+	}
+
+	@Benchmark
+	public double manhattan() {
+		int i = nextPair();
+		return SparseVector.manhattan(xs[i], ys[i]);
+	}
+
+	@Benchmark
+	public double mutualInformationMetric() {
+		int i = nextPair();
+		return SparseVector.mutualInformationMetric(binnedXs[i], binnedYs[i],
+				N_BINS, dimension);
+	}
+
+}
@@ -0,0 +1,99 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transposing and reading whole matrices of generated rows. The matrix is
+ * written to a temporary file once, in the libsvm text format or in the
+ * binary format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatrixBenchmark {
+
+	@Param({ "1000", "10000" })
+	int rows;
+
+	/** The number of entries of a row. */
+	@Param({ "16", "128" })
+	int length;
+
+	@Param({ "uniform", "counts", "lognormal" })
+	String distribution;
+
+	@Param({ "text", "binary" })
+	String format;
+
+	private VectorNode[][] mx;
+	private File file;
+
+	@Setup
+	public void setUp() throws IOException {
+		BenchmarkRows generator = new BenchmarkRows(1, distribution);
+		mx = new VectorNode[rows][];
+		for (int i = 0; i < rows; i++) {
+			mx[i] = generator.generate(length);
+		}
+		if (format.equals("binary")) {
+			file = File.createTempFile("benchmark", ".bin");
+			SparseMatrixFile.write(SparseMatrix.fromVectorNodes(mx),
+					file.getPath(), 0);
+		} else {
+			file = File.createTempFile("benchmark", ".dat");
+			Utilities.writeTable(mx, file.getPath());
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public VectorNode[][] transpose() {
+		return SparseVector.transpose(mx);
+	}
+
+	@Benchmark
+	public VectorNode[][] readSparseMatrix() throws IOException {
+		return SparseVector.readSparseMatrix(file.getPath());
+	}
+
+}
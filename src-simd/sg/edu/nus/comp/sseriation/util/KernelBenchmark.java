@@ -0,0 +1,145 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import java.util.Random;
+
+/**
+ * Times the scalar and the SIMD kernels on runs of several lengths. Every
+ * kernel is run over a pool of runs larger than the caches of small lengths
+ * would suggest, first to warm up and then timed.
+ */
+public class KernelBenchmark {
+
+	private static final int[] LENGTHS = { 16, 32, 64, 256, 1024, 4096 };
+	private static final int POOL_SIZE = 1 << 16;
+	private static final long WARMUP_MS = 300;
+	private static final long MEASURE_MS = 700;
+
+	private interface Kernel {
+		double run(Kernels kernels, int x, int y);
+	}
+
+	private static double[] doubles;
+	private static float[] floats;
+	private static int length;
+	private static double sink;
+
+	/**
+	 * @param args
+	 *            none
+	 */
+	public static void main(String[] args) {
+		Kernels simd = Kernels.getSimd();
+		if (simd == null) {
+			System.out.println("SIMD kernels are not available; run with "
+					+ "--add-modules jdk.incubator.vector");
+			return;
+		}
+		System.out.println("Scalar against " + simd.getName()
+				+ ", ns per call");
+		System.out.println("kernel               length   scalar     simd  speedup");
+		Random random = new Random(1);
+		doubles = new double[POOL_SIZE];
+		floats = new float[POOL_SIZE];
+		for (int i = 0; i < POOL_SIZE; i++) {
+			doubles[i] = random.nextGaussian();
+			floats[i] = (float) random.nextGaussian();
+		}
+		for (int l = 0; l < LENGTHS.length; l++) {
+			length = LENGTHS[l];
+			time("dotProduct", simd, new Kernel() {
+				public double run(Kernels kernels, int x, int y) {
+					return kernels.dotProduct(doubles, x, doubles, y, length);
+				}
+			});
+			time("squaredDistance", simd, new Kernel() {
+				public double run(Kernels kernels, int x, int y) {
+					return kernels.squaredDistance(doubles, x, doubles, y,
+							length);
+				}
+			});
+			time("absoluteDistance", simd, new Kernel() {
+				public double run(Kernels kernels, int x, int y) {
+					return kernels.absoluteDistance(doubles, x, doubles, y,
+							length);
+				}
+			});
+			time("sumSquare", simd, new Kernel() {
+				public double run(Kernels kernels, int x, int y) {
+					return kernels.sumSquare(doubles, x, length);
+				}
+			});
+			time("sumAbsolute", simd, new Kernel() {
+				public double run(Kernels kernels, int x, int y) {
+					return kernels.sumAbsolute(doubles, x, length);
+				}
+			});
+			time("squaredDistance(f)", simd, new Kernel() {
+				public double run(Kernels kernels, int x, int y) {
+					return kernels.squaredDistance(floats, x, floats, y,
+							length);
+				}
+			});
+		}
+		if (sink == 42) {
+			System.out.println();
+		}
+	}
+
+	private static void time(String name, Kernels simd, Kernel kernel) {
+		double scalarTime = time(Kernels.getScalar(), kernel);
+		double simdTime = time(simd, kernel);
+		System.out.printf("%-18s %8d %8.1f %8.1f %7.2fx%n", name, length,
+				scalarTime, simdTime, scalarTime / simdTime);
+	}
+
+	private static double time(Kernels kernels, Kernel kernel) {
+		run(kernels, kernel, WARMUP_MS);
+		long start = System.nanoTime();
+		long calls = run(kernels, kernel, MEASURE_MS);
+		return (double) (System.nanoTime() - start) / calls;
+	}
+
+	private static long run(Kernels kernels, Kernel kernel, long ms) {
+		long end = System.nanoTime() + ms * 1000000;
+		long calls = 0;
+		int range = POOL_SIZE - length;
+		int x = 0;
+		int y = range / 2;
+		double sum = 0;
+		while (System.nanoTime() < end) {
+			for (int i = 0; i < 1024; i++) {
+				sum += kernel.run(kernels, x, y);
+				x += 61;
+				y += 97;
+				if (x >= range) {
+					x -= range;
+				}
+				if (y >= range) {
+					y -= range;
+				}
+			}
+			calls += 1024;
+		}
+		sink += sum;
+		return calls;
+	}
+
+}
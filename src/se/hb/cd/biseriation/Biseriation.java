@@ -18,67 +18,559 @@
  */
 package se.hb.cd.biseriation;
 
+import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 
+import sg.edu.nus.comp.sseriation.order.Distance;
+import sg.edu.nus.comp.sseriation.order.Distances;
 import sg.edu.nus.comp.sseriation.order.DistributionalOrder;
+import sg.edu.nus.comp.sseriation.order.HierarchicalOrdering;
+import sg.edu.nus.comp.sseriation.order.KnnGraph;
+import sg.edu.nus.comp.sseriation.order.KnnGraphBuilder;
+import sg.edu.nus.comp.sseriation.order.LocalSearch;
+import sg.edu.nus.comp.sseriation.order.MultiStart;
+import sg.edu.nus.comp.sseriation.order.OrderSnapshot;
+import sg.edu.nus.comp.sseriation.order.ProgressListener;
+import sg.edu.nus.comp.sseriation.util.Events;
+import sg.edu.nus.comp.sseriation.util.LibsvmParser;
+import sg.edu.nus.comp.sseriation.util.Metrics;
+import sg.edu.nus.comp.sseriation.util.OffHeapMatrix;
+import sg.edu.nus.comp.sseriation.util.PermutationFile;
+import sg.edu.nus.comp.sseriation.util.PermutedMatrixWriter;
+import sg.edu.nus.comp.sseriation.util.SparseMatrixFile;
+import sg.edu.nus.comp.sseriation.util.SparseVector;
+import sg.edu.nus.comp.sseriation.util.Utilities;
+import sg.edu.nus.comp.sseriation.util.VectorNode;
 
 public class Biseriation {
 
 	protected String collection;
+	/** The input file, libsvm or binary. */
+	protected String collectionFile;
 	protected DistributionalOrder rowSeriation;
 	protected DistributionalOrder columnSeriation;
 
 	enum heuristicTypes {
-		leftright, insert
+		leftright, insert, spectral, hierarchical
 	};
 
 	protected heuristicTypes heuristic;
 
-	private Constructor<DistributionalOrder> distanceBasedConstructor;
+	/** Time limit of the local search refinement in ms, negative if off. */
+	protected long refinementTimeLimit = -1;
+
+	protected int nStarts = 1;
+	protected MultiStart.seedingTypes seeding = MultiStart.seedingTypes.medoid;
+	protected int[] seeds;
+
+	enum outputTypes {
+		matrix, permutation, both
+	};
+
+	protected outputTypes output = outputTypes.matrix;
+	/** Whether the permutations are written with the scales. */
+	protected boolean withScale = false;
+	/** Whether the biseriated matrix is written gzip compressed. */
+	protected boolean compressOutput = false;
+
+	/** The kNN graph construction, null if no graph is used. */
+	protected KnnGraphBuilder.modeTypes knnMode;
+	protected int nNeighbours = 10;
+
+	/** Where the seriations keep the rows of the matrix. */
+	protected DistributionalOrder.storageTypes storage =
+			DistributionalOrder.storageTypes.heap;
+
+	/** The components of the sketch that preselects candidates, 0 if off. */
+	protected int sketchComponents = 0;
+	protected int shortlistSize = 64;
+	/** The listener of the heuristics, null for none. */
+	protected ProgressListener progressListener;
+	protected long deadline = 0;
+	/** Whether the heuristics print what they do to System.out. */
+	protected boolean verbose = true;
+	/** The threads of parsing and of the heuristics of each seriation. */
+	protected int nThreads = Runtime.getRuntime().availableProcessors();
+
+	private Distance distance;
+
+	/**
+	 * The orders of a biseriation and the rows they permute. The rows are
+	 * never changed in place, so a result stays valid after later updates.
+	 */
+	protected static class Result {
+		String suffix;
+		VectorNode[][] mx;
+		/** The rows if they are stored off the heap, then mx is null. */
+		OffHeapMatrix offHeapMx;
+		int[] rowOrder;
+		int[] columnOrder;
+		double[] rowScale;
+		double[] columnScale;
+	}
 
-	@SuppressWarnings("unchecked")
 	public Biseriation(String collection, String distanceType,
-			String heuristicType) throws IOException, RuntimeException,
-			NoSuchMethodException, ClassNotFoundException {
-		this.collection = collection;
+			String heuristicType) throws IOException, RuntimeException {
 		if (heuristicType.equals("leftright")) {
 			heuristic = heuristicTypes.leftright;
+		} else if (heuristicType.equals("spectral")) {
+			heuristic = heuristicTypes.spectral;
+		} else if (heuristicType.equals("hierarchical")) {
+			heuristic = heuristicTypes.hierarchical;
 		} else {
 			heuristic = heuristicTypes.insert;
 		}
 
-		if (this.collection.lastIndexOf(".") > 0) {
-			this.collection = this.collection.substring(0,
-					this.collection.lastIndexOf("."));
+		// collection.dat, collection.dat.gz and collection.bin are read as
+		// given, a bare collection name as collection.dat
+		this.collection = Utilities.removeExtension(collection);
+		if (this.collection.equals(collection)) {
+			this.collectionFile = collection + ".dat";
+		} else {
+			this.collectionFile = collection;
+		}
+		distance = Distances.forName(distanceType);
+	}
+
+	/**
+	 * Instantiates the seriation of the distance with the storage.
+	 */
+	protected DistributionalOrder newSeriation(String filename,
+			boolean isTransposed) throws IOException {
+		DistributionalOrder result = new DistributionalOrder(filename,
+				distance, isTransposed, storage, nThreads);
+		result.setVerbose(verbose);
+		return result;
+	}
+
+	public Distance getDistance() {
+		return distance;
+	}
+
+	/**
+	 * Estimates the bytes taken by the rows and orders of both seriations.
+	 */
+	public long estimateMemory() {
+		long result = 0;
+		if (rowSeriation != null) {
+			result += rowSeriation.estimateMemory();
+		}
+		if (columnSeriation != null) {
+			result += columnSeriation.estimateMemory();
+		}
+		return result;
+	}
+
+	/**
+	 * Estimates the bytes of both seriations before the static part is
+	 * calculated, from the numbers of rows, columns and entries of the
+	 * collection, which are counted without parsing it.
+	 */
+	public long estimateMemoryOfStaticPart() throws IOException {
+		long[] size;
+		if (SparseMatrixFile.isSparseMatrixFile(collectionFile)) {
+			size = SparseMatrixFile.readSize(collectionFile);
+		} else {
+			size = LibsvmParser.count(collectionFile);
 		}
-		distanceBasedConstructor = (Constructor<DistributionalOrder>) Class
-				.forName("sg.edu.nus.comp.sseriation.order." + distanceType)
-				.getConstructor(String.class, Boolean.TYPE);
+		return DistributionalOrder.estimateMemory(size[0], size[2], storage)
+				+ DistributionalOrder.estimateMemory(size[1], size[2], storage);
 	}
 
 	public void calculateBiseriationOfStaticPart() throws IOException,
-			IllegalArgumentException, InstantiationException,
-			IllegalAccessException, InvocationTargetException {
+			IllegalArgumentException {
 		boolean isTransposed = false;
-		rowSeriation = (DistributionalOrder) distanceBasedConstructor
-				.newInstance(collection + ".dat", isTransposed);
-		if (heuristic == heuristicTypes.leftright) {
-			rowSeriation.generateOrderLeftRight();
-		} else {
-			rowSeriation.generateOrderInsert();
+		rowSeriation = newSeriation(collectionFile, isTransposed);
+		generateOrder(rowSeriation);
+		Metrics.Timer timer = Metrics.getDefault().getTimer(
+				Metrics.phases.write);
+		long start = timer.start();
+		Events.OutputWrite event = new Events.OutputWrite();
+		event.start(Metrics.getDefault());
+		rowSeriation.writeNewOrderBinary(collection + "-row-seriated.bin",
+				SparseMatrixFile.COLUMN_MAJOR);
+		timer.stop(start);
+		if (event.isEnabled()) {
+			commitWriteEvent(event, collection + "-row-seriated.bin",
+					rowSeriation.getOrder().size(),
+					rowSeriation.countNonZeros());
 		}
-		rowSeriation.writeNewOrder(collection + "-row-seriated.dat");
 		isTransposed = true;
-		columnSeriation = (DistributionalOrder) distanceBasedConstructor
-				.newInstance(collection + "-row-seriated.dat", isTransposed);
-		if (heuristic == heuristicTypes.leftright) {
-			columnSeriation.generateOrderLeftRight();
+		columnSeriation = newSeriation(collection + "-row-seriated.bin",
+				isTransposed);
+		generateOrder(columnSeriation);
+		writeBiseriation("");
+	}
+
+	/**
+	 * Writes the biseriated matrix and/or the permutations, depending on the
+	 * output type.
+	 * 
+	 * @param suffix
+	 *            the suffix of the output file names
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void writeBiseriation(String suffix) throws IOException {
+		writeResult(captureResult(suffix));
+	}
+
+	/**
+	 * Captures what the output needs from the current biseriation, so that it
+	 * can be written while the seriations change.
+	 * 
+	 * @param suffix
+	 *            the suffix of the output file names
+	 * @return the result
+	 */
+	protected Result captureResult(String suffix) throws IOException {
+		Result result = new Result();
+		result.suffix = suffix;
+		result.rowOrder = getRowOrder();
+		if (rowSeriation.isOffHeap()) {
+			result.offHeapMx = rowSeriation.getOffHeapMx();
 		} else {
-			columnSeriation.generateOrderInsert();
+			result.mx = rowSeriation.getMx();
+		}
+		result.columnOrder = getColumnOrder();
+		if (output != outputTypes.matrix && withScale) {
+			result.rowScale = rowSeriation.getScale();
+			result.columnScale = columnSeriation.getScale();
+		}
+		return result;
+	}
+
+	/**
+	 * Writes a captured result.
+	 * 
+	 * @param result
+	 *            the result
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void writeResult(Result result) throws IOException {
+		Metrics.Timer timer = Metrics.getDefault().getTimer(
+				Metrics.phases.write);
+		long start = timer.start();
+		if (output != outputTypes.permutation) {
+			String filename = collection + "-biseriated" + result.suffix
+					+ (compressOutput ? ".dat.gz" : ".dat");
+			Events.OutputWrite event = new Events.OutputWrite();
+			event.start(Metrics.getDefault());
+			if (result.offHeapMx != null) {
+				PermutedMatrixWriter.write(result.offHeapMx, result.rowOrder,
+						result.columnOrder, filename, compressOutput);
+			} else {
+				PermutedMatrixWriter.write(result.mx, result.rowOrder,
+						result.columnOrder, filename, compressOutput);
+			}
+			if (event.isEnabled()) {
+				commitWriteEvent(event, filename, result.rowOrder.length,
+						result.offHeapMx != null ? result.offHeapMx
+								.countNonZeros() : SparseVector
+								.countNonZeros(result.mx));
+			}
+		}
+		if (output != outputTypes.matrix) {
+			String filename = collection + "-permutation" + result.suffix
+					+ ".bin";
+			Events.OutputWrite event = new Events.OutputWrite();
+			event.start(Metrics.getDefault());
+			PermutationFile permutation = new PermutationFile(
+					result.rowOrder, result.columnOrder, result.rowScale,
+					result.columnScale);
+			permutation.write(filename);
+			commitWriteEvent(event, filename, result.rowOrder.length, 0);
+		}
+		timer.stop(start);
+	}
+
+	/**
+	 * Gets the last published order of the rows. It may be called from any
+	 * thread while rows are folded in.
+	 * 
+	 * @return the row indices in order
+	 */
+	public int[] getRowOrder() {
+		return rowSeriation.getOrderSnapshot().toIntArray(0);
+	}
+
+	/**
+	 * Gets the current order of the columns, by their indices in the
+	 * collection. Unlike the snapshot itself, the offset of the indices is
+	 * found from the rows, so only the thread that folds in rows may call
+	 * this.
+	 * 
+	 * @return the column indices in order
+	 */
+	public int[] getColumnOrder() {
+		int minColumnIndex = rowSeriation.findMinColumnIndex();
+		// The column pass dropped the empty column 0 of one-indexed input
+		int columnOffset = minColumnIndex > 0 ? 1 : 0;
+		return columnSeriation.getOrderSnapshot().toIntArray(columnOffset);
+	}
+
+	/**
+	 * Gets the last published order of the rows without copying it. It may
+	 * be read from any thread while rows are folded in.
+	 */
+	public OrderSnapshot getRowOrderSnapshot() {
+		return rowSeriation.getOrderSnapshot();
+	}
+
+	/**
+	 * Gets the last published order of the columns without copying it, by
+	 * their indices in the transposed matrix. It may be read from any thread
+	 * while rows are folded in.
+	 */
+	public OrderSnapshot getColumnOrderSnapshot() {
+		return columnSeriation.getOrderSnapshot();
+	}
+
+	/**
+	 * Gets the number of rows, so that the next added row gets this index.
+	 */
+	public int getnRows() {
+		return rowSeriation.getnInstances();
+	}
+
+	/**
+	 * Ends the Flight Recorder event of an output file, and commits it if it
+	 * is recorded.
+	 */
+	private static void commitWriteEvent(Events.OutputWrite event,
+			String filename, int rows, long nnz) {
+		if (event.finish()) {
+			event.filename = filename;
+			event.bytes = new File(filename).length();
+			event.rows = rows;
+			event.nnz = nnz;
+			event.commit();
+		}
+	}
+
+	private void generateOrder(DistributionalOrder seriation)
+			throws IOException {
+		if (knnMode != null) {
+			seriation.setKnnGraph(findKnnGraph(seriation));
+		}
+		if (sketchComponents > 0) {
+			seriation.useSketch(sketchComponents, shortlistSize);
+		}
+		seriation.setProgressListener(progressListener);
+		seriation.setDeadline(deadline);
+		if (heuristic == heuristicTypes.leftright
+				&& (nStarts > 1 || seeds != null)) {
+			MultiStart multiStart = new MultiStart(seriation);
+			multiStart.setnStarts(nStarts);
+			multiStart.setSeeding(seeding);
+			if (seeds != null) {
+				multiStart.setSeeds(seeds);
+			}
+			multiStart.generateOrderLeftRight();
+		} else if (heuristic == heuristicTypes.leftright) {
+			seriation.generateOrderLeftRight();
+		} else if (heuristic == heuristicTypes.spectral) {
+			seriation.generateOrderSpectral();
+		} else if (heuristic == heuristicTypes.hierarchical) {
+			new HierarchicalOrdering(seriation).generateOrder();
+		} else {
+			seriation.generateOrderInsert();
+		}
+		if (refinementTimeLimit >= 0) {
+			LocalSearch localSearch = new LocalSearch(seriation);
+			localSearch.setTimeLimit(refinementTimeLimit);
+			localSearch.refine();
+		}
+	}
+
+	/**
+	 * Reads the cached kNN graph of a seriation, or builds and caches it if
+	 * the cache is missing or does not match the elements.
+	 */
+	private KnnGraph findKnnGraph(DistributionalOrder seriation)
+			throws IOException {
+		String knnFilename = seriation.getKnnGraphFilename();
+		if (new File(knnFilename).exists()) {
+			KnnGraph knnGraph = KnnGraph.read(knnFilename);
+			if (knnGraph.getK() >= nNeighbours
+					&& knnGraph.covers(seriation.getElements())) {
+				if (seriation.isVerbose()) {
+					System.out.println("Read kNN graph from " + knnFilename);
+				}
+				Metrics.getDefault()
+						.getCounter(Metrics.counters.knnCacheHits).increment();
+				return knnGraph;
+			}
+		}
+		Metrics.getDefault().getCounter(Metrics.counters.knnCacheMisses)
+				.increment();
+		if (seriation.isVerbose()) {
+			System.out.println("Building kNN graph...");
+		}
+		KnnGraphBuilder builder = new KnnGraphBuilder(seriation);
+		builder.setK(nNeighbours);
+		builder.setMode(knnMode);
+		KnnGraph knnGraph = builder.build();
+		knnGraph.write(knnFilename);
+		return knnGraph;
+	}
+
+	/**
+	 * Restricts the candidates of the heuristics to a k nearest neighbour
+	 * graph, which is cached next to the input between runs.
+	 * 
+	 * @param knnMode
+	 *            exact or approximate
+	 * @param nNeighbours
+	 *            the number of neighbours
+	 */
+	public void setKnnGraph(String knnMode, int nNeighbours) {
+		this.knnMode = KnnGraphBuilder.modeTypes.valueOf(knnMode);
+		this.nNeighbours = nNeighbours;
+		if (this.knnMode == KnnGraphBuilder.modeTypes.approximate
+				&& !distance.getCapabilities().contains(
+						Distance.capabilities.metric) && verbose) {
+			System.out.println("The distance " + distance.getName()
+					+ " is not a metric, so neighbours of neighbours may"
+					+ " miss some of the nearest neighbours.");
+		}
+	}
+
+	/**
+	 * Runs the left-right heuristic from several seeds and keeps the shortest
+	 * path.
+	 * 
+	 * @param nStarts
+	 *            the number of seeds
+	 * @param seeding
+	 *            sampled, medoid, or a comma-separated list of seeds
+	 */
+	public void setMultiStart(int nStarts, String seeding) {
+		this.nStarts = nStarts;
+		if (seeding.equals("sampled")) {
+			this.seeding = MultiStart.seedingTypes.sampled;
+		} else if (seeding.equals("medoid")) {
+			this.seeding = MultiStart.seedingTypes.medoid;
+		} else {
+			String[] tokens = seeding.split(",");
+			seeds = new int[tokens.length];
+			for (int i = 0; i < tokens.length; i++) {
+				seeds[i] = Integer.parseInt(tokens[i].trim());
+			}
+			this.seeding = MultiStart.seedingTypes.user;
+		}
+	}
+
+	/**
+	 * Selects the output: the full biseriated matrix in libsvm format, the
+	 * row and column permutations in binary format, or both.
+	 * 
+	 * @param output
+	 *            matrix, permutation or both
+	 * @param withScale
+	 *            whether the permutations are written with the scales
+	 */
+	public void setOutput(String output, boolean withScale) {
+		this.output = outputTypes.valueOf(output);
+		this.withScale = withScale;
+	}
+
+	/**
+	 * Selects where the seriations keep the rows of the matrix. Off the heap,
+	 * rows are mapped from a binary matrix file or copied into direct
+	 * buffers, so that large matrices do not burden the garbage collector.
+	 * External storage puts the copies in temporary files next to the input
+	 * as well, so that the matrix may exceed the physical memory. Mutual
+	 * information only supports the heap.
+	 * 
+	 * @param storage
+	 *            heap, offheap or external
+	 */
+	public void setStorage(String storage) {
+		this.storage = DistributionalOrder.storageTypes.valueOf(storage);
+	}
+
+	/**
+	 * Preselects the candidates of the insert and left-right heuristics by a
+	 * random projection of the rows kept in memory, and computes exact
+	 * distances only on a shortlist. With external storage, this bounds the
+	 * rows read from disk in every step.
+	 * 
+	 * @param sketchComponents
+	 *            the number of components of the projection, 0 to compute
+	 *            every distance exactly
+	 * @param shortlistSize
+	 *            the number of candidates with exact distances
+	 */
+	public void setSketch(int sketchComponents, int shortlistSize) {
+		this.sketchComponents = sketchComponents;
+		this.shortlistSize = shortlistSize;
+	}
+
+	public void setCompressOutput(boolean compressOutput) {
+		this.compressOutput = compressOutput;
+	}
+
+	/**
+	 * Switches on the 2-opt and Or-opt refinement of the constructed orders.
+	 * 
+	 * @param refinementTimeLimit
+	 *            the time limit of each refinement in milliseconds, zero for
+	 *            no limit, negative to switch refinement off
+	 */
+	public void setRefinementTimeLimit(long refinementTimeLimit) {
+		this.refinementTimeLimit = refinementTimeLimit;
+	}
+
+	/**
+	 * Sets the listener that receives the progress of the insert and
+	 * left-right heuristics of both seriations, and may cancel them.
+	 * 
+	 * @param progressListener
+	 *            the listener, or null for none
+	 */
+	public void setProgressListener(ProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	/**
+	 * Sets the time after which the insert and left-right heuristics are
+	 * cancelled with a CancellationException.
+	 * 
+	 * @param deadline
+	 *            the deadline in System.currentTimeMillis, or 0 for none
+	 */
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Sets whether the biseriation prints what its heuristics do to
+	 * System.out, such as false when it is embedded in a service. Progress
+	 * goes to the progress listener either way.
+	 * 
+	 * @param verbose
+	 *            false to print nothing, true by default
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Sets the threads that parsing and the heuristics of each seriation may
+	 * use, such as 1 for a biseriation that shares the processors with
+	 * others.
+	 * 
+	 * @param nThreads
+	 *            the number of threads, one per processor by default
+	 */
+	public void setnThreads(int nThreads) {
+		if (nThreads < 1) {
+			throw new IllegalArgumentException(
+					"The number of threads must be positive.");
 		}
-		columnSeriation.writeNewOrder(collection + "-biseriated.dat");
+		this.nThreads = nThreads;
 	}
 
 }
@@ -18,35 +18,80 @@
  */
 package se.hb.cd.biseriation;
 
+import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import javax.management.JMException;
+
+import sg.edu.nus.comp.sseriation.order.DistributionalOrder;
+import sg.edu.nus.comp.sseriation.order.Progress;
+import sg.edu.nus.comp.sseriation.order.ProgressListener;
+import sg.edu.nus.comp.sseriation.util.Events;
+import sg.edu.nus.comp.sseriation.util.Kernels;
+import sg.edu.nus.comp.sseriation.util.Metrics;
 import sg.edu.nus.comp.sseriation.util.SparseVector;
+import sg.edu.nus.comp.sseriation.util.StateFile;
 import sg.edu.nus.comp.sseriation.util.VectorNode;
 
 public class DynamicBiseriation extends Biseriation {
 
+	/** The number of updates parsed or written ahead of the fold. */
+	private static final int PIPELINE_DEPTH = 2;
+
+	/** Writes the states in the background, one at a time. */
+	private static final ExecutorService STATE_WRITER = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "state-writer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
 	private VectorNode[][] updates;
 	private int global_update_iteration;
+	/**
+	 * What is subtracted from the column indices of the rows in the columns
+	 * of the column seriation, -1 while it is not known.
+	 */
+	private int columnOffset = -1;
 
 	/**
 	 * @param args
 	 * @throws IOException
-	 * @throws ClassNotFoundException
-	 * @throws NoSuchMethodException
 	 * @throws RuntimeException
-	 * @throws InvocationTargetException
-	 * @throws IllegalAccessException
-	 * @throws InstantiationException
 	 */
 	public static void main(String[] args) throws IOException,
-			RuntimeException, NoSuchMethodException, ClassNotFoundException,
-			InstantiationException, IllegalAccessException,
-			InvocationTargetException {
+			RuntimeException {
 
 		// Defaults
 		String distance = "Euclidean";
 		String heuristic = "leftright";
+		long refinementTimeLimit = -1;
+		int nStarts = 1;
+		String seeding = "medoid";
+		String knnMode = null;
+		int nNeighbours = 10;
+		String output = "matrix";
+		boolean withScale = false;
+		boolean compressOutput = false;
+		String storage = "heap";
+		int sketchComponents = -1;
+		int shortlistSize = 64;
+		boolean printMetrics = false;
+		int servePort = -1;
+		String stateFile = null;
 
 		int argc = 0;
 		while (args.length>argc && args[argc].charAt(0) == '-') {
@@ -86,6 +131,153 @@ public class DynamicBiseriation extends Biseriation {
 				heuristic = flagValue;
 				argc += 2;
 			}
+			if (flagName.equals("r") | flagName.equals("refine")) {
+				String flagValue;
+				try {
+					flagValue = args[argc + 1];
+				} catch (ArrayIndexOutOfBoundsException e) {
+					throw new IllegalArgumentException("option -" + flagName
+							+ " requires an argument");
+				}
+				refinementTimeLimit = (long) (Double.parseDouble(flagValue) * 1000);
+				argc += 2;
+			}
+			if (flagName.equals("s") | flagName.equals("starts")) {
+				String flagValue;
+				try {
+					flagValue = args[argc + 1];
+				} catch (ArrayIndexOutOfBoundsException e) {
+					throw new IllegalArgumentException("option -" + flagName
+							+ " requires an argument");
+				}
+				nStarts = Integer.parseInt(flagValue);
+				argc += 2;
+			}
+			if (flagName.equals("seeding")) {
+				String flagValue;
+				try {
+					flagValue = args[argc + 1].toLowerCase();
+				} catch (ArrayIndexOutOfBoundsException e) {
+					throw new IllegalArgumentException("option -" + flagName
+							+ " requires an argument");
+				}
+				seeding = flagValue;
+				argc += 2;
+			}
+			if (flagName.equals("knn")) {
+				String flagValue;
+				try {
+					flagValue = args[argc + 1].toLowerCase();
+				} catch (ArrayIndexOutOfBoundsException e) {
+					throw new IllegalArgumentException("option -" + flagName
+							+ " requires an argument");
+				}
+				knnMode = flagValue;
+				argc += 2;
+			}
+			if (flagName.equals("o") | flagName.equals("output")) {
+				String flagValue;
+				try {
+					flagValue = args[argc + 1].toLowerCase();
+				} catch (ArrayIndexOutOfBoundsException e) {
+					throw new IllegalArgumentException("option -" + flagName
+							+ " requires an argument");
+				}
+				output = flagValue;
+				argc += 2;
+			}
+			if (flagName.equals("scale")) {
+				withScale = true;
+				argc++;
+			}
+			if (flagName.equals("z") | flagName.equals("gzip")) {
+				compressOutput = true;
+				argc++;
+			}
+			if (flagName.equals("metrics")) {
+				printMetrics = true;
+				argc++;
+			}
+			if (flagName.equals("offheap")) {
+				storage = "offheap";
+				argc++;
+			}
+			if (flagName.equals("external")) {
+				storage = "external";
+				argc++;
+			}
+			if (flagName.equals("simd")) {
+				if (!Kernels.setSimd(true)) {
+					System.out.println("SIMD kernels are not available, "
+							+ "using the scalar ones.");
+				}
+				argc++;
+			}
+			if (flagName.equals("density")) {
+				String flagValue;
+				try {
+					flagValue = args[argc + 1];
+				} catch (ArrayIndexOutOfBoundsException e) {
+					throw new IllegalArgumentException("option -" + flagName
+							+ " requires an argument");
+				}
+				DistributionalOrder.setDensityThreshold(Double
+						.parseDouble(flagValue));
+				argc += 2;
+			}
+			if (flagName.equals("sketch")) {
+				String flagValue;
+				try {
+					flagValue = args[argc + 1];
+				} catch (ArrayIndexOutOfBoundsException e) {
+					throw new IllegalArgumentException("option -" + flagName
+							+ " requires an argument");
+				}
+				sketchComponents = Integer.parseInt(flagValue);
+				argc += 2;
+			}
+			if (flagName.equals("shortlist")) {
+				String flagValue;
+				try {
+					flagValue = args[argc + 1];
+				} catch (ArrayIndexOutOfBoundsException e) {
+					throw new IllegalArgumentException("option -" + flagName
+							+ " requires an argument");
+				}
+				shortlistSize = Integer.parseInt(flagValue);
+				argc += 2;
+			}
+			if (flagName.equals("state")) {
+				try {
+					stateFile = args[argc + 1];
+				} catch (ArrayIndexOutOfBoundsException e) {
+					throw new IllegalArgumentException("option -" + flagName
+							+ " requires an argument");
+				}
+				argc += 2;
+			}
+			if (flagName.equals("serve")) {
+				String flagValue;
+				try {
+					flagValue = args[argc + 1];
+				} catch (ArrayIndexOutOfBoundsException e) {
+					throw new IllegalArgumentException("option -" + flagName
+							+ " requires an argument");
+				}
+				servePort = Integer.parseInt(flagValue);
+				argc += 2;
+			}
+			if (flagName.equals("k") | flagName.equals("neighbours")) {
+				String flagValue;
+				try {
+					flagValue = args[argc + 1];
+				} catch (ArrayIndexOutOfBoundsException e) {
+					throw new IllegalArgumentException("option -" + flagName
+							+ " requires an argument");
+				}
+				nNeighbours = Integer.parseInt(flagValue);
+				argc += 2;
+			}
 
 		}
 		if (args.length-argc<=0){
@@ -93,14 +285,85 @@ public class DynamicBiseriation extends Biseriation {
 		}
 
 		String collection = args[argc++];
+		if (printMetrics) {
+			try {
+				Metrics.getDefault().registerMBean("default");
+			} catch (JMException e) {
+				System.err.println("Cannot register the metrics: "
+						+ e.getMessage());
+			}
+		}
 		DynamicBiseriation dynamicBiseriation = new DynamicBiseriation(
 				collection, distance, heuristic);
-		dynamicBiseriation.calculateBiseriationOfStaticPart();
-		
+		dynamicBiseriation.setRefinementTimeLimit(refinementTimeLimit);
+		if (nStarts > 1 || !seeding.equals("medoid")) {
+			dynamicBiseriation.setMultiStart(nStarts, seeding);
+		}
+		if (knnMode != null) {
+			dynamicBiseriation.setKnnGraph(knnMode, nNeighbours);
+		}
+		dynamicBiseriation.setOutput(output, withScale);
+		dynamicBiseriation.setCompressOutput(compressOutput);
+		dynamicBiseriation.setStorage(storage);
+		// External storage preselects by a sketch unless told otherwise
+		if (sketchComponents < 0) {
+			sketchComponents = storage.equals("external") ? 32 : 0;
+		}
+		dynamicBiseriation.setSketch(sketchComponents, shortlistSize);
+		dynamicBiseriation.setProgressListener(new ProgressListener() {
+			@Override
+			public void progress(Progress progress) {
+				System.out.println(progress);
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return false;
+			}
+		});
+		if (stateFile != null && new File(stateFile).exists()) {
+			long start = System.currentTimeMillis();
+			dynamicBiseriation.readState(stateFile);
+			System.out.println("Resumed from " + stateFile + " after "
+					+ dynamicBiseriation.getUpdateIteration() + " updates in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		} else {
+			dynamicBiseriation.calculateBiseriationOfStaticPart();
+		}
+
+		List<String> collectionUpdates = new ArrayList<String>();
 		while (args.length>argc){
-			String collectionUpdate = args[argc++];
-			dynamicBiseriation.addCollectionUpdate(collectionUpdate);
-			dynamicBiseriation.iterativelyUpdate();
+			collectionUpdates.add(args[argc++]);
+		}
+		if (collectionUpdates.size() > 0) {
+			dynamicBiseriation.processCollectionUpdates(collectionUpdates);
+		}
+		if (printMetrics) {
+			System.out.print(Metrics.getDefault());
+		}
+		Future<Void> stateWrite = null;
+		if (stateFile != null) {
+			stateWrite = dynamicBiseriation.writeStateInBackground(stateFile);
+		}
+		if (servePort >= 0) {
+			SeriationServer server = new SeriationServer(dynamicBiseriation,
+					servePort);
+			server.setStateFile(stateFile);
+			server.start();
+			System.out.println("Serving on http://127.0.0.1:"
+					+ server.getPort() + "/");
+		} else if (stateWrite != null) {
+			try {
+				stateWrite.get();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while writing " + stateFile,
+						e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			}
 		}
 	}
 
@@ -117,24 +380,146 @@ public class DynamicBiseriation extends Biseriation {
 	 *             Signals that an I/O exception has occurred.
 	 * @throws RuntimeException
 	 *             the runtime exception
-	 * @throws NoSuchMethodException
-	 *             the no such method exception
-	 * @throws ClassNotFoundException
-	 *             the class not found exception
 	 */
 	public DynamicBiseriation(String collection, String distanceType,
-			String heuristicType) throws IOException, RuntimeException,
-			NoSuchMethodException, ClassNotFoundException {
+			String heuristicType) throws IOException, RuntimeException {
 		super(collection, distanceType, heuristicType);
 		global_update_iteration = 0;
 	}
 
 	public void addCollectionUpdate(String collectionUpdate)
 			throws IOException {
-		updates = SparseVector.readSparseMatrix(collectionUpdate);
+		Metrics.Timer timer = Metrics.getDefault().getTimer(
+				Metrics.phases.parse);
+		long start = timer.start();
+		updates = SparseVector.readSparseMatrix(collectionUpdate, nThreads);
+		timer.stop(start);
 		rowSeriation.mergeUpdates(updates);
 	}
 
+	/**
+	 * Adds rows to the collection and folds them into both orders, without
+	 * writing the biseriation.
+	 * 
+	 * @param rows
+	 *            the new rows
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void addRows(VectorNode[][] rows) throws IOException {
+		updates = rows;
+		rowSeriation.mergeUpdates(rows);
+		foldInUpdates(rows);
+	}
+
+	/**
+	 * Gets the number of rows folded in since the static part.
+	 */
+	public int getUpdateIteration() {
+		return global_update_iteration;
+	}
+
+	/**
+	 * Writes the state of both seriations, that is their rows, the sums of
+	 * the rows and orders, and the number of updates, so that readState can
+	 * continue from it without recalculating the static part.
+	 * 
+	 * @param filename
+	 *            the file name
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void writeState(String filename) throws IOException {
+		captureState().write(filename);
+	}
+
+	/**
+	 * Writes the state as writeState, but in the background: only the orders
+	 * are copied before this returns, and the rows are written while the
+	 * updates go on. The states are written one at a time, in the order of
+	 * the calls.
+	 * 
+	 * @param filename
+	 *            the file name
+	 * @return the future of the write
+	 */
+	public Future<Void> writeStateInBackground(final String filename) {
+		final StateFile state = captureState();
+		return STATE_WRITER.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				Metrics.Timer timer = Metrics.getDefault().getTimer(
+						Metrics.phases.write);
+				long start = timer.start();
+				state.write(filename);
+				timer.stop(start);
+				return null;
+			}
+		});
+	}
+
+	private StateFile captureState() {
+		return new StateFile(global_update_iteration, getDistance().getName(),
+				rowSeriation.captureState(), columnSeriation.captureState());
+	}
+
+	/**
+	 * Replaces both seriations by a state written by writeState, with the
+	 * storage and sketch set on this biseriation. The file is memory-mapped,
+	 * and rows stored off the heap stay in it.
+	 * 
+	 * @param filename
+	 *            the file name
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred, or the file is
+	 *             not a state file of the distance of this biseriation.
+	 */
+	public void readState(String filename) throws IOException {
+		Metrics.Timer timer = Metrics.getDefault().getTimer(
+				Metrics.phases.parse);
+		long start = timer.start();
+		StateFile state = StateFile.read(filename,
+				storage != DistributionalOrder.storageTypes.heap);
+		if (!state.getDistanceName().equals(getDistance().getName())
+				|| state.getSections().length != 2) {
+			throw new IOException(filename + " is a state of the distance "
+					+ state.getDistanceName() + ", not "
+					+ getDistance().getName() + ".");
+		}
+		DistributionalOrder rows = readSeriation(state.getSections()[0],
+				collectionFile, false);
+		DistributionalOrder columns = readSeriation(state.getSections()[1],
+				collection + "-row-seriated.bin", true);
+		global_update_iteration = state.getUpdateIteration();
+		columnOffset = -1;
+		rowSeriation = rows;
+		columnSeriation = columns;
+		updates = null;
+		timer.stop(start);
+	}
+
+	private DistributionalOrder readSeriation(StateFile.Section section,
+			String filename, boolean isTransposed) {
+		DistributionalOrder seriation = new DistributionalOrder(filename,
+				getDistance(), isTransposed, section, storage);
+		seriation.setnThreads(nThreads);
+		seriation.setVerbose(verbose);
+		if (sketchComponents > 0) {
+			seriation.useSketch(sketchComponents, shortlistSize);
+		}
+		return seriation;
+	}
+
+	/**
+	 * Drops both seriations, such as after writeState, to free their memory
+	 * until readState.
+	 */
+	public void releaseState() {
+		rowSeriation = null;
+		columnSeriation = null;
+		updates = null;
+	}
+
 	/**
 	 * Iteratively update the biseration.
 	 * 
@@ -142,23 +527,238 @@ public class DynamicBiseriation extends Biseriation {
 	 *             Signals that an I/O exception has occurred.
 	 */
 	public void iterativelyUpdate() throws IOException {
+		foldInUpdates(updates);
+		writeBiseriation("-updated-" + global_update_iteration);
+	}
+
+	private void foldInUpdates(VectorNode[][] updates) throws IOException {
+		int firstRow = rowSeriation.getnInstances();
 		for (int i = 0; i < updates.length; i++) {
 			rowSeriation.foldInNewInstance(updates[i]);
-			updateFeatureSpaceSeriation();
+			if (i == 0) {
+				// The merged rows are all in the columns from the first on
+				updateFeatureSpaceSeriation(updates, firstRow);
+			}
 		}
 		global_update_iteration += updates.length;
-		rowSeriation
-		.writeNewOrder(SparseVector.transpose(columnSeriation
-				.getRearranged()), null, collection+"-biseriated-updated-"
-				+ (global_update_iteration) + ".dat");
+	}
 
+	/**
+	 * Adds a sequence of updates with the reading, folding and writing in a
+	 * pipeline: a reader thread parses the next update and a writer thread
+	 * writes the result of the previous one while the calling thread folds in
+	 * the current one. The stages are connected by bounded queues, and the
+	 * outputs are the same as those of addCollectionUpdate and
+	 * iterativelyUpdate called on every update in turn.
+	 * 
+	 * @param collectionUpdates
+	 *            the update files in order
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred in any stage.
+	 */
+	public void processCollectionUpdates(final List<String> collectionUpdates)
+			throws IOException {
+		final BlockingQueue<Update> parsed = new ArrayBlockingQueue<Update>(
+				PIPELINE_DEPTH);
+		final BlockingQueue<Update> folded = new ArrayBlockingQueue<Update>(
+				PIPELINE_DEPTH);
+		final Metrics.Timer parseTimer = Metrics.getDefault().getTimer(
+				Metrics.phases.parse);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		long start = System.currentTimeMillis();
+		try {
+			Future<Void> reader = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws InterruptedException {
+					for (String collectionUpdate : collectionUpdates) {
+						Update update = new Update(collectionUpdate);
+						long time = System.currentTimeMillis();
+						long start = parseTimer.start();
+						try {
+							update.rows = SparseVector.readSparseMatrix(
+									collectionUpdate, nThreads);
+						} catch (IOException e) {
+							update.failure = e;
+						}
+						parseTimer.stop(start);
+						update.readTime = System.currentTimeMillis() - time;
+						parsed.put(update);
+						if (update.failure != null) {
+							break;
+						}
+					}
+					return null;
+				}
+			});
+			Future<Long[]> writer = executor.submit(new Callable<Long[]>() {
+				@Override
+				public Long[] call() throws InterruptedException, IOException {
+					long readTime = 0, foldTime = 0, writeTime = 0;
+					IOException failure = null;
+					for (int i = 0; i < collectionUpdates.size(); i++) {
+						Update update = folded.take();
+						if (update.result == null) {
+							break;
+						}
+						// Keep taking after a failure so the fold never blocks
+						if (failure == null) {
+							long time = System.currentTimeMillis();
+							try {
+								writeResult(update.result);
+							} catch (IOException e) {
+								failure = e;
+							}
+							update.writeTime = System.currentTimeMillis() - time;
+							System.out.println("Update " + update.filename
+									+ ": read " + update.readTime
+									+ " ms, fold " + update.foldTime
+									+ " ms, write " + update.writeTime + " ms");
+						}
+						update.result = null;
+						readTime += update.readTime;
+						foldTime += update.foldTime;
+						writeTime += update.writeTime;
+					}
+					if (failure != null) {
+						throw failure;
+					}
+					return new Long[] { readTime, foldTime, writeTime };
+				}
+			});
+			try {
+				for (int i = 0; i < collectionUpdates.size(); i++) {
+					Update update = parsed.take();
+					if (update.failure != null) {
+						// Let the writer finish the updates before this one
+						folded.put(update);
+						writer.get();
+						throw update.failure;
+					}
+					long time = System.currentTimeMillis();
+					updates = update.rows;
+					rowSeriation.mergeUpdates(updates);
+					foldInUpdates(updates);
+					update.rows = null;
+					update.result = captureResult("-updated-"
+							+ global_update_iteration);
+					update.foldTime = System.currentTimeMillis() - time;
+					folded.put(update);
+				}
+				Long[] times = writer.get();
+				reader.get();
+				System.out.println("Pipeline of " + collectionUpdates.size()
+						+ " updates: read " + times[0] + " ms, fold "
+						+ times[1] + " ms, write " + times[2] + " ms, total "
+						+ (System.currentTimeMillis() - start) + " ms");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while updating", e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * An update file on its way through the pipeline.
+	 */
+	private static class Update {
+		String filename;
+		VectorNode[][] rows;
+		Result result;
+		IOException failure;
+		long readTime, foldTime, writeTime;
+
+		Update(String filename) {
+			this.filename = filename;
+		}
 	}
 
-	private void updateFeatureSpaceSeriation() {
-		columnSeriation.setMx(SparseVector.transpose(rowSeriation.getMx()));
-		for (int i = 0; i < columnSeriation.getMx().length; i++) {
+	/**
+	 * Brings the columns up to date with the merged rows of an update and
+	 * inserts the new columns into their order. Only the entries of the new
+	 * rows are appended to the columns, off the heap if the rows are there.
+	 * The columns are transposed from all rows in the first update, when
+	 * they still hold the row-seriated matrix, and when a row gains column
+	 * 0 and the indices of the columns shift.
+	 * 
+	 * @param rows
+	 *            the rows of the update
+	 * @param firstRow
+	 *            the index of the first of the rows
+	 */
+	private void updateFeatureSpaceSeriation(VectorNode[][] rows, int firstRow)
+			throws IOException {
+		Metrics metrics = Metrics.getDefault();
+		Metrics.Timer timer = metrics
+				.getTimer(Metrics.phases.featureSpaceUpdate);
+		long start = timer.start();
+		Events.FeatureSpaceUpdate event = new Events.FeatureSpaceUpdate();
+		event.start(metrics);
+		// The column pass drops the empty column 0 of one-indexed input
+		int offset = rowSeriation.findMinColumnIndex() > 0 ? 1 : 0;
+		if (columnOffset < 0 && global_update_iteration > 0) {
+			// After readState, the offset is known unless the update brings
+			// the first column 0
+			if (offset == 1) {
+				columnOffset = 1;
+			} else if (!hasColumnZero(rows)) {
+				columnOffset = 0;
+			}
+		}
+		if (columnOffset != offset) {
+			Metrics.Timer transposeTimer = metrics
+					.getTimer(Metrics.phases.transpose);
+			long transposeStart = transposeTimer.start();
+			Events.Transpose transposeEvent = new Events.Transpose();
+			transposeEvent.start(metrics);
+			if (rowSeriation.isOffHeap()) {
+				columnSeriation.setOffHeapMx(rowSeriation.getOffHeapMx()
+						.transpose());
+			} else {
+				columnSeriation.setMx(SparseVector.transpose(rowSeriation
+						.getMx()));
+			}
+			columnOffset = offset;
+			transposeTimer.stop(transposeStart);
+			if (transposeEvent.finish()) {
+				transposeEvent.rows = columnSeriation.getnInstances();
+				transposeEvent.nnz = columnSeriation.countNonZeros();
+				transposeEvent.commit();
+			}
+		} else {
+			for (int i = 0; i < rows.length; i++) {
+				columnSeriation.appendDimension(firstRow + i, rows[i], offset);
+			}
+		}
+		int nColumns = columnSeriation.getnInstances();
+		for (int i = 0; i < nColumns; i++) {
 			columnSeriation.updateOrderInsert(i);
 		}
+		timer.stop(start);
+		if (event.finish()) {
+			event.rows = nColumns;
+			event.nnz = columnSeriation.countNonZeros();
+			event.commit();
+		}
+	}
+
+	private static boolean hasColumnZero(VectorNode[][] rows) {
+		for (int i = 0; i < rows.length; i++) {
+			if (rows[i] != null) {
+				for (int j = 0; j < rows[i].length; j++) {
+					if (rows[i][j].index == 0) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
 	}
 
 }
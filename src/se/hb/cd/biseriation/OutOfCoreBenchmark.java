@@ -0,0 +1,144 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package se.hb.cd.biseriation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import sg.edu.nus.comp.sseriation.order.DistributionalOrder;
+import sg.edu.nus.comp.sseriation.order.Euclidean;
+import sg.edu.nus.comp.sseriation.util.SparseMatrix;
+import sg.edu.nus.comp.sseriation.util.SparseMatrixFile;
+import sg.edu.nus.comp.sseriation.util.Utilities;
+
+/**
+ * Compares the row seriation of a generated collection in memory with exact
+ * distances against external storage with distances preselected by a sketch.
+ * The collection has rows in random order whose terms are drawn around a
+ * position along the term space, so it has a natural seriation.
+ */
+public class OutOfCoreBenchmark {
+
+	private static final int TERMS_PER_ROW = 12;
+	private static final int SKETCH_COMPONENTS = 32;
+	private static final int SHORTLIST_SIZE = 64;
+
+	/**
+	 * @param args
+	 *            [number of rows [number of columns [leftright|insert
+	 *            [directory]]]]
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void main(String[] args) throws IOException {
+		int nRows = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int nColumns = args.length > 1 ? Integer.parseInt(args[1])
+				: Math.max(nRows / 10, TERMS_PER_ROW);
+		String heuristic = args.length > 2 ? args[2] : "leftright";
+		File directory = new File(args.length > 3 ? args[3]
+				: System.getProperty("java.io.tmpdir"));
+
+		String filename = new File(directory, "seriation-benchmark-" + nRows
+				+ ".bin").getPath();
+		SparseMatrixFile.write(generate(nRows, nColumns, 1), filename,
+				SparseMatrixFile.COLUMN_MAJOR);
+		System.out.println("Generated " + nRows + " x " + nColumns + " in "
+				+ filename);
+		System.out.println("storage   sketch  load ms  order ms  heap MB  path length");
+		double exact = run(filename, heuristic,
+				DistributionalOrder.storageTypes.heap, 0);
+		double sketched = run(filename, heuristic,
+				DistributionalOrder.storageTypes.external, SKETCH_COMPONENTS);
+		System.out.printf("Path length of the sketched order: %.2f%% of the exact one%n",
+				100 * sketched / exact);
+		new File(filename).delete();
+	}
+
+	/**
+	 * Generates a collection. Row r of the natural order uses columns around
+	 * r * nColumns / nRows, and the rows are shuffled.
+	 */
+	static SparseMatrix generate(int nRows, int nColumns, long seed) {
+		Random random = new Random(seed);
+		int[] rows = new int[nRows];
+		for (int i = 0; i < nRows; i++) {
+			rows[i] = i;
+		}
+		for (int i = nRows - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int tmp = rows[i];
+			rows[i] = rows[j];
+			rows[j] = tmp;
+		}
+		int[] rowPointers = new int[nRows + 1];
+		int[] columns = new int[nRows * TERMS_PER_ROW];
+		double[] values = new double[nRows * TERMS_PER_ROW];
+		int nnz = 0;
+		TreeMap<Integer, Double> row = new TreeMap<Integer, Double>();
+		for (int i = 0; i < nRows; i++) {
+			double center = (double) rows[i] * nColumns / nRows;
+			row.clear();
+			for (int t = 0; t < TERMS_PER_ROW; t++) {
+				int column = (int) (center + random.nextGaussian() * nColumns
+						/ 30) + 1;
+				row.put(Math.max(1, Math.min(nColumns, column)),
+						(double) (1 + random.nextInt(5)));
+			}
+			for (Integer column : row.keySet()) {
+				columns[nnz] = column;
+				values[nnz++] = row.get(column);
+			}
+			rowPointers[i + 1] = nnz;
+		}
+		return new SparseMatrix(rowPointers, columns, values);
+	}
+
+	private static double run(String filename, String heuristic,
+			DistributionalOrder.storageTypes storage, int sketchComponents)
+			throws IOException {
+		System.gc();
+		long start = System.currentTimeMillis();
+		Euclidean seriation = new Euclidean(filename, false, storage);
+		seriation.setVerbose(false);
+		if (sketchComponents > 0) {
+			seriation.useSketch(sketchComponents, SHORTLIST_SIZE);
+		}
+		long loadTime = System.currentTimeMillis() - start;
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		long heap = runtime.totalMemory() - runtime.freeMemory();
+		start = System.currentTimeMillis();
+		if (heuristic.equals("insert")) {
+			seriation.generateOrderInsert();
+		} else {
+			seriation.generateOrderLeftRight();
+		}
+		long orderTime = System.currentTimeMillis() - start;
+		double length = seriation.calculateSumOfDistances();
+		System.out.printf("%-9s %6d %8d %9d %8.1f %12.2f%n", storage,
+				sketchComponents, loadTime, orderTime, heap / 1048576.0,
+				length);
+		new File(Utilities.removeExtension(filename) + "_"
+				+ seriation.getModel() + "_order-tmp.txt").delete();
+		return length;
+	}
+
+}
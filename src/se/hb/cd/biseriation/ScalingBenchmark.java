@@ -0,0 +1,220 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package se.hb.cd.biseriation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+
+import sg.edu.nus.comp.sseriation.order.DistributionalOrder;
+import sg.edu.nus.comp.sseriation.order.Euclidean;
+import sg.edu.nus.comp.sseriation.order.MultiStart;
+import sg.edu.nus.comp.sseriation.util.CollectionGenerator;
+import sg.edu.nus.comp.sseriation.util.Metrics;
+
+/**
+ * Measures how the heuristics and the updates scale on generated collections
+ * of several sizes. For every size, a collection with a planted order and a
+ * stream of update files are generated, and every run reports its wall time,
+ * the number of distances computed, the peak heap, the sum of distances of
+ * the order and how well the order recovers the planted one. The left-right
+ * heuristic is also run from several seeds in parallel on every number of
+ * threads given.
+ */
+public class ScalingBenchmark {
+
+	/** The average number of term occurrences a row draws. */
+	private static final int TERMS_PER_ROW = 24;
+	private static final int N_BLOCKS = 10;
+	private static final int N_STARTS = 4;
+	private static final int ROWS_PER_UPDATE = 5;
+
+	private static PrintStream out = System.out;
+
+	/**
+	 * A dynamic biseriation over Euclidean distances that does not print
+	 * progress.
+	 */
+	private static class QuietBiseriation extends DynamicBiseriation {
+
+		QuietBiseriation(String collection) throws IOException {
+			super(collection, "Euclidean", "leftright");
+		}
+
+		@Override
+		protected DistributionalOrder newSeriation(String filename,
+				boolean isTransposed) throws IOException {
+			return newQuietSeriation(filename, isTransposed);
+		}
+
+		DistributionalOrder getRowSeriation() {
+			return rowSeriation;
+		}
+	}
+
+	private static DistributionalOrder newQuietSeriation(String filename,
+			boolean isTransposed) throws IOException {
+		DistributionalOrder result = new Euclidean(filename, isTransposed);
+		result.setVerbose(false);
+		return result;
+	}
+
+	/**
+	 * @param args
+	 *            [comma-separated numbers of rows [comma-separated numbers of
+	 *            threads [number of updates [directory]]]]
+	 * @throws IOException
+	 *             if a run fails
+	 */
+	public static void main(String[] args) throws IOException {
+		int[] sizes = parseList(args.length > 0 ? args[0] : "1000,2000,4000");
+		int[] threads = parseList(args.length > 1 ? args[1] : "1,2,4");
+		int nUpdates = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		File parent = new File(args.length > 3 ? args[3]
+				: System.getProperty("java.io.tmpdir"));
+
+		out.println("rows  run               threads  wall ms  distances  peak MB  sum of distances  recovery");
+		for (int s = 0; s < sizes.length; s++) {
+			File directory = new File(parent, "seriation-scaling-" + sizes[s]);
+			directory.mkdirs();
+			try {
+				benchmark(sizes[s], threads, nUpdates, directory);
+			} finally {
+				File[] files = directory.listFiles();
+				for (int i = 0; i < files.length; i++) {
+					files[i].delete();
+				}
+				directory.delete();
+			}
+		}
+	}
+
+	private static void benchmark(int nRows, int[] threads, int nUpdates,
+			File directory) throws IOException {
+		int nColumns = Math.max(nRows / 4, 4 * N_BLOCKS);
+		CollectionGenerator generator = new CollectionGenerator(nColumns,
+				(double) TERMS_PER_ROW / nColumns, N_BLOCKS, nRows);
+		String collection = new File(directory, "collection").getPath();
+		CollectionGenerator.write(generator.generate(nRows), collection
+				+ ".dat");
+		String[] updates = new String[nUpdates];
+		for (int u = 0; u < nUpdates; u++) {
+			updates[u] = collection + "-update-" + (u + 1) + ".dat";
+			CollectionGenerator.write(generator.generate(ROWS_PER_UPDATE),
+					updates[u]);
+		}
+		double[] positions = generator.getPlantedPositions();
+
+		DistributionalOrder seriation = newQuietSeriation(collection
+				+ ".dat", false);
+		start();
+		seriation.generateOrderLeftRight();
+		report(nRows, "leftright", 1, seriation, positions);
+
+		seriation = newQuietSeriation(collection + ".dat", false);
+		start();
+		seriation.generateOrderInsert();
+		report(nRows, "insert", 1, seriation, positions);
+
+		for (int t = 0; t < threads.length; t++) {
+			seriation = newQuietSeriation(collection + ".dat", false);
+			MultiStart multiStart = new MultiStart(seriation);
+			multiStart.setnStarts(N_STARTS);
+			multiStart.setnThreads(threads[t]);
+			start();
+			multiStart.generateOrderLeftRight();
+			report(nRows, "leftright x" + N_STARTS, threads[t], seriation,
+					positions);
+		}
+
+		if (nUpdates > 0) {
+			QuietBiseriation biseriation = new QuietBiseriation(
+					collection);
+			start();
+			biseriation.calculateBiseriationOfStaticPart();
+			report(nRows, "biseriation", 1, biseriation.getRowSeriation(),
+					positions);
+			start();
+			for (int u = 0; u < nUpdates; u++) {
+				biseriation.addCollectionUpdate(updates[u]);
+				biseriation.iterativelyUpdate();
+			}
+			report(nRows, nUpdates + " updates", 1,
+					biseriation.getRowSeriation(), positions);
+		}
+	}
+
+	private static long startTime;
+
+	/**
+	 * Starts the measurement of a run and silences its progress output.
+	 */
+	private static void start() {
+		System.gc();
+		List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+		for (int i = 0; i < pools.size(); i++) {
+			pools.get(i).resetPeakUsage();
+		}
+		Metrics.getDefault().reset();
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+		startTime = System.nanoTime();
+	}
+
+	private static void report(int nRows, String run, int nThreads,
+			DistributionalOrder seriation, double[] positions) {
+		long wallTime = (System.nanoTime() - startTime) / 1000000;
+		System.setOut(out);
+		long peakHeap = 0;
+		List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+		for (int i = 0; i < pools.size(); i++) {
+			if (pools.get(i).getType() == MemoryType.HEAP) {
+				peakHeap += pools.get(i).getPeakUsage().getUsed();
+			}
+		}
+		List<Integer> order = seriation.getOrder();
+		int[] elements = new int[order.size()];
+		for (int i = 0; i < elements.length; i++) {
+			elements[i] = order.get(i);
+		}
+		out.printf("%5d %-17s %7d %8d %10d %8.1f %17.2f %9.3f%n", nRows, run,
+				nThreads, wallTime,
+				Metrics.getDefault().getCount(Metrics.counters.distanceCalls),
+				peakHeap / 1048576.0, seriation.calculateSumOfDistances(),
+				CollectionGenerator.computeRecovery(elements, positions));
+	}
+
+	private static int[] parseList(String list) {
+		String[] items = list.split(",");
+		int[] result = new int[items.length];
+		for (int i = 0; i < items.length; i++) {
+			result[i] = Integer.parseInt(items[i].trim());
+		}
+		return result;
+	}
+
+}
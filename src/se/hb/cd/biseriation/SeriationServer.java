@@ -0,0 +1,328 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package se.hb.cd.biseriation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import sg.edu.nus.comp.sseriation.util.LibsvmParser;
+import sg.edu.nus.comp.sseriation.util.VectorNode;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Keeps a dynamic biseriation resident and serves it over HTTP on the loopback
+ * interface. New rows are posted in libsvm format and folded into both
+ * orders one request at a time; the orders and positions are read from an
+ * immutable view that is replaced after every update, so reads never wait
+ * for a fold in progress. If an update fails, it is answered with status
+ * 500, the last view is kept, and no further rows are added.
+ * 
+ * <pre>
+ * POST /rows                  add rows, answers "id position" per new row
+ * GET  /rows/order            the row ids in order, one per line
+ * GET  /rows/position?id=i    the position of row i
+ * GET  /columns/order         the column ids in order, one per line
+ * GET  /columns/position?id=j the position of column j
+ * GET  /status                the number of rows, columns and updates, and
+ *                             the versions of the orders
+ * </pre>
+ */
+public class SeriationServer {
+
+	private static final int DEFAULT_THREADS = 4;
+
+	private final DynamicBiseriation biseriation;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Object updateLock = new Object();
+	private volatile View view;
+	private String stateFile;
+	/** The failure of an update, after which no rows are added. */
+	private Exception failure;
+
+	/**
+	 * The orders and their inverses at one point between updates.
+	 */
+	private static class View {
+		final int[] rowOrder;
+		final int[] rowPosition;
+		final int[] columnOrder;
+		final int[] columnPosition;
+		final int nUpdates;
+		final long rowVersion;
+		final long columnVersion;
+
+		View(int[] rowOrder, int[] columnOrder, int nUpdates,
+				long rowVersion, long columnVersion) {
+			this.rowOrder = rowOrder;
+			this.rowPosition = invert(rowOrder);
+			this.columnOrder = columnOrder;
+			this.columnPosition = invert(columnOrder);
+			this.nUpdates = nUpdates;
+			this.rowVersion = rowVersion;
+			this.columnVersion = columnVersion;
+		}
+
+		private static int[] invert(int[] order) {
+			int max = -1;
+			for (int id : order) {
+				max = Math.max(max, id);
+			}
+			int[] position = new int[max + 1];
+			Arrays.fill(position, -1);
+			for (int i = 0; i < order.length; i++) {
+				position[order[i]] = i;
+			}
+			return position;
+		}
+	}
+
+	/**
+	 * Instantiates a server of a biseriation whose static part is already
+	 * calculated, on the given port of the loopback interface.
+	 * 
+	 * @param biseriation
+	 *            the biseriation to serve
+	 * @param port
+	 *            the port, or 0 for any free one
+	 * @throws IOException
+	 *             Signals that the port cannot be bound.
+	 */
+	public SeriationServer(DynamicBiseriation biseriation, int port)
+			throws IOException {
+		this(biseriation, new InetSocketAddress(InetAddress.getLoopbackAddress(),
+				port), DEFAULT_THREADS);
+	}
+
+	/**
+	 * Instantiates a server of a biseriation whose static part is already
+	 * calculated.
+	 * 
+	 * @param biseriation
+	 *            the biseriation to serve
+	 * @param address
+	 *            the address to bind
+	 * @param nThreads
+	 *            the number of threads answering requests
+	 * @throws IOException
+	 *             Signals that the address cannot be bound.
+	 */
+	public SeriationServer(DynamicBiseriation biseriation,
+			InetSocketAddress address, int nThreads) throws IOException {
+		this.biseriation = biseriation;
+		publish();
+		server = HttpServer.create(address, 0);
+		executor = Executors.newFixedThreadPool(nThreads);
+		server.setExecutor(executor);
+		server.createContext("/rows", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				if (path.equals("/rows") || path.equals("/rows/")) {
+					if (!exchange.getRequestMethod().equals("POST")) {
+						respond(exchange, 405, "Use POST to add rows\n");
+						return;
+					}
+					addRows(exchange);
+				} else {
+					View current = view;
+					serveOrder(exchange, path.substring("/rows".length()),
+							current.rowOrder, current.rowPosition);
+				}
+			}
+		});
+		server.createContext("/columns", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				View current = view;
+				serveOrder(exchange, exchange.getRequestURI().getPath()
+						.substring("/columns".length()), current.columnOrder,
+						current.columnPosition);
+			}
+		});
+		server.createContext("/status", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				View current = view;
+				respond(exchange, 200, "rows " + current.rowOrder.length
+						+ "\ncolumns " + current.columnOrder.length
+						+ "\nupdates " + current.nUpdates
+						+ "\nversions " + current.rowVersion + " "
+						+ current.columnVersion + "\n");
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops answering requests, letting those in progress finish for at most
+	 * the given delay.
+	 * 
+	 * @param delay
+	 *            the delay in seconds
+	 */
+	public void stop(int delay) {
+		server.stop(delay);
+		executor.shutdown();
+	}
+
+	/**
+	 * Sets the file to which the state is written in the background after
+	 * every update, see DynamicBiseriation.writeStateInBackground.
+	 * 
+	 * @param stateFile
+	 *            the file name, or null for none
+	 */
+	public void setStateFile(String stateFile) {
+		synchronized (updateLock) {
+			this.stateFile = stateFile;
+		}
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	private void publish() {
+		view = new View(biseriation.getRowOrder(),
+				biseriation.getColumnOrder(), biseriation.getUpdateIteration(),
+				biseriation.getRowOrderSnapshot().getVersion(), biseriation
+						.getColumnOrderSnapshot().getVersion());
+	}
+
+	private void addRows(HttpExchange exchange) throws IOException {
+		VectorNode[][] rows;
+		try {
+			rows = LibsvmParser.parse(readBody(exchange), "request")
+					.toVectorNodes();
+		} catch (IOException e) {
+			respond(exchange, 400, e.getMessage() + "\n");
+			return;
+		}
+		StringBuilder response = new StringBuilder();
+		synchronized (updateLock) {
+			if (failure != null) {
+				respond(exchange, 500, "An earlier update failed, no rows"
+						+ " are added: " + failure + "\n");
+				return;
+			}
+			int firstRow = biseriation.getnRows();
+			try {
+				biseriation.addRows(rows);
+			} catch (IOException e) {
+				failUpdate(exchange, e);
+				return;
+			} catch (RuntimeException e) {
+				failUpdate(exchange, e);
+				return;
+			}
+			publish();
+			if (stateFile != null) {
+				biseriation.writeStateInBackground(stateFile);
+			}
+			View current = view;
+			for (int i = 0; i < rows.length; i++) {
+				response.append(firstRow + i).append(' ')
+						.append(current.rowPosition[firstRow + i]).append('\n');
+			}
+		}
+		respond(exchange, 200, response.toString());
+	}
+
+	/**
+	 * Answers a failed update. The seriations may be half updated, so the
+	 * last view stays published and no further rows are accepted.
+	 */
+	private void failUpdate(HttpExchange exchange, Exception e)
+			throws IOException {
+		failure = e;
+		respond(exchange, 500, "The update failed: " + e + "\n");
+	}
+
+	private void serveOrder(HttpExchange exchange, String path, int[] order,
+			int[] position) throws IOException {
+		if (!exchange.getRequestMethod().equals("GET")) {
+			respond(exchange, 405, "Use GET to read the order\n");
+			return;
+		}
+		if (path.equals("/order")) {
+			StringBuilder response = new StringBuilder(order.length * 6);
+			for (int id : order) {
+				response.append(id).append('\n');
+			}
+			respond(exchange, 200, response.toString());
+		} else if (path.equals("/position")) {
+			String query = exchange.getRequestURI().getQuery();
+			int id;
+			try {
+				if (query == null || !query.startsWith("id=")) {
+					throw new NumberFormatException();
+				}
+				id = Integer.parseInt(query.substring(3));
+			} catch (NumberFormatException e) {
+				respond(exchange, 400, "The position requires ?id=\n");
+				return;
+			}
+			if (id < 0 || id >= position.length || position[id] < 0) {
+				respond(exchange, 404, "No such id " + id + "\n");
+				return;
+			}
+			respond(exchange, 200, position[id] + "\n");
+		} else {
+			respond(exchange, 404, "Unknown path\n");
+		}
+	}
+
+	private static byte[] readBody(HttpExchange exchange) throws IOException {
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) > 0) {
+			body.write(buffer, 0, read);
+		}
+		in.close();
+		return body.toByteArray();
+	}
+
+	private static void respond(HttpExchange exchange, int status,
+			String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+}
@@ -0,0 +1,552 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package se.hb.cd.biseriation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import sg.edu.nus.comp.sseriation.order.DistributionalOrder;
+import sg.edu.nus.comp.sseriation.order.OrderSnapshot;
+import sg.edu.nus.comp.sseriation.util.SparseVector;
+import sg.edu.nus.comp.sseriation.util.VectorNode;
+
+/**
+ * Hosts many dynamic biseriations, the sessions, in one process. The work of
+ * a session runs one task at a time, in the order it was submitted, so a
+ * biseriation is only ever changed by one thread. Computing tasks run on a
+ * shared fork-join pool of bounded parallelism, which takes the sessions
+ * with pending work in turn, one task each, so that a session with a long
+ * queue of updates does not hold up the others. Reading and writing files
+ * runs on virtual threads where the runtime has them (Java 21 and later),
+ * and on a cached pool of daemon threads otherwise.
+ * <p>
+ * Every session has a memory budget, checked against the estimated memory
+ * of its rows and orders before its static part is calculated, from a count
+ * of the entries of the collection, again once it is calculated, and before
+ * rows are added. A session that has been idle for longer than the idle
+ * timeout is written to the eviction directory and dropped from memory; it
+ * is read back before its next task. The orders of a session stay readable
+ * meanwhile.
+ * <p>
+ * A session parses and runs its heuristics in a single thread, the worker
+ * that runs its task, so that the parallelism of the pool bounds the threads
+ * of all sessions. Its heuristics print nothing; their progress goes to the
+ * progress listener of the biseriation, if it has one.
+ */
+public class SessionManager {
+
+	private static final Pattern SESSION_ID = Pattern
+			.compile("[A-Za-z0-9_.-]+");
+
+	private final ForkJoinPool pool;
+	private final ExecutorService ioExecutor;
+	private final ScheduledExecutorService evictor;
+	private final long memoryBudget;
+	private final long idleTimeout;
+	private final File directory;
+	private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+	/** The sessions waiting for a worker of the pool, in turn. */
+	private final ConcurrentLinkedQueue<Session> ready = new ConcurrentLinkedQueue<Session>();
+
+	/**
+	 * A biseriation hosted by the manager.
+	 */
+	public static class Session {
+		private final String id;
+		private final DynamicBiseriation biseriation;
+		private final File stateFile;
+		/** The tasks not yet started, guarded by the session. */
+		private final ArrayDeque<Task<?>> tasks = new ArrayDeque<Task<?>>();
+		/** Whether a task is running or dispatched, guarded by the session. */
+		private boolean running;
+		private volatile boolean evicted;
+		private volatile boolean closed;
+		private volatile long lastUsed;
+		private volatile long memory;
+		private volatile OrderSnapshot rowOrder = OrderSnapshot.EMPTY;
+		private volatile OrderSnapshot columnOrder = OrderSnapshot.EMPTY;
+
+		Session(String id, DynamicBiseriation biseriation, File stateFile) {
+			this.id = id;
+			this.biseriation = biseriation;
+			this.stateFile = stateFile;
+			lastUsed = System.currentTimeMillis();
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * Whether the session is written to disk and dropped from memory.
+		 */
+		public boolean isEvicted() {
+			return evicted;
+		}
+
+		/**
+		 * Gets the estimated memory of the session when its last task
+		 * finished, 0 while it is evicted.
+		 */
+		public long getMemory() {
+			return memory;
+		}
+
+		/**
+		 * Gets the time the last task was submitted, in
+		 * System.currentTimeMillis.
+		 */
+		public long getLastUsed() {
+			return lastUsed;
+		}
+
+		/**
+		 * Gets the order of the rows as of the last finished task.
+		 */
+		public OrderSnapshot getRowOrder() {
+			return rowOrder;
+		}
+
+		/**
+		 * Gets the order of the columns as of the last finished task, by
+		 * their indices in the transposed matrix.
+		 */
+		public OrderSnapshot getColumnOrder() {
+			return columnOrder;
+		}
+	}
+
+	/**
+	 * A task of a session and the future of its result.
+	 */
+	private static class Task<T> {
+		final Callable<T> body;
+		final boolean io;
+		/** Whether the task needs the state read back if it is evicted. */
+		final boolean needsState;
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+
+		Task(Callable<T> body, boolean io, boolean needsState) {
+			this.body = body;
+			this.io = io;
+			this.needsState = needsState;
+		}
+
+		void run() {
+			try {
+				future.complete(body.call());
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * Instantiates a session manager.
+	 * 
+	 * @param parallelism
+	 *            the number of workers of the computing pool
+	 * @param memoryBudget
+	 *            the estimated bytes a session may take, or 0 for no limit
+	 * @param idleTimeout
+	 *            the milliseconds after the last task from which a session is
+	 *            evicted, or 0 to keep sessions in memory
+	 * @param directory
+	 *            the directory of the evicted sessions
+	 */
+	public SessionManager(int parallelism, long memoryBudget,
+			long idleTimeout, File directory) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException(
+					"The parallelism must be positive.");
+		}
+		this.memoryBudget = memoryBudget;
+		this.idleTimeout = idleTimeout;
+		this.directory = directory;
+		// First in, first out, so the sessions are taken in turn
+		pool = new ForkJoinPool(parallelism,
+				ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		ioExecutor = newIoExecutor();
+		evictor = Executors.newSingleThreadScheduledExecutor(DAEMON_THREADS);
+		if (idleTimeout > 0) {
+			long period = Math.max(idleTimeout / 2, 100);
+			evictor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					evictIdleSessions();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "session-io");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	/**
+	 * Creates the executor of reading and writing: a thread per task, which
+	 * is a virtual thread if the runtime has them.
+	 */
+	private static ExecutorService newIoExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod(
+					"newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(DAEMON_THREADS);
+		}
+	}
+
+	/**
+	 * Opens a session and calculates the static part of its biseriation,
+	 * which is set up but not yet calculated.
+	 * 
+	 * @param id
+	 *            the name of the session, of letters, digits, '_', '.' and
+	 *            '-'
+	 * @param biseriation
+	 *            the biseriation
+	 * @return the future of the session, which fails if the static part
+	 *         exceeds the memory budget, before it is calculated if its
+	 *         estimate does
+	 */
+	public CompletableFuture<Session> open(String id,
+			final DynamicBiseriation biseriation) {
+		if (!SESSION_ID.matcher(id).matches()) {
+			throw new IllegalArgumentException("Invalid session id " + id);
+		}
+		biseriation.setnThreads(1);
+		biseriation.setVerbose(false);
+		final Session session = new Session(id, biseriation, new File(
+				directory, id + ".state"));
+		if (sessions.putIfAbsent(id, session) != null) {
+			throw new IllegalArgumentException("Session " + id
+					+ " is already open.");
+		}
+		return submit(session, new Callable<Session>() {
+			@Override
+			public Session call() throws IOException {
+				try {
+					checkBudget(session, biseriation
+							.estimateMemoryOfStaticPart());
+					biseriation.calculateBiseriationOfStaticPart();
+					checkBudget(session, 0);
+				} catch (Exception e) {
+					sessions.remove(session.id, session);
+					session.closed = true;
+					biseriation.releaseState();
+					throw e;
+				}
+				return session;
+			}
+		}, false);
+	}
+
+	/**
+	 * Gets an open session.
+	 * 
+	 * @param id
+	 *            the name of the session
+	 * @return the session
+	 * @throws IllegalArgumentException
+	 *             if no such session is open
+	 */
+	public Session getSession(String id) {
+		Session session = sessions.get(id);
+		if (session == null) {
+			throw new IllegalArgumentException("No session " + id);
+		}
+		return session;
+	}
+
+	/**
+	 * Lists the open sessions.
+	 */
+	public List<Session> getSessions() {
+		return new ArrayList<Session>(sessions.values());
+	}
+
+	/**
+	 * Adds an update file to a session: the file is parsed on an I/O thread,
+	 * folded into both orders on the pool, and the biseriation is written
+	 * on an I/O thread as DynamicBiseriation.iterativelyUpdate does.
+	 * 
+	 * @param id
+	 *            the name of the session
+	 * @param collectionUpdate
+	 *            the update file
+	 * @return the future of the number of rows folded in so far
+	 */
+	public CompletableFuture<Integer> addCollectionUpdate(String id,
+			final String collectionUpdate) {
+		final Session session = getSession(id);
+		// The tasks of a session run in turn, so each one finds the future
+		// of the one before complete
+		final CompletableFuture<VectorNode[][]> parsed = submit(session,
+				new Callable<VectorNode[][]>() {
+					@Override
+					public VectorNode[][] call() throws IOException {
+						return SparseVector.readSparseMatrix(
+								collectionUpdate, 1);
+					}
+				}, true, false);
+		final CompletableFuture<Biseriation.Result> folded = submit(session,
+				new Callable<Biseriation.Result>() {
+					@Override
+					public Biseriation.Result call() throws IOException {
+						fold(session, parsed.join());
+						return session.biseriation.captureResult("-updated-"
+								+ session.biseriation.getUpdateIteration());
+					}
+				}, false);
+		return submit(session, new Callable<Integer>() {
+			@Override
+			public Integer call() throws IOException {
+				session.biseriation.writeResult(folded.join());
+				return session.biseriation.getUpdateIteration();
+			}
+		}, true);
+	}
+
+	/**
+	 * Folds rows into both orders of a session, without writing it.
+	 * 
+	 * @param id
+	 *            the name of the session
+	 * @param rows
+	 *            the new rows
+	 * @return the future of the number of rows folded in so far, which fails
+	 *         if the rows would exceed the memory budget
+	 */
+	public CompletableFuture<Integer> addRows(String id,
+			final VectorNode[][] rows) {
+		final Session session = getSession(id);
+		return submit(session, new Callable<Integer>() {
+			@Override
+			public Integer call() throws IOException {
+				fold(session, rows);
+				return session.biseriation.getUpdateIteration();
+			}
+		}, false);
+	}
+
+	/**
+	 * Closes a session, deleting its evicted state.
+	 * 
+	 * @param id
+	 *            the name of the session
+	 * @return the future of the end of the tasks submitted before
+	 */
+	public CompletableFuture<Void> close(String id) {
+		final Session session = getSession(id);
+		sessions.remove(id, session);
+		return submit(session, new Callable<Void>() {
+			@Override
+			public Void call() {
+				session.closed = true;
+				session.biseriation.releaseState();
+				session.memory = 0;
+				session.stateFile.delete();
+				return null;
+			}
+		}, true, false);
+	}
+
+	/**
+	 * Evicts the sessions that have been idle for longer than the idle
+	 * timeout. This runs periodically if there is an idle timeout.
+	 */
+	public void evictIdleSessions() {
+		long now = System.currentTimeMillis();
+		for (Session session : sessions.values()) {
+			if (!session.evicted && now - session.lastUsed > idleTimeout) {
+				synchronized (session) {
+					if (session.running || !session.tasks.isEmpty()) {
+						continue;
+					}
+				}
+				evict(session);
+			}
+		}
+	}
+
+	/**
+	 * Writes a session to the eviction directory and drops it from memory.
+	 * 
+	 * @return the future of the eviction
+	 */
+	public CompletableFuture<Void> evict(final Session session) {
+		return submit(session, new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				if (session.evicted || session.closed) {
+					return null;
+				}
+				session.biseriation.writeState(session.stateFile.getPath());
+				session.biseriation.releaseState();
+				session.memory = 0;
+				session.evicted = true;
+				return null;
+			}
+		}, true, false);
+	}
+
+	/**
+	 * Stops the workers, abandoning the tasks that have not started.
+	 */
+	public void shutdown() {
+		evictor.shutdownNow();
+		pool.shutdownNow();
+		ioExecutor.shutdownNow();
+	}
+
+	private void fold(Session session, VectorNode[][] rows) throws IOException {
+		checkBudget(session, 2 * DistributionalOrder.estimateMemory(rows));
+		session.biseriation.addRows(rows);
+	}
+
+	/**
+	 * Checks that a session with more bytes would stay within the budget.
+	 */
+	private void checkBudget(Session session, long more) {
+		long memory = session.biseriation.estimateMemory() + more;
+		if (memoryBudget > 0 && memory > memoryBudget) {
+			throw new IllegalStateException("Session " + session.id
+					+ " would take " + memory + " bytes, more than its budget of "
+					+ memoryBudget + " bytes.");
+		}
+	}
+
+	/**
+	 * Queues a task of a session that needs its state.
+	 */
+	private <T> CompletableFuture<T> submit(Session session, Callable<T> body,
+			boolean io) {
+		return submit(session, body, io, true);
+	}
+
+	/**
+	 * Queues a task of a session. Whether the state has to be read back is
+	 * decided when the task is about to run, since an eviction queued before
+	 * it may not have run yet.
+	 */
+	private <T> CompletableFuture<T> submit(Session session, Callable<T> body,
+			boolean io, boolean needsState) {
+		Task<T> task = new Task<T>(body, io, needsState);
+		session.lastUsed = System.currentTimeMillis();
+		synchronized (session) {
+			session.tasks.add(task);
+			if (!session.running) {
+				session.running = true;
+				dispatch(session);
+			}
+		}
+		return task.future;
+	}
+
+	/**
+	 * Creates the task that reads an evicted session back.
+	 */
+	private static Task<Void> newReload(final Session session) {
+		return new Task<Void>(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				if (session.evicted && !session.closed) {
+					session.biseriation.readState(session.stateFile.getPath());
+					session.evicted = false;
+				}
+				return null;
+			}
+		}, true, false);
+	}
+
+	/**
+	 * Hands the next task of a session to its executor. The caller holds the
+	 * lock of the session, which has a next task.
+	 */
+	private void dispatch(final Session session) {
+		if (session.tasks.peek().io) {
+			ioExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					runNext(session);
+				}
+			});
+		} else {
+			ready.add(session);
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					// Whichever session is first in turn, not necessarily the
+					// one queued along with this job
+					runNext(ready.poll());
+				}
+			});
+		}
+	}
+
+	private void runNext(Session session) {
+		Task<?> task;
+		synchronized (session) {
+			task = session.tasks.poll();
+			// Only the tasks of the session evict it, so this holds until
+			// the task runs
+			if (task.needsState && session.evicted && !session.closed) {
+				session.tasks.addFirst(task);
+				session.tasks.addFirst(newReload(session));
+				dispatch(session);
+				return;
+			}
+		}
+		task.run();
+		DynamicBiseriation biseriation = session.biseriation;
+		if (!session.evicted && !session.closed
+				&& biseriation.columnSeriation != null) {
+			session.memory = biseriation.estimateMemory();
+			session.rowOrder = biseriation.getRowOrderSnapshot();
+			session.columnOrder = biseriation.getColumnOrderSnapshot();
+		}
+		synchronized (session) {
+			if (session.tasks.isEmpty()) {
+				session.running = false;
+			} else {
+				dispatch(session);
+			}
+		}
+	}
+
+}
@@ -20,19 +20,18 @@ package sg.edu.nus.comp.sseriation.order;
 
 import java.io.IOException;
 
-import sg.edu.nus.comp.sseriation.util.SparseVector;
-
+/**
+ * A distributional order under CorrelationDistance.
+ */
 public class Correlation extends DistributionalOrder {
-	
-	private static final String MODEL_NAME="corr";
-	
+
 	public Correlation(String filename, boolean isTransposed) throws IOException {
-		super(filename, MODEL_NAME, isTransposed);
+		super(filename, new CorrelationDistance(), isTransposed);
 	}
-	
-	@Override
-	protected double getDistance(int x, int y) {
-		return 1 - Math.abs(SparseVector.correlation(mx[x], mx[y], nDimensions));
+
+	public Correlation(String filename, boolean isTransposed, storageTypes storage)
+			throws IOException {
+		super(filename, new CorrelationDistance(), isTransposed, storage);
 	}
 
 }
@@ -0,0 +1,84 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import sg.edu.nus.comp.sseriation.util.DenseMatrix;
+import sg.edu.nus.comp.sseriation.util.OffHeapMatrix;
+import sg.edu.nus.comp.sseriation.util.SparseVector;
+import sg.edu.nus.comp.sseriation.util.VectorNode;
+
+/**
+ * One minus the absolute Pearson correlation.
+ */
+public class CorrelationDistance implements Distance {
+
+	@Override
+	public String getName() {
+		return "Correlation";
+	}
+
+	@Override
+	public String getModel() {
+		return "corr";
+	}
+
+	@Override
+	public Set<capabilities> getCapabilities() {
+		return EnumSet.of(capabilities.needsNorms, capabilities.dense,
+				capabilities.offHeap);
+	}
+
+	@Override
+	public RowSketch.sketchTypes getSketchType() {
+		return RowSketch.sketchTypes.centered;
+	}
+
+	/**
+	 * Computes the distance as SparseVector.correlation, with the sums taken
+	 * from the order.
+	 */
+	@Override
+	public double distance(VectorNode[][] mx, RowNorms norms, int x, int y,
+			int nDimensions) {
+		if (mx[x] == null || mx[y] == null) {
+			return 1;
+		}
+		int n = nDimensions;
+		double sumx = norms.getSum(x);
+		double sumy = norms.getSum(y);
+		return 1 - Math.abs((n * SparseVector.dotProduct(mx[x], mx[y]) - sumx
+				* sumy)
+				/ (Math.sqrt(n * norms.getSumSquare(x) - sumx * sumx) * Math
+						.sqrt(n * norms.getSumSquare(y) - sumy * sumy)));
+	}
+
+	@Override
+	public double distance(DenseMatrix mx, int x, int y, int nDimensions) {
+		return 1 - Math.abs(SparseVector.correlation(mx, x, y, nDimensions));
+	}
+
+	@Override
+	public double distance(OffHeapMatrix mx, int x, int y, int nDimensions) {
+		return 1 - Math.abs(SparseVector.correlation(mx, x, y, nDimensions));
+	}
+
+}
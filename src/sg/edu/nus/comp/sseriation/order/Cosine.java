@@ -20,19 +20,18 @@ package sg.edu.nus.comp.sseriation.order;
 
 import java.io.IOException;
 
-import sg.edu.nus.comp.sseriation.util.SparseVector;
-
+/**
+ * A distributional order under CosineDistance.
+ */
 public class Cosine extends DistributionalOrder {
-	
-	private static final String MODEL_NAME="cos";
-	
+
 	public Cosine(String filename, boolean isTransposed) throws IOException {
-		super(filename, MODEL_NAME, isTransposed);
+		super(filename, new CosineDistance(), isTransposed);
 	}
-	
-	@Override
-	protected double getDistance(int x, int y) {
-		return 1 - Math.abs(SparseVector.cosine(mx[x], mx[y]));
+
+	public Cosine(String filename, boolean isTransposed, storageTypes storage)
+			throws IOException {
+		super(filename, new CosineDistance(), isTransposed, storage);
 	}
 
 }
@@ -0,0 +1,151 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+import java.util.Set;
+
+import sg.edu.nus.comp.sseriation.util.DenseMatrix;
+import sg.edu.nus.comp.sseriation.util.OffHeapMatrix;
+import sg.edu.nus.comp.sseriation.util.VectorNode;
+
+/**
+ * A distance between the rows of a matrix that a distributional order holds.
+ * The kernels take the matrix and two row indices, so one instance serves
+ * every order and thread; they must not keep state between calls.
+ *
+ * Besides the built-in distances, distances are discovered by the
+ * ServiceLoader: an implementation is listed in
+ * META-INF/services/sg.edu.nus.comp.sseriation.order.Distance of its jar,
+ * and is then found by Distances.forName under its name. The
+ * capabilities tell the order which fast paths the distance allows.
+ */
+public interface Distance {
+
+	public enum capabilities {
+		/** The distance satisfies the triangle inequality. */
+		metric,
+		/**
+		 * The sparse kernel uses the sums and sums of squares of the rows,
+		 * which the order then keeps in a RowNorms.
+		 */
+		needsNorms,
+		/**
+		 * Rows without a common column are at the disjoint distance, which
+		 * no other pair exceeds, so the neighbours of a row can be searched
+		 * among the rows sharing a column with it.
+		 */
+		invertedIndex,
+		/** The dense kernel works on the dense matrix itself. */
+		dense,
+		/** The off-heap kernel works on the off-heap matrix itself. */
+		offHeap
+	};
+
+	/**
+	 * Gets the name the distance is selected by, matched ignoring case.
+	 */
+	String getName();
+
+	/**
+	 * Gets the short name of the distance in the names of the files an
+	 * order writes.
+	 */
+	String getModel();
+
+	Set<capabilities> getCapabilities();
+
+	/**
+	 * Gets how the rows are sketched so that the distances of the sketches
+	 * follow this distance.
+	 */
+	default RowSketch.sketchTypes getSketchType() {
+		return RowSketch.sketchTypes.raw;
+	}
+
+	/**
+	 * Transforms the rows read from a file before they are stored, for
+	 * example to bin them.
+	 * 
+	 * @param mx
+	 *            the rows as read
+	 * @return the rows to store
+	 */
+	default VectorNode[][] prepare(VectorNode[][] mx) {
+		return mx;
+	}
+
+	/**
+	 * Gets the distance of two rows without a common column, if the
+	 * distance has the invertedIndex capability.
+	 */
+	default double getDisjointDistance() {
+		throw new UnsupportedOperationException(getName()
+				+ " has no inverted index");
+	}
+
+	/**
+	 * Computes the distance of two rows of a sparse matrix.
+	 * 
+	 * @param mx
+	 *            the rows, null if empty
+	 * @param norms
+	 *            the sums of the rows if the distance needs norms, null
+	 *            otherwise
+	 * @param x
+	 *            the x row
+	 * @param y
+	 *            the y row
+	 * @param nDimensions
+	 *            the number of columns
+	 * @return the distance
+	 */
+	double distance(VectorNode[][] mx, RowNorms norms, int x, int y,
+			int nDimensions);
+
+	/**
+	 * Computes the distance of two rows of a dense matrix. Unless the
+	 * distance has the dense capability, the rows are copied to the sparse
+	 * kernel.
+	 */
+	default double distance(DenseMatrix mx, int x, int y, int nDimensions) {
+		return distanceOfCopies(this, mx.getRow(x), mx.getRow(y), nDimensions);
+	}
+
+	/**
+	 * Computes the distance of two rows of an off-heap matrix. Unless the
+	 * distance has the offHeap capability, the rows are copied to the sparse
+	 * kernel.
+	 */
+	default double distance(OffHeapMatrix mx, int x, int y, int nDimensions) {
+		return distanceOfCopies(this, mx.getRow(x), mx.getRow(y), nDimensions);
+	}
+
+	/**
+	 * Computes the distance of two rows with the sparse kernel of a
+	 * distance.
+	 */
+	static double distanceOfCopies(Distance distance, VectorNode[] x,
+			VectorNode[] y, int nDimensions) {
+		VectorNode[][] rows = new VectorNode[][] { x, y };
+		RowNorms norms = distance.getCapabilities().contains(
+				capabilities.needsNorms) ? new RowNorms(rows) : null;
+		return distance.distance(rows, norms, 0, 1, nDimensions);
+	}
+
+}
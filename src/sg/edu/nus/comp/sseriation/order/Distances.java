@@ -0,0 +1,90 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * Finds the built-in distances and any further distances listed as services
+ * on the class path.
+ */
+public class Distances {
+
+	private static List<Distance> distances;
+
+	/**
+	 * Gets the built-in distances, followed by the services on the class path
+	 * in the order of discovery. The built-in distances do not depend on the
+	 * service file, which a repackaged jar may lose; a service with the name
+	 * of a distance already found is skipped.
+	 * 
+	 * @return the distances
+	 */
+	public static synchronized List<Distance> getAll() {
+		if (distances == null) {
+			distances = new ArrayList<Distance>();
+			distances.add(new EuclideanDistance());
+			distances.add(new ManhattanDistance());
+			distances.add(new CosineDistance());
+			distances.add(new CorrelationDistance());
+			distances.add(new MutualInformationDistance());
+			for (Distance distance : ServiceLoader.load(Distance.class)) {
+				if (find(distance.getName()) == null) {
+					distances.add(distance);
+				}
+			}
+		}
+		return distances;
+	}
+
+	private static Distance find(String name) {
+		for (int i = 0; i < distances.size(); i++) {
+			if (distances.get(i).getName().equalsIgnoreCase(name)) {
+				return distances.get(i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Finds a distance by its name, ignoring case.
+	 * 
+	 * @param name
+	 *            the name
+	 * @return the distance
+	 * @throws IllegalArgumentException
+	 *             if no distance has the name
+	 */
+	public static synchronized Distance forName(String name) {
+		List<Distance> all = getAll();
+		Distance distance = find(name);
+		if (distance != null) {
+			return distance;
+		}
+		StringBuilder names = new StringBuilder();
+		for (int i = 0; i < all.size(); i++) {
+			names.append(i > 0 ? ", " : "").append(all.get(i).getName());
+		}
+		throw new IllegalArgumentException("Unknown distance " + name
+				+ ", the distances are " + names);
+	}
+
+}
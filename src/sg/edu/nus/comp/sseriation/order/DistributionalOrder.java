@@ -18,43 +18,378 @@
  */
 package sg.edu.nus.comp.sseriation.order;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 
+import sg.edu.nus.comp.sseriation.util.DenseMatrix;
+import sg.edu.nus.comp.sseriation.util.Events;
+import sg.edu.nus.comp.sseriation.util.Metrics;
+import sg.edu.nus.comp.sseriation.util.OffHeapMatrix;
+import sg.edu.nus.comp.sseriation.util.SparseMatrix;
+import sg.edu.nus.comp.sseriation.util.SparseMatrixFile;
 import sg.edu.nus.comp.sseriation.util.SparseVector;
+import sg.edu.nus.comp.sseriation.util.StateFile;
 import sg.edu.nus.comp.sseriation.util.Utilities;
 import sg.edu.nus.comp.sseriation.util.VectorNode;
 
-public abstract class DistributionalOrder extends LinearOrder {
+/**
+ * A linear order of the rows of a matrix under a distance. The order holds
+ * the rows, and the distance kernel computes on them by their indices.
+ */
+public class DistributionalOrder extends LinearOrder {
+
+	/**
+	 * Where the rows are kept: in VectorNode arrays on the heap, in an
+	 * OffHeapMatrix outside it, or in an OffHeapMatrix backed entirely by
+	 * files, which may exceed the physical memory.
+	 */
+	public enum storageTypes {
+		heap, offheap, external
+	};
+
+	/**
+	 * The density from which rows on the heap are kept in a dense matrix: a
+	 * cell of it takes a quarter of the memory of a vector node.
+	 */
+	public static final double DEFAULT_DENSITY_THRESHOLD = 0.25;
+
+	private static double densityThreshold = DEFAULT_DENSITY_THRESHOLD;
 
+	/** The estimated bytes of a vector node and its reference on the heap. */
+	private static final int NODE_BYTES = 28;
+	/** The estimated bytes of an element in the order and its snapshot. */
+	private static final int ORDER_ENTRY_BYTES = 56;
+
+	/**
+	 * The rows on the heap, null if they are stored off the heap or in a
+	 * dense matrix.
+	 */
 	protected VectorNode[][] mx;
+	/** The rows off the heap, null if they are stored on the heap. */
+	protected OffHeapMatrix offHeapMx;
+	/** The rows in a dense matrix on the heap, null if they are sparse. */
+	protected DenseMatrix denseMx;
 	protected int nDimensions;
 	private boolean isTransposed;
+	protected Distance distance;
+	/** The sums of the rows on the heap if the distance needs them. */
+	protected RowNorms rowNorms;
+
+	public DistributionalOrder(String filename, Distance distance,
+			boolean isTransposed) throws IOException {
+		this(filename, distance, isTransposed, storageTypes.heap);
+	}
 
-	DistributionalOrder(String filename, String model, boolean isTransposed)
+	/**
+	 * Reads the rows of a file into the storage and starts an empty order.
+	 * 
+	 * @param filename
+	 *            the file
+	 * @param distance
+	 *            the distance
+	 * @param isTransposed
+	 *            whether the columns of the file are to be ordered
+	 * @param storage
+	 *            the storage of the rows
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws IllegalArgumentException
+	 *             if the distance has no off-heap kernel and the storage is
+	 *             not the heap
+	 */
+	public DistributionalOrder(String filename, Distance distance,
+			boolean isTransposed, storageTypes storage) throws IOException {
+		this(filename, distance, isTransposed, storage, Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * Reads the rows of a file into the storage with a number of threads,
+	 * which the heuristics of the order also use, and starts an empty order.
+	 * 
+	 * @param filename
+	 *            the file
+	 * @param distance
+	 *            the distance
+	 * @param isTransposed
+	 *            whether the columns of the file are to be ordered
+	 * @param storage
+	 *            the storage of the rows
+	 * @param nThreads
+	 *            the number of threads
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws IllegalArgumentException
+	 *             if the distance has no off-heap kernel and the storage is
+	 *             not the heap
+	 */
+	public DistributionalOrder(String filename, Distance distance,
+			boolean isTransposed, storageTypes storage, int nThreads)
 			throws IOException {
-		super(filename, model);
+		super(filename, distance.getModel());
+		setnThreads(nThreads);
+		if (storage != storageTypes.heap
+				&& !distance.getCapabilities().contains(
+						Distance.capabilities.offHeap)) {
+			throw new IllegalArgumentException("The distance "
+					+ distance.getName() + " does not support " + storage
+					+ " storage.");
+		}
+		this.distance = distance;
 		this.isTransposed = isTransposed;
-		mx = SparseVector.readSparseMatrix(filename);
+		int maxColumnIndex;
+		int minColumnIndex;
+		Metrics.Timer timer = metrics
+				.getTimer(isTransposed ? Metrics.phases.transpose
+						: Metrics.phases.parse);
+		long start = timer.start();
+		Events.SeriationEvent event;
 		if (isTransposed) {
-			mx = SparseVector.transpose(mx);
+			event = new Events.Transpose();
+		} else {
+			Events.MatrixLoad load = new Events.MatrixLoad();
+			load.filename = filename;
+			event = load;
 		}
-		nInstances = mx.length;
-		nDimensions = SparseVector.findMaxColumnIndex(mx);
-		if (SparseVector.findMinColumnIndex(mx) == 0) {
+		event.start(metrics);
+		if (storage != storageTypes.heap) {
+			// Scratch files of external storage go next to the input
+			File scratchDirectory = storage == storageTypes.external ? new File(
+					filename).getAbsoluteFile().getParentFile() : null;
+			if (isTransposed) {
+				offHeapMx = OffHeapMatrix.readTransposed(filename,
+						scratchDirectory, nThreads);
+			} else {
+				offHeapMx = OffHeapMatrix.read(filename, scratchDirectory,
+						nThreads);
+			}
+			nInstances = offHeapMx.getnRows();
+			maxColumnIndex = offHeapMx.findMaxColumnIndex();
+			minColumnIndex = offHeapMx.findMinColumnIndex();
+		} else {
+			if (isTransposed) {
+				mx = SparseVector.readTransposedSparseMatrix(filename,
+						nThreads);
+			} else {
+				mx = SparseVector.readSparseMatrix(filename, nThreads);
+			}
+			mx = distance.prepare(mx);
+			nInstances = mx.length;
+			maxColumnIndex = SparseVector.findMaxColumnIndex(mx);
+			minColumnIndex = SparseVector.findMinColumnIndex(mx);
+		}
+		timer.stop(start);
+		if (event.finish()) {
+			event.rows = nInstances;
+			event.nnz = countNonZeros();
+			event.commit();
+		}
+		nDimensions = maxColumnIndex;
+		if (minColumnIndex == 0) {
 			nDimensions++;
 		}
+		selectDenseStorage();
 		boolean reset = true;
 		initialize(reset);
 	}
 
+	/**
+	 * Continues the seriation of a saved state, the rows of which are
+	 * already prepared for the distance.
+	 * 
+	 * @param filename
+	 *            the file the rows were read from
+	 * @param distance
+	 *            the distance
+	 * @param isTransposed
+	 *            whether the rows are the columns of the file
+	 * @param state
+	 *            the state, read onto the heap or off it as the storage
+	 * @param storage
+	 *            the storage of the rows; rows read off the heap stay in the
+	 *            mapped file
+	 */
+	public DistributionalOrder(String filename, Distance distance,
+			boolean isTransposed, StateFile.Section state, storageTypes storage) {
+		super(filename, distance.getModel());
+		if (storage != storageTypes.heap
+				&& !distance.getCapabilities().contains(
+						Distance.capabilities.offHeap)) {
+			throw new IllegalArgumentException("The distance "
+					+ distance.getName() + " does not support " + storage
+					+ " storage.");
+		}
+		this.distance = distance;
+		this.isTransposed = isTransposed;
+		if (state.getOffHeapMx() != null) {
+			offHeapMx = state.getOffHeapMx();
+		} else if (storage != storageTypes.heap) {
+			offHeapMx = OffHeapMatrix.fromVectorNodes(state.getMx());
+		} else {
+			mx = state.getMx();
+		}
+		nInstances = offHeapMx != null ? offHeapMx.getnRows() : mx.length;
+		nDimensions = state.getnDimensions();
+		selectDenseStorage(state.getSums() != null ? new RowNorms(
+				state.getSums(), state.getSumSquares()) : null);
+		remainingElements = findPresentElements();
+		ArrayList<Integer> order = new ArrayList<Integer>(
+				state.getOrder().length);
+		for (int x : state.getOrder()) {
+			order.add(x);
+			remainingElements.remove(x);
+		}
+		setOrder(order);
+	}
+
+	/**
+	 * Captures the rows and the order for a state file. The rows are never
+	 * changed in place, so the section can be written while the seriation
+	 * goes on.
+	 * 
+	 * @return the section
+	 */
+	public StateFile.Section captureState() {
+		int[] elements = new int[order.size()];
+		for (int i = 0; i < elements.length; i++) {
+			elements[i] = order.get(i);
+		}
+		return new StateFile.Section(nDimensions, elements, mx, offHeapMx,
+				denseMx);
+	}
+
+	/**
+	 * Gets the distance the kernels of which compute on the rows.
+	 */
+	public Distance getDistanceKernel() {
+		return distance;
+	}
+
+	/**
+	 * Keeps the sums of the rows on the heap if the distance needs them, and
+	 * drops them otherwise.
+	 */
+	private void updateRowNorms() {
+		updateRowNorms(null);
+	}
+
+	/**
+	 * Keeps the sums of the rows on the heap as updateRowNorms, but takes
+	 * them as given rather than computing them, if they are.
+	 * 
+	 * @param knownNorms
+	 *            the sums of the rows, or null to compute them
+	 */
+	private void updateRowNorms(RowNorms knownNorms) {
+		if (mx != null
+				&& distance.getCapabilities().contains(
+						Distance.capabilities.needsNorms)) {
+			rowNorms = knownNorms != null ? knownNorms : new RowNorms(mx);
+		} else {
+			rowNorms = null;
+		}
+	}
+
+	/**
+	 * Sets the density from which the rows on the heap are moved to a dense
+	 * matrix when they are loaded or replaced; above 1, they are never moved.
+	 * 
+	 * @param threshold
+	 *            the ratio of entries to cells
+	 */
+	public static void setDensityThreshold(double threshold) {
+		densityThreshold = threshold;
+	}
+
+	public static double getDensityThreshold() {
+		return densityThreshold;
+	}
+
+	/**
+	 * Moves the rows on the heap to a dense matrix if they are dense enough
+	 * and can be stored densely. The distances then run over contiguous
+	 * runs of values rather than merging the indices of the rows.
+	 */
+	protected void selectDenseStorage() {
+		selectDenseStorage(null);
+	}
+
+	/**
+	 * Selects the storage as selectDenseStorage, with the sums of the rows if
+	 * they are already known.
+	 * 
+	 * @param knownNorms
+	 *            the sums of the rows, or null to compute them if needed
+	 */
+	private void selectDenseStorage(RowNorms knownNorms) {
+		if (mx != null
+				&& distance.getCapabilities().contains(
+						Distance.capabilities.dense)
+				&& DenseMatrix.computeDensity(mx) >= densityThreshold) {
+			denseMx = DenseMatrix.fromVectorNodes(mx);
+			if (denseMx != null) {
+				mx = null;
+			}
+		}
+		updateRowNorms(knownNorms);
+	}
+
+	/**
+	 * Counts the evaluation and computes the distance.
+	 */
+	@Override
+	protected final double getDistance(int x, int y) {
+		metrics.getCounter(Metrics.counters.distanceCalls).increment();
+		return computeDistance(x, y);
+	}
+
+	/**
+	 * Computes the distance of two rows by the kernel of the storage.
+	 * 
+	 * @param x
+	 *            the x row
+	 * @param y
+	 *            the y row
+	 * @return the distance
+	 */
+	protected double computeDistance(int x, int y) {
+		if (offHeapMx != null) {
+			return distance.distance(offHeapMx, x, y, nDimensions);
+		}
+		if (denseMx != null) {
+			return distance.distance(denseMx, x, y, nDimensions);
+		}
+		return distance.distance(mx, rowNorms, x, y, nDimensions);
+	}
+
 	@Override
 	protected int findSeed() {
 		return nInstances / 2;
 	}
 
-	public void mergeUpdates(VectorNode[][] updates) {
+	public void mergeUpdates(VectorNode[][] updates) throws IOException {
+		if (sketch != null) {
+			for (int i = 0; i < updates.length; i++) {
+				sketch.add(updates[i]);
+			}
+		}
+		if (offHeapMx != null) {
+			offHeapMx = offHeapMx.append(updates);
+			return;
+		}
+		if (denseMx != null) {
+			DenseMatrix newDenseMx = denseMx.append(updates);
+			if (newDenseMx != null) {
+				denseMx = newDenseMx;
+				return;
+			}
+			// The updates do not fit densely, so the rows become sparse
+			mx = denseMx.toVectorNodes();
+			denseMx = null;
+		}
 		VectorNode[][] newMx = new VectorNode[nInstances+updates.length][];
 		for (int i = 0; i < mx.length; ++i) {
 			newMx[i] = mx[i];
@@ -62,46 +397,209 @@ public abstract class DistributionalOrder extends LinearOrder {
 		for (int i = 0; i < updates.length; ++i) {
 			newMx[mx.length + i] = updates[i];
 		}
+		int first = mx.length;
 		mx = newMx;
+		if (rowNorms != null) {
+			// Only the new rows need their sums
+			for (int i = 0; i < updates.length; i++) {
+				rowNorms.update(first + i, updates[i]);
+			}
+		} else {
+			updateRowNorms();
+		}
 	}
 	
 	public void foldInNewInstance(VectorNode[] newInstance) {
+		Metrics.Timer timer = metrics.getTimer(Metrics.phases.foldIn);
+		long start = timer.start();
+		Events.FoldIn event = new Events.FoldIn();
+		event.start(metrics);
 		nInstances++;
-		order.add(findBestSlot(nInstances - 1), nInstances - 1);
+		insertIntoOrder(findBestSlot(nInstances - 1), nInstances - 1);
+		timer.stop(start);
+		if (event.finish()) {
+			event.rows = 1;
+			event.nnz = newInstance != null ? newInstance.length : 0;
+			event.commit();
+		}
 	}
 
+	/**
+	 * Gets the rows. If they are stored off the heap or in a dense matrix,
+	 * this is a copy as vector nodes, which is expensive for large matrices.
+	 * 
+	 * @return the rows
+	 */
 	public VectorNode[][] getMx() {
+		if (offHeapMx != null) {
+			return offHeapMx.toVectorNodes();
+		}
+		if (denseMx != null) {
+			return denseMx.toVectorNodes();
+		}
 		return mx;
 	}
 
-	public VectorNode[][] getRearranged() {
-		return rearrangeMatrix(mx);
+	/**
+	 * Gets a row, copied to vector nodes if the rows are stored off the heap
+	 * or in a dense matrix.
+	 * 
+	 * @param x
+	 *            the row
+	 * @return the row, null if it is empty
+	 */
+	public VectorNode[] getRow(int x) {
+		if (offHeapMx != null) {
+			return offHeapMx.getRow(x);
+		}
+		if (denseMx != null) {
+			return denseMx.getRow(x);
+		}
+		return mx[x];
 	}
 
-	protected void initialize(boolean reset) throws IOException {
-		remainingElements = new HashSet<Integer>();
+	/**
+	 * Sketches the rows and preselects the candidates of the heuristics by
+	 * the sketch from then on, see LinearOrder.setSketch.
+	 * 
+	 * @param nComponents
+	 *            the number of components of the sketch
+	 * @param shortlistSize
+	 *            the number of candidates with exact distances
+	 */
+	public void useSketch(int nComponents, int shortlistSize) {
+		RowSketch newSketch = new RowSketch(nComponents, distance.getSketchType(),
+				nDimensions, 0);
 		for (int i = 0; i < nInstances; i++) {
-			if (mx[i] != null) {
-					remainingElements.add(i);
-			}
+			newSketch.add(getRow(i));
+		}
+		setSketch(newSketch, shortlistSize);
+	}
+
+	/**
+	 * Finds the smallest first column index of the rows as
+	 * SparseVector.findMinColumnIndex, without copying them.
+	 */
+	public int findMinColumnIndex() {
+		if (offHeapMx != null) {
+			return offHeapMx.findMinColumnIndex();
+		}
+		if (denseMx != null) {
+			return denseMx.findMinColumnIndex();
+		}
+		return SparseVector.findMinColumnIndex(mx);
+	}
+
+	@Override
+	public long countNonZeros() {
+		if (offHeapMx != null) {
+			return offHeapMx.countNonZeros();
+		}
+		if (denseMx != null) {
+			return denseMx.countNonZeros();
+		}
+		return SparseVector.countNonZeros(mx);
+	}
+
+	public int getnDimensions() {
+		return nDimensions;
+	}
+
+	/**
+	 * Estimates the bytes taken by the rows, in or out of the heap, and by
+	 * the order.
+	 */
+	public long estimateMemory() {
+		long result = (long) ORDER_ENTRY_BYTES * order.size();
+		if (offHeapMx != null) {
+			return result + 8L * nInstances + 12L * countNonZeros();
 		}
+		if (denseMx != null) {
+			return result + denseMx.estimateMemory();
+		}
+		return result + 20L * nInstances + (long) NODE_BYTES
+				* countNonZeros()
+				+ (rowNorms != null ? 16L * nInstances : 0);
+	}
+
+	/**
+	 * Estimates the bytes that rows would take on the heap, as a bound of
+	 * what they add to the memory of a seriation.
+	 */
+	public static long estimateMemory(VectorNode[][] rows) {
+		return 20L * rows.length + (long) NODE_BYTES
+				* SparseVector.countNonZeros(rows);
+	}
+
+	/**
+	 * Estimates the bytes a seriation would take before its rows are read,
+	 * as estimateMemory() does for the full order.
+	 * 
+	 * @param nRows
+	 *            the number of rows
+	 * @param nNonZeros
+	 *            the number of entries
+	 * @param storage
+	 *            the storage of the rows
+	 */
+	public static long estimateMemory(long nRows, long nNonZeros,
+			storageTypes storage) {
+		long result = ORDER_ENTRY_BYTES * nRows;
+		if (storage != storageTypes.heap) {
+			return result + 8L * nRows + 12L * nNonZeros;
+		}
+		return result + 20L * nRows + (long) NODE_BYTES * nNonZeros;
+	}
+
+	public boolean isOffHeap() {
+		return offHeapMx != null;
+	}
+
+	/**
+	 * Gets the rows stored off the heap.
+	 * 
+	 * @return the off-heap matrix, null if the rows are on the heap
+	 */
+	public OffHeapMatrix getOffHeapMx() {
+		return offHeapMx;
+	}
+
+	public boolean isDense() {
+		return denseMx != null;
+	}
+
+	public VectorNode[][] getRearranged() {
+		return rearrangeMatrix(getMx());
+	}
+
+	protected void initialize(boolean reset) throws IOException {
+		remainingElements = findPresentElements();
 		order = new ArrayList<Integer>();
 		if (reset) {
-			Utilities.resetFile(filename.substring(0, filename.length() - 4)
-					+ "_" + model + "_order-tmp.txt");
+			Utilities.resetFile(getTemporaryOrderFilename());
 		} else {
-			order = Utilities.readIntArrayList(filename.substring(0,
-					filename.length() - 4)
-					+ "_" + model + "_order-tmp.txt");
+			order = Utilities.readIntArrayList(getTemporaryOrderFilename());
 			for (int i = 0; i < order.size(); i++) {
 				remainingElements.remove(order.get(i));
 			}
 		}
 	}
 
+	private HashSet<Integer> findPresentElements() {
+		HashSet<Integer> result = new HashSet<Integer>();
+		for (int i = 0; i < nInstances; i++) {
+			if (offHeapMx != null ? offHeapMx.isPresent(i)
+					: denseMx != null ? denseMx.isPresent(i) : mx[i] != null) {
+				result.add(i);
+			}
+		}
+		return result;
+	}
+
 	protected void printInstance(int x) {
-		for (int i = 0; i < mx[x].length; i++) {
-			System.out.print(mx[x][i].index + ":" + mx[x][i].value + " ");
+		VectorNode[] row = getRow(x);
+		for (int i = 0; i < row.length; i++) {
+			System.out.print(row[i].index + ":" + row[i].value + " ");
 		}
 		System.out.println();
 	}
@@ -110,19 +608,146 @@ public abstract class DistributionalOrder extends LinearOrder {
 		return SparseVector.rearrangeRowVectors(mx, getOrder());
 	}
 
+	/**
+	 * Replaces the rows. They are stored on the heap from then on, in a
+	 * dense matrix if they are dense enough.
+	 * 
+	 * @param mx
+	 *            the rows
+	 */
 	public void setMx(VectorNode[][] mx) {
 		this.mx = mx;
+		offHeapMx = null;
+		denseMx = null;
 		nInstances = mx.length;
 		nDimensions = SparseVector.findMaxColumnIndex(mx);
+		selectDenseStorage();
+		if (sketch != null) {
+			useSketch(sketch.getnComponents(), shortlistSize);
+		}
+	}
+
+	/**
+	 * Replaces the rows by rows stored off the heap.
+	 * 
+	 * @param offHeapMx
+	 *            the rows
+	 */
+	public void setOffHeapMx(OffHeapMatrix offHeapMx) {
+		this.offHeapMx = offHeapMx;
+		mx = null;
+		denseMx = null;
+		nInstances = offHeapMx.getnRows();
+		nDimensions = offHeapMx.findMaxColumnIndex();
+		updateRowNorms();
+		if (sketch != null) {
+			useSketch(sketch.getnComponents(), shortlistSize);
+		}
+	}
+
+	/**
+	 * Appends a dimension to the rows, so that they are the rows of the
+	 * transposed matrix after a new row of the matrix: every entry (j, v) of
+	 * the new row appends (index, v) to row j - offset, which is added if it
+	 * is new. The rows stay off the heap if they are there, and only the
+	 * changed rows are copied; dense rows become sparse rows on the heap.
+	 * 
+	 * @param index
+	 *            the index of the new row, larger than those of the rows
+	 * @param row
+	 *            the new row, null if empty
+	 * @param offset
+	 *            what is subtracted from the indices of the new row
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void appendDimension(int index, VectorNode[] row, int offset)
+			throws IOException {
+		if (row == null || row.length == 0) {
+			return;
+		}
+		if (offHeapMx != null) {
+			offHeapMx = offHeapMx.appendColumn(index, row, offset);
+			nInstances = offHeapMx.getnRows();
+		} else {
+			if (denseMx != null) {
+				mx = denseMx.toVectorNodes();
+				denseMx = null;
+				updateRowNorms();
+			}
+			int newnInstances = mx.length;
+			for (int k = 0; k < row.length; k++) {
+				newnInstances = Math.max(newnInstances, row[k].index - offset
+						+ 1);
+			}
+			// A new array, as a state may be written from the old one
+			VectorNode[][] newMx = Arrays.copyOf(mx, newnInstances);
+			for (int k = 0; k < row.length; k++) {
+				int x = row[k].index - offset;
+				newMx[x] = SparseVector.addNode(newMx[x], index, row[k].value);
+			}
+			mx = newMx;
+			nInstances = newnInstances;
+			if (rowNorms != null) {
+				for (int k = 0; k < row.length; k++) {
+					int x = row[k].index - offset;
+					rowNorms.update(x, mx[x]);
+				}
+			}
+		}
+		nDimensions = Math.max(nDimensions, index);
+		if (sketch != null) {
+			if (sketch.getSketchType() == RowSketch.sketchTypes.centered) {
+				useSketch(sketch.getnComponents(), shortlistSize);
+			} else {
+				for (int k = 0; k < row.length; k++) {
+					sketch.set(row[k].index - offset, getRow(row[k].index
+							- offset));
+				}
+				while (sketch.getnRows() < nInstances) {
+					sketch.add(null);
+				}
+			}
+		}
 	}
 
 	public void writeNewOrder() throws IOException {
-		writeNewOrder(filename.substring(0, filename.length() - 4) + "_"
+		writeNewOrder(Utilities.removeExtension(filename) + "_"
 				+ model + ".dat");
 	}
 
 	public void writeNewOrder(String filename) throws IOException {
-		writeNewOrder(this.mx, null, filename);
+		writeNewOrder(getMx(), null, filename);
+	}
+
+	/**
+	 * Writes the rearranged matrix in the binary sparse matrix format.
+	 * 
+	 * @param filename
+	 *            the file name
+	 * @param flags
+	 *            the flags of SparseMatrixFile.write
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void writeNewOrderBinary(String filename, int flags)
+			throws IOException {
+		if (offHeapMx != null && !isTransposed) {
+			// As rearrangeRowVectors, rows that are not placed are empty
+			int[] rowOrder = new int[offHeapMx.getnRows()];
+			Arrays.fill(rowOrder, -1);
+			for (int i = 0; i < order.size(); i++) {
+				rowOrder[i] = order.get(i);
+			}
+			SparseMatrixFile.write(offHeapMx, rowOrder, filename, flags);
+			return;
+		}
+		VectorNode[][] result = rearrangeMatrix(getMx());
+		if (isTransposed) {
+			result = SparseVector.transpose(result);
+		}
+		SparseMatrixFile.write(SparseMatrix.fromVectorNodes(result), filename,
+				flags);
 	}
 
 	public void writeNewOrder(VectorNode[][] mx, String[] classes,
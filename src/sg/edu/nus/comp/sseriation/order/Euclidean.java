@@ -20,19 +20,18 @@ package sg.edu.nus.comp.sseriation.order;
 
 import java.io.IOException;
 
-import sg.edu.nus.comp.sseriation.util.SparseVector;
-
+/**
+ * A distributional order under EuclideanDistance.
+ */
 public class Euclidean extends DistributionalOrder {
 
-	private static final String MODEL_NAME="eucl";
-	
 	public Euclidean(String filename, boolean isTransposed) throws IOException {
-		super(filename, MODEL_NAME, isTransposed);
+		super(filename, new EuclideanDistance(), isTransposed);
 	}
-	
-	@Override
-	protected double getDistance(int x, int y) {
-		return SparseVector.euclidean(mx[x], mx[y]);
+
+	public Euclidean(String filename, boolean isTransposed, storageTypes storage)
+			throws IOException {
+		super(filename, new EuclideanDistance(), isTransposed, storage);
 	}
 
 }
@@ -0,0 +1,486 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import sg.edu.nus.comp.sseriation.util.Events;
+import sg.edu.nus.comp.sseriation.util.Metrics;
+import sg.edu.nus.comp.sseriation.util.SparseVector;
+import sg.edu.nus.comp.sseriation.util.Utilities;
+import sg.edu.nus.comp.sseriation.util.VectorNode;
+
+/**
+ * Coarse-to-fine seriation for very large collections. The rows are
+ * clustered by mini-batch k-means, the clusters are ordered by the left-right
+ * heuristic on their representatives (the member nearest to the centroid),
+ * the members of every cluster are ordered in parallel, and finally every
+ * cluster path is oriented so that the distances across cluster boundaries
+ * are minimal. With about sqrt(n) clusters of sqrt(n) rows, this takes
+ * O(n sqrt(n)) distance evaluations instead of O(n^2), at the price of a
+ * longer path.
+ */
+public class HierarchicalOrdering {
+
+	/** The memory the dense centroids may take, in bytes. */
+	private static final long MAX_CENTROID_MEMORY = 512L << 20;
+
+	private DistributionalOrder distributionalOrder;
+	private int nClusters = 0;
+	private int batchSize = 1024;
+	private int nIterations = 0;
+	private long randomSeed = 0;
+	private int nThreads;
+
+	private VectorNode[][] mx;
+	private int[] elements;
+	private double[] rowNormSquares;
+	// Centroid c is scale[c] * unscaled[c]
+	private double[][] unscaled;
+	private double[] scale;
+	private double[] centroidNormSquares;
+	private long[] counts;
+
+	/**
+	 * Instantiates a new hierarchical ordering.
+	 *
+	 * @param distributionalOrder
+	 *            the order providing the rows and the distance, it receives
+	 *            the new order
+	 */
+	public HierarchicalOrdering(DistributionalOrder distributionalOrder) {
+		this.distributionalOrder = distributionalOrder;
+		nThreads = distributionalOrder.getnThreads();
+	}
+
+	/**
+	 * Generates the order.
+	 */
+	public void generateOrder() throws IOException {
+		Metrics.Timer timer = distributionalOrder.getMetrics().getTimer(
+				Metrics.phases.construction);
+		long start = timer.start();
+		Events.Heuristic event = distributionalOrder
+				.startHeuristicEvent("hierarchical");
+		mx = distributionalOrder.getMx();
+		elements = distributionalOrder.getElements();
+		int n = elements.length;
+		int dimension = SparseVector.findMaxColumnIndex(mx) + 1;
+		int k = nClusters > 0 ? nClusters : (int) Math.ceil(Math.sqrt(n));
+		k = (int) Math.min(k, MAX_CENTROID_MEMORY / (8L * dimension));
+		k = Math.max(1, Math.min(k, n));
+		ExecutorService executor = Utilities.newFixedThreadPool(nThreads);
+		try {
+			print("Clustering " + n + " rows into " + k
+					+ " clusters...");
+			cluster(executor, k, dimension);
+			print("Assigning rows to clusters...");
+			int[][] members = new int[k][];
+			int[] representatives = new int[k];
+			assign(executor, members, representatives);
+			ArrayList<int[]> clusters = new ArrayList<int[]>();
+			ArrayList<Integer> clusterRepresentatives = new ArrayList<Integer>();
+			for (int c = 0; c < k; c++) {
+				if (members[c].length > 0) {
+					clusters.add(members[c]);
+					clusterRepresentatives.add(representatives[c]);
+				}
+			}
+			unscaled = null;
+			print("Ordering " + clusters.size() + " clusters...");
+			int[] representativeElements = new int[clusters.size()];
+			for (int c = 0; c < representativeElements.length; c++) {
+				representativeElements[c] = clusterRepresentatives.get(c);
+			}
+			int[] clusterOrder = orderSubset(representativeElements);
+			int[] rank = new int[representativeElements.length];
+			for (int c = 0; c < representativeElements.length; c++) {
+				rank[c] = -1;
+			}
+			for (int i = 0; i < clusterOrder.length; i++) {
+				for (int c = 0; c < representativeElements.length; c++) {
+					if (rank[c] == -1
+							&& representativeElements[c] == clusterOrder[i]) {
+						rank[c] = i;
+						break;
+					}
+				}
+			}
+			int[][] orderedClusters = new int[clusters.size()][];
+			for (int c = 0; c < clusters.size(); c++) {
+				orderedClusters[rank[c]] = clusters.get(c);
+			}
+			print("Ordering cluster members...");
+			int[][] paths = orderClusters(executor, orderedClusters);
+			print("Stitching clusters...");
+			distributionalOrder.setOrder(stitch(paths));
+			distributionalOrder.remainingElements.clear();
+			timer.stop(start);
+			distributionalOrder.commitHeuristicEvent(event);
+		} finally {
+			executor.shutdown();
+			mx = null;
+			unscaled = null;
+		}
+	}
+
+	/**
+	 * Mini-batch k-means: every iteration assigns a random batch of rows to
+	 * their nearest centroids and moves each centroid towards its rows with a
+	 * per-centroid learning rate of 1 / count. Centroids are kept with a
+	 * scale factor, so that an update costs O(nnz) of the row rather than
+	 * the dimension.
+	 */
+	private void cluster(ExecutorService executor, int k, int dimension) {
+		int n = elements.length;
+		Random random = new Random(randomSeed);
+		rowNormSquares = new double[mx.length];
+		for (int i = 0; i < n; i++) {
+			double norm = SparseVector.calculateNorm(mx[elements[i]]);
+			rowNormSquares[elements[i]] = norm * norm;
+		}
+		unscaled = new double[k][dimension];
+		scale = new double[k];
+		centroidNormSquares = new double[k];
+		counts = new long[k];
+		int[] initial = sample(random, n, k);
+		for (int c = 0; c < k; c++) {
+			VectorNode[] row = mx[elements[initial[c]]];
+			for (int j = 0; j < row.length; j++) {
+				unscaled[c][row[j].index] = row[j].value;
+			}
+			scale[c] = 1;
+			centroidNormSquares[c] = rowNormSquares[elements[initial[c]]];
+			counts[c] = 1;
+		}
+		int iterations = nIterations > 0 ? nIterations : Math.min(500,
+				Math.max(20, 3 * n / batchSize));
+		int b = Math.min(batchSize, n);
+		for (int iteration = 0; iteration < iterations; iteration++) {
+			final int[] batch = new int[b];
+			for (int i = 0; i < b; i++) {
+				batch[i] = elements[random.nextInt(n)];
+			}
+			final int[] nearest = new int[b];
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			int blockSize = (b + nThreads - 1) / nThreads;
+			for (int from = 0; from < b; from += blockSize) {
+				final int blockFrom = from;
+				final int blockTo = Math.min(b, from + blockSize);
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (int i = blockFrom; i < blockTo; i++) {
+							nearest[i] = findNearestCentroid(batch[i], null);
+						}
+						return null;
+					}
+				}));
+			}
+			waitFor(futures);
+			for (int i = 0; i < b; i++) {
+				update(nearest[i], mx[batch[i]], rowNormSquares[batch[i]]);
+			}
+		}
+	}
+
+	private int[] sample(Random random, int n, int k) {
+		int[] permutation = new int[n];
+		for (int i = 0; i < n; i++) {
+			permutation[i] = i;
+		}
+		for (int i = 0; i < k; i++) {
+			int j = i + random.nextInt(n - i);
+			int tmp = permutation[i];
+			permutation[i] = permutation[j];
+			permutation[j] = tmp;
+		}
+		int[] result = new int[k];
+		System.arraycopy(permutation, 0, result, 0, k);
+		return result;
+	}
+
+	private double dot(int c, VectorNode[] row) {
+		double sum = 0;
+		double[] u = unscaled[c];
+		for (int j = 0; j < row.length; j++) {
+			sum += u[row[j].index] * row[j].value;
+		}
+		return scale[c] * sum;
+	}
+
+	/**
+	 * Finds the centroid nearest to a row in squared Euclidean distance.
+	 *
+	 * @param x
+	 *            the row
+	 * @param distance
+	 *            receives the squared distance if not null
+	 * @return the centroid
+	 */
+	private int findNearestCentroid(int x, double[] distance) {
+		VectorNode[] row = mx[x];
+		double min = Double.POSITIVE_INFINITY;
+		int argmin = 0;
+		for (int c = 0; c < unscaled.length; c++) {
+			double d = centroidNormSquares[c] - 2 * dot(c, row)
+					+ rowNormSquares[x];
+			if (d < min) {
+				min = d;
+				argmin = c;
+			}
+		}
+		if (distance != null) {
+			distance[0] = min;
+		}
+		return argmin;
+	}
+
+	private void update(int c, VectorNode[] row, double rowNormSquare) {
+		counts[c]++;
+		double eta = 1.0 / counts[c];
+		double product = dot(c, row);
+		centroidNormSquares[c] = (1 - eta) * (1 - eta)
+				* centroidNormSquares[c] + 2 * (1 - eta) * eta * product
+				+ eta * eta * rowNormSquare;
+		scale[c] *= 1 - eta;
+		double[] u = unscaled[c];
+		for (int j = 0; j < row.length; j++) {
+			u[row[j].index] += eta * row[j].value / scale[c];
+		}
+		if (scale[c] < 1e-10) {
+			for (int j = 0; j < u.length; j++) {
+				u[j] *= scale[c];
+			}
+			scale[c] = 1;
+		}
+	}
+
+	/**
+	 * Assigns every row to its nearest centroid and finds the member nearest
+	 * to each centroid.
+	 */
+	private void assign(ExecutorService executor, int[][] members,
+			int[] representatives) {
+		final int n = elements.length;
+		final int k = members.length;
+		final int[] nearest = new int[n];
+		List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+		final List<int[]> localRepresentatives = new ArrayList<int[]>();
+		int blockSize = (n + nThreads - 1) / nThreads;
+		for (int from = 0; from < n; from += blockSize) {
+			final int blockFrom = from;
+			final int blockTo = Math.min(n, from + blockSize);
+			final int[] representative = new int[k];
+			localRepresentatives.add(representative);
+			futures.add(executor.submit(new Callable<double[]>() {
+				@Override
+				public double[] call() {
+					double[] best = new double[k];
+					for (int c = 0; c < k; c++) {
+						best[c] = Double.POSITIVE_INFINITY;
+					}
+					double[] distance = new double[1];
+					for (int i = blockFrom; i < blockTo; i++) {
+						int c = findNearestCentroid(elements[i], distance);
+						nearest[i] = c;
+						if (distance[0] < best[c]) {
+							best[c] = distance[0];
+							representative[c] = elements[i];
+						}
+					}
+					return best;
+				}
+			}));
+		}
+		List<double[]> best = waitFor(futures);
+		double[] min = new double[k];
+		for (int c = 0; c < k; c++) {
+			min[c] = Double.POSITIVE_INFINITY;
+		}
+		for (int t = 0; t < best.size(); t++) {
+			for (int c = 0; c < k; c++) {
+				if (best.get(t)[c] < min[c]) {
+					min[c] = best.get(t)[c];
+					representatives[c] = localRepresentatives.get(t)[c];
+				}
+			}
+		}
+		int[] sizes = new int[k];
+		for (int i = 0; i < n; i++) {
+			sizes[nearest[i]]++;
+		}
+		for (int c = 0; c < k; c++) {
+			members[c] = new int[sizes[c]];
+			sizes[c] = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			members[nearest[i]][sizes[nearest[i]]++] = elements[i];
+		}
+	}
+
+	/**
+	 * Orders a subset of the rows by the left-right heuristic.
+	 *
+	 * @return the rows in order
+	 */
+	private int[] orderSubset(int[] subset) throws IOException {
+		if (subset.length < 3) {
+			return subset.clone();
+		}
+		SubsetOrder subsetOrder = new SubsetOrder(distributionalOrder, subset);
+		subsetOrder.generateOrderLeftRight();
+		return subsetOrder.getParentOrder();
+	}
+
+	private int[][] orderClusters(ExecutorService executor,
+			final int[][] clusters) {
+		final int[][] paths = new int[clusters.length][];
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (int c = 0; c < clusters.length; c++) {
+			final int cluster = c;
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					paths[cluster] = orderSubset(clusters[cluster]);
+					return null;
+				}
+			}));
+		}
+		waitFor(futures);
+		return paths;
+	}
+
+	/**
+	 * Chooses the orientation of every cluster path by dynamic programming so
+	 * that the sum of distances between consecutive clusters is minimal, and
+	 * concatenates the paths.
+	 */
+	private ArrayList<Integer> stitch(int[][] paths) {
+		int m = paths.length;
+		// cost[i][o]: best cost of the first i + 1 paths, path i oriented o
+		double[][] cost = new double[m][2];
+		int[][] previous = new int[m][2];
+		for (int i = 1; i < m; i++) {
+			for (int o = 0; o < 2; o++) {
+				int first = end(paths[i], o, true);
+				cost[i][o] = Double.POSITIVE_INFINITY;
+				for (int p = 0; p < 2; p++) {
+					int last = end(paths[i - 1], p, false);
+					double c = cost[i - 1][p]
+							+ distributionalOrder.getDistance(last, first);
+					if (c < cost[i][o]) {
+						cost[i][o] = c;
+						previous[i][o] = p;
+					}
+				}
+			}
+		}
+		int[] orientation = new int[m];
+		if (m > 0) {
+			orientation[m - 1] = cost[m - 1][0] <= cost[m - 1][1] ? 0 : 1;
+			for (int i = m - 1; i > 0; i--) {
+				orientation[i - 1] = previous[i][orientation[i]];
+			}
+		}
+		ArrayList<Integer> result = new ArrayList<Integer>(elements.length);
+		for (int i = 0; i < m; i++) {
+			int length = paths[i].length;
+			for (int j = 0; j < length; j++) {
+				result.add(paths[i][orientation[i] == 0 ? j : length - 1 - j]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the first or the last element of a path in a given orientation.
+	 */
+	private static int end(int[] path, int orientation, boolean first) {
+		boolean head = (orientation == 0) == first;
+		return head ? path[0] : path[path.length - 1];
+	}
+
+	private <T> List<T> waitFor(List<Future<T>> futures) {
+		List<T> results = new ArrayList<T>();
+		try {
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return results;
+	}
+
+	public int getnClusters() {
+		return nClusters;
+	}
+
+	/**
+	 * Sets the number of clusters.
+	 *
+	 * @param nClusters
+	 *            the number of clusters, zero for the square root of the
+	 *            number of rows
+	 */
+	public void setnClusters(int nClusters) {
+		this.nClusters = nClusters;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Sets the number of mini-batch iterations.
+	 *
+	 * @param nIterations
+	 *            the number of iterations, zero to derive it from the number
+	 *            of rows
+	 */
+	public void setnIterations(int nIterations) {
+		this.nIterations = nIterations;
+	}
+
+	public void setRandomSeed(long randomSeed) {
+		this.randomSeed = randomSeed;
+	}
+
+	public void setnThreads(int nThreads) {
+		this.nThreads = nThreads;
+	}
+
+	private void print(String message) {
+		if (distributionalOrder.isVerbose()) {
+			System.out.println(message);
+		}
+	}
+
+}
@@ -0,0 +1,235 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A k nearest neighbour graph in compressed sparse row format. The neighbours
+ * of element x are neighbours[rowPointers[x]] to
+ * neighbours[rowPointers[x + 1] - 1], sorted by increasing distance. Elements
+ * that were not part of the graph have no neighbours.
+ */
+public class KnnGraph {
+
+	private static final int MAGIC = 0x4B4E4E47;
+	private static final int VERSION = 1;
+
+	int k;
+	int[] rowPointers;
+	int[] neighbours;
+	double[] distances;
+
+	KnnGraph(int k, int[] rowPointers, int[] neighbours, double[] distances) {
+		this.k = k;
+		this.rowPointers = rowPointers;
+		this.neighbours = neighbours;
+		this.distances = distances;
+	}
+
+	/**
+	 * Builds the graph from per-element neighbour lists.
+	 *
+	 * @param k
+	 *            the number of neighbours requested
+	 * @param lists
+	 *            the sorted neighbour lists indexed by element, null for
+	 *            elements outside the graph
+	 * @param listDistances
+	 *            the matching distances
+	 * @return the graph
+	 */
+	static KnnGraph fromLists(int k, int[][] lists, double[][] listDistances) {
+		int[] rowPointers = new int[lists.length + 1];
+		for (int i = 0; i < lists.length; i++) {
+			rowPointers[i + 1] = rowPointers[i]
+					+ (lists[i] == null ? 0 : lists[i].length);
+		}
+		int[] neighbours = new int[rowPointers[lists.length]];
+		double[] distances = new double[neighbours.length];
+		for (int i = 0; i < lists.length; i++) {
+			if (lists[i] != null) {
+				System.arraycopy(lists[i], 0, neighbours, rowPointers[i],
+						lists[i].length);
+				System.arraycopy(listDistances[i], 0, distances,
+						rowPointers[i], lists[i].length);
+			}
+		}
+		return new KnnGraph(k, rowPointers, neighbours, distances);
+	}
+
+	/**
+	 * Gets the number of elements the graph is indexed by.
+	 *
+	 * @return one more than the largest element
+	 */
+	public int getnElements() {
+		return rowPointers.length - 1;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * Gets the number of neighbours of an element.
+	 *
+	 * @param x
+	 *            the element
+	 * @return the number of neighbours, zero if x is not in the graph
+	 */
+	public int getDegree(int x) {
+		if (x < 0 || x >= rowPointers.length - 1) {
+			return 0;
+		}
+		return rowPointers[x + 1] - rowPointers[x];
+	}
+
+	/**
+	 * Gets the j-th nearest neighbour of an element.
+	 *
+	 * @param x
+	 *            the element
+	 * @param j
+	 *            the rank of the neighbour
+	 * @return the neighbour
+	 */
+	public int getNeighbour(int x, int j) {
+		return neighbours[rowPointers[x] + j];
+	}
+
+	/**
+	 * Gets the distance of an element to its j-th nearest neighbour.
+	 *
+	 * @param x
+	 *            the element
+	 * @param j
+	 *            the rank of the neighbour
+	 * @return the distance
+	 */
+	public double getDistance(int x, int j) {
+		return distances[rowPointers[x] + j];
+	}
+
+	/**
+	 * Checks whether the graph covers exactly the given elements.
+	 *
+	 * @param elements
+	 *            the elements of an order
+	 * @return true if every element, and only those, has neighbours
+	 */
+	public boolean covers(int[] elements) {
+		if (elements.length <= 1) {
+			return true;
+		}
+		for (int i = 0; i < elements.length; i++) {
+			if (getDegree(elements[i]) == 0) {
+				return false;
+			}
+		}
+		int withNeighbours = 0;
+		for (int x = 0; x < rowPointers.length - 1; x++) {
+			if (getDegree(x) > 0) {
+				withNeighbours++;
+			}
+		}
+		return withNeighbours == elements.length;
+	}
+
+	/**
+	 * Writes the graph in binary format: a header with a magic number, the
+	 * version, the number of elements, k and the number of edges, followed by
+	 * the row pointers, the neighbours and the distances.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void write(String filename) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(filename), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(rowPointers.length - 1);
+			out.writeInt(k);
+			out.writeInt(neighbours.length);
+			for (int i = 0; i < rowPointers.length; i++) {
+				out.writeInt(rowPointers[i]);
+			}
+			for (int i = 0; i < neighbours.length; i++) {
+				out.writeInt(neighbours[i]);
+			}
+			for (int i = 0; i < distances.length; i++) {
+				out.writeDouble(distances[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads a graph written by {@link #write(String)}.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @return the graph
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred, or the file is
+	 *             not a kNN graph.
+	 */
+	public static KnnGraph read(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+			if (buffer.remaining() < 20 || buffer.getInt() != MAGIC) {
+				throw new IOException(filename + " is not a kNN graph file.");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported kNN graph version "
+						+ version + " in " + filename + ".");
+			}
+			int nElements = buffer.getInt();
+			int k = buffer.getInt();
+			int nnz = buffer.getInt();
+			int[] rowPointers = new int[nElements + 1];
+			int[] neighbours = new int[nnz];
+			double[] distances = new double[nnz];
+			buffer.asIntBuffer().get(rowPointers);
+			buffer.position(buffer.position() + 4 * rowPointers.length);
+			buffer.asIntBuffer().get(neighbours);
+			buffer.position(buffer.position() + 4 * nnz);
+			buffer.asDoubleBuffer().get(distances);
+			return new KnnGraph(k, rowPointers, neighbours, distances);
+		} finally {
+			file.close();
+		}
+	}
+
+}
@@ -0,0 +1,577 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import sg.edu.nus.comp.sseriation.util.SparseVector;
+import sg.edu.nus.comp.sseriation.util.Utilities;
+import sg.edu.nus.comp.sseriation.util.VectorNode;
+
+/**
+ * Builds the k nearest neighbour graph of the elements of a linear order
+ * under its distance. The exact mode compares every pair in cache-friendly
+ * blocks of rows and columns. The approximate mode is NN-descent: starting
+ * from random neighbours, the neighbours of neighbours are compared until the
+ * lists stop changing, which needs far fewer distance evaluations on large
+ * collections.
+ *
+ * If the distance has an inverted index and the rows are sparse on the heap,
+ * the exact mode only compares the rows that share a column, and fills the
+ * lists that stay short with rows at the disjoint distance.
+ */
+public class KnnGraphBuilder {
+
+	public enum modeTypes {
+		exact, approximate
+	};
+
+	private static final int ROW_BLOCK = 128;
+	private static final int COLUMN_BLOCK = 1024;
+	private static final int LOCK_STRIPES = 1024;
+
+	private LinearOrder linearOrder;
+	private int k = 10;
+	private modeTypes mode = modeTypes.exact;
+	private int nThreads;
+	private double sampleRate = 1.0;
+	private double terminationThreshold = 0.001;
+	private int maxIterations = 30;
+	private long randomSeed = 0;
+	/** The time the build is given up, 0 for none. */
+	private long deadline = 0;
+
+	// Per-element sorted neighbour lists while building
+	private int[][] lists;
+	private double[][] listDistances;
+	private boolean[][] listIsNew;
+	private int[] listSizes;
+	private Object[] locks;
+
+	/**
+	 * Instantiates a new builder over a linear order.
+	 *
+	 * @param linearOrder
+	 *            the linear order providing the distances
+	 */
+	public KnnGraphBuilder(LinearOrder linearOrder) {
+		this.linearOrder = linearOrder;
+		nThreads = linearOrder.getnThreads();
+	}
+
+	/**
+	 * Builds the graph over all elements of the linear order, placed or not.
+	 *
+	 * @return the graph
+	 */
+	public KnnGraph build() {
+		return build(linearOrder.getElements());
+	}
+
+	/**
+	 * Builds the graph over the given elements.
+	 *
+	 * @param elements
+	 *            the elements
+	 * @return the graph
+	 * @throws CancellationException
+	 *             if the deadline passes before the graph is built
+	 */
+	public KnnGraph build(int[] elements) {
+		int maxElement = -1;
+		for (int i = 0; i < elements.length; i++) {
+			if (elements[i] > maxElement) {
+				maxElement = elements[i];
+			}
+		}
+		int kk = Math.min(k, elements.length - 1);
+		lists = new int[maxElement + 1][];
+		listDistances = new double[maxElement + 1][];
+		listSizes = new int[maxElement + 1];
+		if (kk > 0) {
+			for (int i = 0; i < elements.length; i++) {
+				lists[elements[i]] = new int[kk];
+				listDistances[elements[i]] = new double[kk];
+			}
+			ExecutorService executor = Utilities.newFixedThreadPool(nThreads);
+			try {
+				VectorNode[][] mx = findInvertibleRows();
+				if (mode == modeTypes.exact && mx != null) {
+					buildExactInverted(executor, elements, mx,
+							((DistributionalOrder) linearOrder)
+									.getDistanceKernel().getDisjointDistance());
+				} else if (mode == modeTypes.exact || elements.length <= 4 * kk) {
+					buildExact(executor, elements);
+				} else {
+					buildApproximate(executor, elements, kk);
+				}
+			} finally {
+				executor.shutdown();
+			}
+		}
+		KnnGraph result = KnnGraph.fromLists(kk, lists, listDistances);
+		lists = null;
+		listDistances = null;
+		listIsNew = null;
+		listSizes = null;
+		return result;
+	}
+
+	private void buildExact(ExecutorService executor, final int[] elements) {
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int from = 0; from < elements.length; from += ROW_BLOCK) {
+			final int rowFrom = from;
+			final int rowTo = Math.min(elements.length, from + ROW_BLOCK);
+			futures.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					for (int c = 0; c < elements.length; c += COLUMN_BLOCK) {
+						checkDeadline();
+						int columnTo = Math.min(elements.length, c
+								+ COLUMN_BLOCK);
+						for (int i = rowFrom; i < rowTo; i++) {
+							int x = elements[i];
+							for (int j = c; j < columnTo; j++) {
+								int y = elements[j];
+								if (x != y) {
+									insert(x, y, linearOrder.getDistance(x, y),
+											false);
+								}
+							}
+						}
+					}
+					return 0;
+				}
+			}));
+		}
+		waitFor(futures);
+	}
+
+	/**
+	 * Gets the sparse rows on the heap if the distance has an inverted index.
+	 *
+	 * @return the rows, or null
+	 */
+	private VectorNode[][] findInvertibleRows() {
+		if (!(linearOrder instanceof DistributionalOrder)) {
+			return null;
+		}
+		DistributionalOrder order = (DistributionalOrder) linearOrder;
+		if (order.isOffHeap()
+				|| order.isDense()
+				|| !order.getDistanceKernel().getCapabilities()
+						.contains(Distance.capabilities.invertedIndex)) {
+			return null;
+		}
+		return order.getMx();
+	}
+
+	private void buildExactInverted(ExecutorService executor,
+			final int[] elements, final VectorNode[][] mx,
+			final double disjointDistance) {
+		// The elements having each column, in compressed rows
+		int nColumns = SparseVector.findMaxColumnIndex(mx) + 1;
+		final int[] columnPointers = new int[nColumns + 1];
+		for (int i = 0; i < elements.length; i++) {
+			VectorNode[] row = mx[elements[i]];
+			for (int j = 0; row != null && j < row.length; j++) {
+				columnPointers[row[j].index + 1]++;
+			}
+		}
+		for (int c = 0; c < nColumns; c++) {
+			columnPointers[c + 1] += columnPointers[c];
+		}
+		final int[] postings = new int[columnPointers[nColumns]];
+		int[] next = Arrays.copyOf(columnPointers, nColumns);
+		for (int i = 0; i < elements.length; i++) {
+			VectorNode[] row = mx[elements[i]];
+			for (int j = 0; row != null && j < row.length; j++) {
+				postings[next[row[j].index]++] = elements[i];
+			}
+		}
+		final int nElements = lists.length;
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int from = 0; from < elements.length; from += ROW_BLOCK) {
+			final int rowFrom = from;
+			final int rowTo = Math.min(elements.length, from + ROW_BLOCK);
+			futures.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					// seen[y] == x + 1 once y is a candidate of x
+					int[] seen = new int[nElements];
+					int[] candidates = new int[16];
+					checkDeadline();
+					for (int i = rowFrom; i < rowTo; i++) {
+						int x = elements[i];
+						seen[x] = x + 1;
+						int nCandidates = 0;
+						VectorNode[] row = mx[x];
+						for (int j = 0; row != null && j < row.length; j++) {
+							int to = columnPointers[row[j].index + 1];
+							for (int p = columnPointers[row[j].index]; p < to; p++) {
+								int y = postings[p];
+								if (seen[y] != x + 1) {
+									seen[y] = x + 1;
+									if (nCandidates == candidates.length) {
+										candidates = Arrays.copyOf(candidates,
+												2 * nCandidates);
+									}
+									candidates[nCandidates++] = y;
+								}
+							}
+						}
+						// In increasing order, ties are kept as the exact
+						// mode keeps them
+						Arrays.sort(candidates, 0, nCandidates);
+						for (int j = 0; j < nCandidates; j++) {
+							insert(x, candidates[j], linearOrder.getDistance(
+									x, candidates[j]), false);
+						}
+						for (int j = 0; j < elements.length
+								&& listSizes[x] < lists[x].length; j++) {
+							if (seen[elements[j]] != x + 1) {
+								insert(x, elements[j], disjointDistance, false);
+							}
+						}
+					}
+					return 0;
+				}
+			}));
+		}
+		waitFor(futures);
+	}
+
+	private void buildApproximate(ExecutorService executor,
+			final int[] elements, int kk) {
+		Random random = new Random(randomSeed);
+		listIsNew = new boolean[lists.length][];
+		locks = new Object[LOCK_STRIPES];
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			locks[i] = new Object();
+		}
+		for (int i = 0; i < elements.length; i++) {
+			int x = elements[i];
+			listIsNew[x] = new boolean[kk];
+			while (listSizes[x] < kk) {
+				int y = elements[random.nextInt(elements.length)];
+				if (y != x && !contains(x, y)) {
+					insert(x, y, linearOrder.getDistance(x, y), true);
+				}
+			}
+		}
+		int sampleSize = Math.max(1, (int) (sampleRate * kk));
+		for (int iteration = 0; iteration < maxIterations; iteration++) {
+			checkDeadline();
+			final int[][] newCandidates = new int[lists.length][];
+			final int[][] oldCandidates = new int[lists.length][];
+			sampleCandidates(elements, sampleSize, random, newCandidates,
+					oldCandidates);
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			int blockSize = Math.max(ROW_BLOCK, elements.length
+					/ (4 * nThreads));
+			for (int from = 0; from < elements.length; from += blockSize) {
+				final int rowFrom = from;
+				final int rowTo = Math.min(elements.length, from + blockSize);
+				futures.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						checkDeadline();
+						int updates = 0;
+						for (int i = rowFrom; i < rowTo; i++) {
+							updates += localJoin(newCandidates[elements[i]],
+									oldCandidates[elements[i]]);
+						}
+						return updates;
+					}
+				}));
+			}
+			int updates = 0;
+			for (Integer u : waitFor(futures)) {
+				updates += u;
+			}
+			if (updates <= terminationThreshold * elements.length * kk) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Collects the sampled new and all old neighbours of every element,
+	 * together with the reverse neighbours, and marks the sampled new
+	 * neighbours as old.
+	 */
+	private void sampleCandidates(int[] elements, int sampleSize,
+			Random random, int[][] newCandidates, int[][] oldCandidates) {
+		ArrayList<ArrayList<Integer>> newLists = new ArrayList<ArrayList<Integer>>();
+		ArrayList<ArrayList<Integer>> oldLists = new ArrayList<ArrayList<Integer>>();
+		ArrayList<ArrayList<Integer>> newReverse = new ArrayList<ArrayList<Integer>>();
+		ArrayList<ArrayList<Integer>> oldReverse = new ArrayList<ArrayList<Integer>>();
+		for (int x = 0; x < lists.length; x++) {
+			newLists.add(null);
+			oldLists.add(null);
+			newReverse.add(null);
+			oldReverse.add(null);
+		}
+		for (int i = 0; i < elements.length; i++) {
+			int x = elements[i];
+			ArrayList<Integer> fresh = new ArrayList<Integer>();
+			ArrayList<Integer> old = new ArrayList<Integer>();
+			ArrayList<Integer> newPositions = new ArrayList<Integer>();
+			for (int j = 0; j < listSizes[x]; j++) {
+				if (listIsNew[x][j]) {
+					newPositions.add(j);
+				} else {
+					old.add(lists[x][j]);
+				}
+			}
+			Collections.shuffle(newPositions, random);
+			for (int j = 0; j < Math.min(sampleSize, newPositions.size()); j++) {
+				int p = newPositions.get(j);
+				fresh.add(lists[x][p]);
+				listIsNew[x][p] = false;
+			}
+			newLists.set(x, fresh);
+			oldLists.set(x, old);
+		}
+		int[] newSeen = new int[lists.length];
+		int[] oldSeen = new int[lists.length];
+		for (int i = 0; i < elements.length; i++) {
+			int x = elements[i];
+			for (int y : newLists.get(x)) {
+				addReverse(newReverse, newSeen, y, x, sampleSize, random);
+			}
+			for (int y : oldLists.get(x)) {
+				addReverse(oldReverse, oldSeen, y, x, sampleSize, random);
+			}
+		}
+		for (int i = 0; i < elements.length; i++) {
+			int x = elements[i];
+			newCandidates[x] = merge(newLists.get(x), newReverse.get(x));
+			oldCandidates[x] = merge(oldLists.get(x), oldReverse.get(x));
+		}
+	}
+
+	/**
+	 * Reservoir sampling of at most sampleSize reverse neighbours of y.
+	 */
+	private void addReverse(ArrayList<ArrayList<Integer>> reverse,
+			int[] seen, int y, int x, int sampleSize, Random random) {
+		ArrayList<Integer> list = reverse.get(y);
+		if (list == null) {
+			list = new ArrayList<Integer>();
+			reverse.set(y, list);
+		}
+		seen[y]++;
+		if (list.size() < sampleSize) {
+			list.add(x);
+		} else {
+			int r = random.nextInt(seen[y]);
+			if (r < sampleSize) {
+				list.set(r, x);
+			}
+		}
+	}
+
+	private int[] merge(ArrayList<Integer> forward, ArrayList<Integer> reverse) {
+		ArrayList<Integer> result = new ArrayList<Integer>(forward);
+		if (reverse != null) {
+			for (int i = 0; i < reverse.size(); i++) {
+				if (!result.contains(reverse.get(i))) {
+					result.add(reverse.get(i));
+				}
+			}
+		}
+		int[] array = new int[result.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = result.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * Compares new candidates with each other and with old candidates, and
+	 * offers every pair to both lists.
+	 */
+	private int localJoin(int[] fresh, int[] old) {
+		int updates = 0;
+		for (int i = 0; i < fresh.length; i++) {
+			int p = fresh[i];
+			for (int j = i + 1; j < fresh.length; j++) {
+				updates += join(p, fresh[j]);
+			}
+			for (int j = 0; j < old.length; j++) {
+				if (p != old[j]) {
+					updates += join(p, old[j]);
+				}
+			}
+		}
+		return updates;
+	}
+
+	private int join(int p, int q) {
+		double d = linearOrder.getDistance(p, q);
+		int updates = 0;
+		synchronized (locks[p % LOCK_STRIPES]) {
+			updates += insert(p, q, d, true);
+		}
+		synchronized (locks[q % LOCK_STRIPES]) {
+			updates += insert(q, p, d, true);
+		}
+		return updates;
+	}
+
+	private boolean contains(int x, int y) {
+		for (int j = 0; j < listSizes[x]; j++) {
+			if (lists[x][j] == y) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Inserts y into the sorted neighbour list of x if it is closer than the
+	 * current k-th neighbour.
+	 *
+	 * @return 1 if the list changed, 0 otherwise
+	 */
+	private int insert(int x, int y, double d, boolean isNew) {
+		int[] list = lists[x];
+		double[] distances = listDistances[x];
+		int size = listSizes[x];
+		int capacity = list.length;
+		if (size == capacity && d >= distances[capacity - 1]) {
+			return 0;
+		}
+		if (isNew && contains(x, y)) {
+			return 0;
+		}
+		int j = size < capacity ? size++ : capacity - 1;
+		while (j > 0 && distances[j - 1] > d) {
+			list[j] = list[j - 1];
+			distances[j] = distances[j - 1];
+			if (listIsNew != null) {
+				listIsNew[x][j] = listIsNew[x][j - 1];
+			}
+			j--;
+		}
+		list[j] = y;
+		distances[j] = d;
+		if (listIsNew != null) {
+			listIsNew[x][j] = isNew;
+		}
+		listSizes[x] = size;
+		return 1;
+	}
+
+	private <T> List<T> waitFor(List<Future<T>> futures) {
+		List<T> results = new ArrayList<T>();
+		try {
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof CancellationException) {
+				throw (CancellationException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		return results;
+	}
+
+	private void checkDeadline() {
+		if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+			throw new CancellationException(
+					"The deadline of the kNN graph passed.");
+		}
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public void setK(int k) {
+		this.k = k;
+	}
+
+	public modeTypes getMode() {
+		return mode;
+	}
+
+	public void setMode(modeTypes mode) {
+		this.mode = mode;
+	}
+
+	public void setnThreads(int nThreads) {
+		this.nThreads = nThreads;
+	}
+
+	/**
+	 * Sets the time after which the build is given up.
+	 *
+	 * @param deadline
+	 *            the deadline in System.currentTimeMillis, or 0 for none
+	 */
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Sets the fraction of new neighbours compared in every NN-descent
+	 * iteration.
+	 *
+	 * @param sampleRate
+	 *            the sample rate between 0 and 1
+	 */
+	public void setSampleRate(double sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Sets when NN-descent stops: the iteration ends the search if fewer than
+	 * this fraction of the n*k list entries changed.
+	 *
+	 * @param terminationThreshold
+	 *            the fraction of updates
+	 */
+	public void setTerminationThreshold(double terminationThreshold) {
+		this.terminationThreshold = terminationThreshold;
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	public void setRandomSeed(long randomSeed) {
+		this.randomSeed = randomSeed;
+	}
+
+}
@@ -21,29 +21,35 @@ package sg.edu.nus.comp.sseriation.order;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.ArrayList;
 
+import sg.edu.nus.comp.sseriation.util.Events;
+import sg.edu.nus.comp.sseriation.util.Metrics;
 import sg.edu.nus.comp.sseriation.util.Utilities;
 
 public abstract class LinearOrder {
 
-	private class minObject {
-		public double min;
-		public int argmin;
-
-		minObject(double min, int argmin) {
-			this.min = min;
-			this.argmin = argmin;
-		}
-	}
-
 	protected HashSet<Integer> remainingElements;
 	protected ArrayList<Integer> order;
 	protected String model;
 	protected String filename;
 	protected int nInstances;
+	protected KnnGraph knnGraph;
+	/** The sketch that preselects candidates, null if every one is exact. */
+	protected RowSketch sketch;
+	protected int shortlistSize = 64;
+	protected boolean verbose = true;
+	protected Metrics metrics = Metrics.getDefault();
+	protected ProgressListener progressListener;
+	protected long deadline = 0;
+	protected long reportInterval = 500;
+	/** The threads the heuristics of the order may use. */
+	protected int nThreads = Runtime.getRuntime().availableProcessors();
+	/** The last published version of the order, read by any thread. */
+	private volatile OrderSnapshot orderSnapshot = OrderSnapshot.EMPTY;
 	
 	public LinearOrder(String filename, String model) {
 		this.model = model;
@@ -87,6 +93,9 @@ public abstract class LinearOrder {
 		if (order.size() == 0 || order.size() == 1) {
 			return 0;
 		}
+		if (sketch != null && order.size() > shortlistSize) {
+			return findBestSlotSketched(x);
+		}
 
 		// Two separate cases have to deal with the end points
 		double d = getDistance(x, order.get(0));
@@ -111,28 +120,72 @@ public abstract class LinearOrder {
 	}
 
 	/**
-	 * Finds the next candidate from the remaining set of elements that has the
-	 * minimum distance to one end of the order computed so far. Used by the
-	 * left-right heuristic.
+	 * Finds the best slot as findBestSlot, but estimates the cost of every
+	 * slot from the sketch and computes the exact cost only on the cheapest
+	 * ones.
 	 * 
 	 * @param x
-	 *            the current left or right element
-	 * @return the optimal element and its distance from x
+	 *            the element to insert
+	 * @return the best slot among the shortlisted ones
 	 */
-	private minObject findNextCandidate(int x) {
-		double min = Integer.MAX_VALUE;
-		int argmin = -1;
-		for (Iterator<Integer> iter = remainingElements.iterator(); iter
-				.hasNext();) {
-			int tmpi = iter.next();
-			double tmpd = getDistance(x, tmpi);
-			if (tmpd < min) {
-				argmin = tmpi;
-				min = tmpd;
+	private int findBestSlotSketched(int x) {
+		int n = order.size();
+		RowSketch.Shortlist shortlist = new RowSketch.Shortlist(shortlistSize);
+		// Slot s is between order[s - 1] and order[s]
+		double previous = sketch.estimateDistance(order.get(0), x);
+		shortlist.offer(0, previous);
+		for (int s = 1; s < n; s++) {
+			double next = sketch.estimateDistance(x, order.get(s));
+			shortlist.offer(s, previous + next
+					- sketch.estimateDistance(order.get(s - 1), order.get(s)));
+			previous = next;
+		}
+		shortlist.offer(n, previous);
+		double min = Double.MAX_VALUE;
+		int argmin = 0;
+		for (int i = 0; i < shortlist.size(); i++) {
+			int s = shortlist.get(i);
+			double d;
+			if (s == 0) {
+				d = getDistance(x, order.get(0));
+			} else if (s == n) {
+				d = getDistance(order.get(n - 1), x);
+			} else {
+				d = getDistance(order.get(s - 1), x)
+						+ getDistance(x, order.get(s))
+						- getDistance(order.get(s - 1), order.get(s));
+			}
+			if (d < min || (d == min && s < argmin)) {
+				argmin = s;
+				min = d;
 			}
 		}
-		minObject result = new minObject(min, argmin);
-		return result;
+		return argmin;
+	}
+
+	/**
+	 * Gets how much inserting an element at a slot lengthens the path.
+	 * 
+	 * @param slot
+	 *            the slot, between order[slot - 1] and order[slot]
+	 * @param x
+	 *            the element to insert
+	 * @return the increase of the sum of distances
+	 */
+	private double getInsertionIncrease(int slot, int x) {
+		int n = order.size();
+		if (n == 0) {
+			return 0;
+		}
+		if (slot == 0) {
+			return getDistance(x, order.get(0));
+		}
+		if (slot == n) {
+			return getDistance(order.get(n - 1), x);
+		}
+		return getDistance(order.get(slot - 1), x)
+				+ getDistance(x, order.get(slot))
+				- getDistance(order.get(slot - 1), order.get(slot));
 	}
 
 	protected abstract int findSeed();
@@ -141,95 +194,265 @@ public abstract class LinearOrder {
 	 * Generates the order by the insert heuristic
 	 */
 	public void generateOrderInsert() {
-		int progress = 0;
+		Metrics.Timer timer = metrics.getTimer(Metrics.phases.construction);
+		long start = timer.start();
+		Events.Heuristic event = startHeuristicEvent("insert");
+		ProgressTracker tracker = newProgressTracker("insert", nInstances,
+				false);
+		double pathLength = 0;
 		for (int i = 0; i < nInstances; i++) {
-			order.add(findBestSlot(i), i);
+			int slot = findBestSlot(i);
+			if (tracker != null) {
+				pathLength += getInsertionIncrease(slot, i);
+			}
+			order.add(slot, i);
 			remainingElements.remove(i);
-			printProgress(++progress);
+			if (tracker != null) {
+				tracker.step(i + 1, pathLength);
+			}
+		}
+		if (tracker != null) {
+			tracker.finish(nInstances, pathLength);
 		}
-		System.out.println();
+		publishOrder();
+		timer.stop(start);
+		commitHeuristicEvent(event);
 	}
 
 	/**
 	 * Generates the order by the left-right heuristic
 	 */
 	public void generateOrderLeftRight() throws IOException {
-		if (order.size()==0) {
-			System.out.println("Finding seed...");
-			int seed = findSeed();
-			order.add(seed);
-			remainingElements.remove(seed);
-			writeOne(filename.substring(0, filename.length() - 4) + "_" + model
-					+ "_order-tmp.txt", seed);
-			System.out.println("Finding left seed...");
-			int tl = findNextCandidate(seed).argmin;
-			remainingElements.remove(tl);
-			order.add(0, tl);
-			writeOne(filename.substring(0, filename.length() - 4) + "_" + model
-					+ "_order-tmp.txt", tl);
-			System.out.println("Finding right seed...");
-			int tr = findNextCandidate(seed).argmin;
-			remainingElements.remove(tr);
-			order.add(tr);
-			writeOne(filename.substring(0, filename.length() - 4) + "_" + model
-					+ "_order-tmp.txt", tr);
-		}
-		System.out.println("Generating order...");
-		int progress = 0;
-		minObject tlMinObject = findNextCandidate(order.get(0));
-		minObject trMinObject = findNextCandidate(order.get(order.size() - 1));
-		boolean changeLeft = false;
-		boolean changeRight = false;
-		while (!remainingElements.isEmpty()) {
-			if (changeLeft) {
-				tlMinObject = findNextCandidate(order.get(0));
-				changeLeft = false;
-			}
-			if (changeRight) {
-				trMinObject = findNextCandidate(order.get(order.size() - 1));
-				changeRight = false;
-			}
-			if (tlMinObject.min <= trMinObject.min && tlMinObject.argmin != -1) {
-				remainingElements.remove(tlMinObject.argmin);
-				order.add(0, tlMinObject.argmin);
-				writeOne(filename.substring(0, filename.length() - 4) + "_"
-						+ model + "_order-tmp.txt", tlMinObject.argmin);
-				changeLeft = true;
-			} else if (trMinObject.argmin != -1) {
-				remainingElements.remove(trMinObject.argmin);
-				order.add(trMinObject.argmin);
-				writeOne(filename.substring(0, filename.length() - 4) + "_"
-						+ model + "_order-tmp.txt", trMinObject.argmin);
-				changeRight = true;
-			}
-			if (trMinObject.argmin == tlMinObject.argmin) {
-				changeLeft = true;
-				changeRight = true;
-			}
-			printProgress(++progress);
-			if (trMinObject.argmin == -1 && tlMinObject.argmin == -1) {
-				/*
-				 * rightSide.removeElementAt(rightSide.size() - 1); snapshotV();
-				 * V.remove(trMinObject.argmin); changeRight = true; if
-				 * (!V.isEmpty()){ V.remove(tlMinObject.argmin); changeLeft =
-				 * true; }
-				 */
-				break;
+		Metrics.Timer timer = metrics.getTimer(Metrics.phases.construction);
+		long start = timer.start();
+		Events.Heuristic event = startHeuristicEvent("leftright");
+		int seed = -1;
+		if (order.size() == 0) {
+			if (verbose) {
+				System.out.println("Finding seed...");
 			}
+			Metrics.Timer seedTimer = metrics.getTimer(Metrics.phases.seed);
+			long seedStart = seedTimer.start();
+			seed = findSeed();
+			seedTimer.stop(seedStart);
+		}
+		KnnGraph graph = knnGraph != null && knnGraph.covers(getElements()) ? knnGraph
+				: null;
+		int total = order.size() + remainingElements.size();
+		if (seed >= 0 && !remainingElements.contains(seed)) {
+			// The seed is placed even if its row is empty
+			total++;
 		}
-		System.out.println();
+		PathConstruction construction = new PathConstruction(this,
+				remainingElements, order, graph, getTemporaryOrderFilename(),
+				verbose, newProgressTracker("leftright", total, true));
+		construction.generateLeftRight(seed);
+		publishOrder();
+		timer.stop(start);
+		commitHeuristicEvent(event);
+	}
+
+	/**
+	 * Generates the order by spectral seriation over the k nearest neighbour
+	 * graph
+	 */
+	public void generateOrderSpectral() {
+		Metrics.Timer timer = metrics.getTimer(Metrics.phases.construction);
+		long start = timer.start();
+		Events.Heuristic event = startHeuristicEvent("spectral");
+		new SpectralOrdering(this).generateOrder();
+		timer.stop(start);
+		commitHeuristicEvent(event);
 	}
 
 	protected abstract double getDistance(int x, int y);
 
+	/**
+	 * Counts the entries of the rows of the order.
+	 * 
+	 * @return the number of entries, 0 if the order has no rows of its own
+	 */
+	public long countNonZeros() {
+		return 0;
+	}
+
+	/**
+	 * Starts the Flight Recorder event of a run of a heuristic.
+	 */
+	Events.Heuristic startHeuristicEvent(String heuristic) {
+		Events.Heuristic event = new Events.Heuristic();
+		event.heuristic = heuristic;
+		event.start(metrics);
+		return event;
+	}
+
+	/**
+	 * Ends the Flight Recorder event of a run of a heuristic, and commits it
+	 * with the elements placed if it is recorded.
+	 */
+	void commitHeuristicEvent(Events.Heuristic event) {
+		if (event.finish()) {
+			event.rows = order.size();
+			event.nnz = countNonZeros();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Gets all elements of the order, placed or not, in increasing order.
+	 * 
+	 * @return the elements
+	 */
+	public int[] getElements() {
+		int[] result = new int[order.size() + remainingElements.size()];
+		int n = 0;
+		for (int i = 0; i < order.size(); i++) {
+			result[n++] = order.get(i);
+		}
+		for (Iterator<Integer> iter = remainingElements.iterator(); iter
+				.hasNext();) {
+			result[n++] = iter.next();
+		}
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Gets the number of instances, including those not placed in the order
+	 * yet.
+	 */
+	public int getnInstances() {
+		return nInstances;
+	}
+
+	public KnnGraph getKnnGraph() {
+		return knnGraph;
+	}
+
+	public RowSketch getSketch() {
+		return sketch;
+	}
+
+	public int getShortlistSize() {
+		return shortlistSize;
+	}
+
+	/**
+	 * Makes the insert and the left-right heuristics preselect their
+	 * candidates by the distances estimated from a sketch, and compute exact
+	 * distances only on a shortlist of the best candidates. This bounds the
+	 * rows read in every step, which matters if they are not in memory.
+	 * 
+	 * @param sketch
+	 *            the sketch of all rows, or null to compute every distance
+	 * @param shortlistSize
+	 *            the number of candidates with exact distances
+	 */
+	public void setSketch(RowSketch sketch, int shortlistSize) {
+		this.sketch = sketch;
+		this.shortlistSize = shortlistSize;
+	}
+
+	/**
+	 * Restricts the candidates of the heuristics to a k nearest neighbour
+	 * graph. The left-right heuristic, the local search and the spectral
+	 * heuristic use it if it covers all elements of the order.
+	 * 
+	 * @param knnGraph
+	 *            the kNN graph, or null
+	 */
+	public void setKnnGraph(KnnGraph knnGraph) {
+		this.knnGraph = knnGraph;
+	}
+
+	/**
+	 * Gets the file a kNN graph of this order is cached in.
+	 * 
+	 * @return the name of the kNN graph file
+	 */
+	public String getKnnGraphFilename() {
+		return Utilities.removeExtension(filename) + "_" + model
+				+ "_knn.bin";
+	}
+
 	public String getModel() {
 		return model;
 	}
 
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the registry the order reports its distance evaluations and
+	 * phases to, the default registry unless set.
+	 * 
+	 * @param metrics
+	 *            the registry
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Gets the file that records the elements placed by the left-right
+	 * heuristic, so that an interrupted run can be resumed.
+	 * 
+	 * @return the name of the temporary order file
+	 */
+	protected String getTemporaryOrderFilename() {
+		return Utilities.removeExtension(filename) + "_" + model
+				+ "_order-tmp.txt";
+	}
+
+	/**
+	 * Gets the order as it is being built and updated. Only the thread that
+	 * updates the order may read it; other threads read getOrderSnapshot.
+	 */
 	public ArrayList<Integer> getOrder() {
 		return order;
 	}
 
+	/**
+	 * Gets the last published version of the order. The heuristics publish
+	 * the order when they finish, and every element folded in or inserted by
+	 * updateOrderInsert publishes the next version, so a snapshot is always a
+	 * complete order. Any thread may call this without locking, and the
+	 * snapshot stays unchanged by later updates.
+	 * 
+	 * @return the snapshot
+	 */
+	public OrderSnapshot getOrderSnapshot() {
+		return orderSnapshot;
+	}
+
+	/**
+	 * Publishes the current order as the next snapshot.
+	 */
+	public void publishOrder() {
+		orderSnapshot = OrderSnapshot.of(order,
+				orderSnapshot.getVersion() + 1);
+	}
+
+	/**
+	 * Inserts an element into the order and publishes the next snapshot,
+	 * sharing all but a path of the previous one if it is up to date.
+	 * 
+	 * @param slot
+	 *            the position of the element
+	 * @param element
+	 *            the element
+	 */
+	protected void insertIntoOrder(int slot, int element) {
+		order.add(slot, element);
+		OrderSnapshot snapshot = orderSnapshot;
+		if (snapshot.size() == order.size() - 1) {
+			orderSnapshot = snapshot.insert(slot, element);
+		} else {
+			publishOrder();
+		}
+	}
+
 	public double[] getScale() throws IOException {
 		double[] consecDists = calculateConsecutiveDistances();
 		double[] scale = new double[consecDists.length + 1];
@@ -247,12 +470,9 @@ public abstract class LinearOrder {
 		}
 		order = new ArrayList<Integer>();
 		if (reset) {
-			Utilities.resetFile(filename.substring(0, filename.length() - 4)
-					+ "_" + model + "_order-tmp.txt");
+			Utilities.resetFile(getTemporaryOrderFilename());
 		} else {
-			order = Utilities.readIntArrayList(filename.substring(0,
-					filename.length() - 4)
-					+ "_" + model + "_order-tmp.txt");
+			order = Utilities.readIntArrayList(getTemporaryOrderFilename());
 			for (int i = 0; i < order.size(); i++) {
 				remainingElements.remove(order.get(i));
 			}
@@ -261,23 +481,98 @@ public abstract class LinearOrder {
 
 	abstract protected void printInstance(int x);
 	
-	private void printProgress(int progress) {
-		if (progress % 1000 == 0) {
-			System.out.print(progress + "..");
-		}
-	}
-	
 	public void setOrder(ArrayList<Integer> order) {
 		this.order = order;
+		publishOrder();
+	}
+
+	/**
+	 * Sets the listener that receives the progress of the insert and
+	 * left-right heuristics and may cancel them.
+	 * 
+	 * @param progressListener
+	 *            the listener, or null for none
+	 */
+	public void setProgressListener(ProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	/**
+	 * Sets the time after which the insert and left-right heuristics are
+	 * cancelled.
+	 * 
+	 * @param deadline
+	 *            the deadline in System.currentTimeMillis, or 0 for none
+	 */
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Sets the minimum time between two reports to the progress listener.
+	 * 
+	 * @param reportInterval
+	 *            the interval in milliseconds
+	 */
+	public void setReportInterval(long reportInterval) {
+		this.reportInterval = reportInterval;
+	}
+
+	/**
+	 * Creates the tracker of a run of a heuristic.
+	 * 
+	 * @return the tracker, or null if there is no listener and no deadline
+	 */
+	ProgressTracker newProgressTracker(String heuristic, int total,
+			boolean scansRemaining) {
+		if (progressListener == null && deadline <= 0) {
+			return null;
+		}
+		return new ProgressTracker(progressListener, heuristic, total,
+				scansRemaining, deadline, reportInterval * 1000000);
+	}
+
+	public int getnThreads() {
+		return nThreads;
+	}
+
+	/**
+	 * Sets the threads the heuristics of the order may use, which run in the
+	 * calling thread if it is 1.
+	 * 
+	 * @param nThreads
+	 *            the number of threads, one per processor by default
+	 */
+	public void setnThreads(int nThreads) {
+		if (nThreads < 1) {
+			throw new IllegalArgumentException(
+					"The number of threads must be positive.");
+		}
+		this.nThreads = nThreads;
+	}
+
+	public boolean isVerbose() {
+		return verbose;
+	}
+
+	/**
+	 * Sets whether the heuristics of the order print what they do to
+	 * System.out. Progress goes to the progress listener either way.
+	 * 
+	 * @param verbose
+	 *            false to print nothing, true by default
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
 	}
 
 	/**
 	 * Takes a snapshot of the remaining elements. Useful in debugging.
 	 */
 	protected void takeSnapshotOfRemainingElements() throws IOException {
-		FileWriter out = new FileWriter(new File(filename.substring(0,
-				filename.length() - 4)
-				+ "_" + model + "_remaining_elements_snapshot.txt"), false);
+		FileWriter out = new FileWriter(new File(
+				Utilities.removeExtension(filename) + "_" + model
+						+ "_remaining_elements_snapshot.txt"), false);
 		for (Iterator<Integer> iter = remainingElements.iterator(); iter
 				.hasNext();) {
 			out.write(iter.next() + "\n");
@@ -294,19 +589,13 @@ public abstract class LinearOrder {
 				return;
 			}
 		}
-		order.add(findBestSlot(i), i);
-	}
-
-	private void writeOne(String filename, int x) throws IOException {
-		FileWriter out = new FileWriter(new File(filename), true);
-		out.write(x + "\n");
-		out.close();
+		insertIntoOrder(findBestSlot(i), i);
 	}
 
 	public void writeOrder() throws IOException {
-		FileWriter out = new FileWriter(new File(filename.substring(0,
-				filename.length() - 4)
-				+ "_" + model + "_order.txt"));
+		FileWriter out = new FileWriter(new File(
+				Utilities.removeExtension(filename) + "_" + model
+						+ "_order.txt"));
 		for (int i = 0; i < order.size(); i++) {
 			out.write(order.get(i) + "\n");
 		}
@@ -315,7 +604,7 @@ public abstract class LinearOrder {
 
 	public void writeScale() throws IOException {
 		Utilities.writeDoubleList(getScale(),
-				filename.substring(0, filename.length() - 4) + "_" + model
+				Utilities.removeExtension(filename) + "_" + model
 						+ "_scale.dat");
 	}
 
@@ -0,0 +1,577 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import sg.edu.nus.comp.sseriation.util.Utilities;
+
+/**
+ * Local search refinement of an order computed by one of the construction
+ * heuristics. The path is improved by 2-opt moves (reversal of a subpath) and
+ * Or-opt moves (relocation of a chain of at most three elements). Moves are
+ * only evaluated towards the k nearest neighbours of an element, and elements
+ * whose neighbourhood did not yield an improvement are skipped until one of
+ * their edges changes (don't-look bits).
+ *
+ * The path is cut into contiguous segments that are improved in parallel.
+ * Segment boundaries are shifted between rounds, so that every edge is
+ * eventually considered by some worker.
+ */
+public class LocalSearch {
+
+	private static final double EPSILON = 1e-10;
+
+	private static final int MIN_SEGMENT_LENGTH = 64;
+
+	private LinearOrder linearOrder;
+	private int nNeighbours = 8;
+	private int maxChainLength = 3;
+	private int maxRounds = Integer.MAX_VALUE;
+	private long timeLimit = 0;
+	private int nThreads;
+
+	private int n;
+	private int[] path;
+	private int[] position;
+	private double[] edge;
+	private KnnGraph candidates;
+	private boolean[] dontLook;
+	private long deadline;
+
+	/**
+	 * Instantiates a new local search over the current order of a linear
+	 * order.
+	 *
+	 * @param linearOrder
+	 *            the order to refine
+	 */
+	public LocalSearch(LinearOrder linearOrder) {
+		this.linearOrder = linearOrder;
+		nThreads = linearOrder.getnThreads();
+	}
+
+	/**
+	 * Refines the order in place.
+	 *
+	 * @return the decrease of the sum of consecutive distances
+	 */
+	public double refine() {
+		ArrayList<Integer> order = linearOrder.getOrder();
+		if (order.size() < 4) {
+			return 0;
+		}
+		long start = System.currentTimeMillis();
+		deadline = timeLimit > 0 ? start + timeLimit : Long.MAX_VALUE;
+		double before = linearOrder.calculateSumOfDistances();
+		initialize(order);
+		print("Finding candidate neighbours...");
+		try {
+			findCandidates();
+		} catch (CancellationException e) {
+			print("Time limit reached while finding candidate "
+					+ "neighbours, the order is left as it was.");
+			return 0;
+		}
+		print("Refining order...");
+		ExecutorService executor = Utilities.newFixedThreadPool(nThreads);
+		try {
+			int round = 0;
+			int idleRounds = 0;
+			while (round < maxRounds && idleRounds < 2
+					&& System.currentTimeMillis() < deadline) {
+				int nMoves = runRound(executor, round);
+				idleRounds = nMoves == 0 ? idleRounds + 1 : 0;
+				round++;
+			}
+		} finally {
+			executor.shutdown();
+		}
+		ArrayList<Integer> newOrder = new ArrayList<Integer>(n);
+		for (int i = 0; i < n; i++) {
+			newOrder.add(path[i]);
+		}
+		linearOrder.setOrder(newOrder);
+		double after = linearOrder.calculateSumOfDistances();
+		print("Sum of distances: " + before + " -> " + after
+				+ " (" + (System.currentTimeMillis() - start) + " ms)");
+		return before - after;
+	}
+
+	private void initialize(ArrayList<Integer> order) {
+		n = order.size();
+		path = new int[n];
+		int maxElement = 0;
+		for (int i = 0; i < n; i++) {
+			path[i] = order.get(i);
+			if (path[i] > maxElement) {
+				maxElement = path[i];
+			}
+		}
+		position = new int[maxElement + 1];
+		for (int i = 0; i < n; i++) {
+			position[path[i]] = i;
+		}
+		edge = new double[n - 1];
+		for (int i = 0; i < n - 1; i++) {
+			edge[i] = distance(path[i], path[i + 1]);
+		}
+		dontLook = new boolean[maxElement + 1];
+	}
+
+	/**
+	 * Uses the kNN graph of the linear order if it covers the path, and
+	 * builds an exact graph otherwise.
+	 */
+	private void findCandidates() {
+		candidates = linearOrder.getKnnGraph();
+		if (candidates == null || !candidates.covers(path)) {
+			KnnGraphBuilder builder = new KnnGraphBuilder(linearOrder);
+			builder.setK(nNeighbours);
+			builder.setnThreads(nThreads);
+			if (timeLimit > 0) {
+				builder.setDeadline(deadline);
+			}
+			candidates = builder.build(path);
+		}
+	}
+
+	private int runRound(ExecutorService executor, int round) {
+		int nSegments = Math.max(1,
+				Math.min(nThreads, n / MIN_SEGMENT_LENGTH));
+		int segmentLength = (n + nSegments - 1) / nSegments;
+		int offset = (round % 2 == 0) ? 0 : segmentLength / 2;
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		int from = 0;
+		int to = offset > 0 ? offset : segmentLength;
+		while (from < n) {
+			to = Math.min(to, n);
+			futures.add(executor.submit(new SegmentWorker(from, to)));
+			from = to;
+			to += segmentLength;
+		}
+		int nMoves = 0;
+		for (Integer moves : waitFor(futures)) {
+			nMoves += moves;
+		}
+		return nMoves;
+	}
+
+	private <T> List<T> waitFor(List<Future<T>> futures) {
+		List<T> results = new ArrayList<T>();
+		try {
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return results;
+	}
+
+	private double distance(int x, int y) {
+		return linearOrder.getDistance(x, y);
+	}
+
+	/**
+	 * Improves the subpath between two positions. Only positions within the
+	 * segment are read or written, with the exception of the two ends of the
+	 * whole path, which are treated as missing neighbours.
+	 */
+	private class SegmentWorker implements Callable<Integer> {
+
+		private int lo;
+		private int hi;
+		private int nMoves;
+		private ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+
+		SegmentWorker(int lo, int hi) {
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		public Integer call() {
+			for (int i = lo; i < hi; i++) {
+				if (!dontLook[path[i]]) {
+					queue.add(path[i]);
+				}
+			}
+			int checked = 0;
+			while (!queue.isEmpty()) {
+				if (++checked % 64 == 0
+						&& System.currentTimeMillis() >= deadline) {
+					break;
+				}
+				int a = queue.poll();
+				if (dontLook[a]) {
+					continue;
+				}
+				int twoOpt = improveTwoOpt(a);
+				int orOpt = twoOpt > 0 ? 0 : improveOrOpt(a);
+				if (twoOpt > 0 || orOpt > 0) {
+					queue.add(a);
+				} else if (twoOpt == 0 && orOpt == 0) {
+					dontLook[a] = true;
+				}
+			}
+			return nMoves;
+		}
+
+		/**
+		 * Whether a position may be used by this worker. Positions -1 and n
+		 * stand for the missing neighbours at the ends of the whole path.
+		 */
+		private boolean owns(int p) {
+			return (p >= lo && p < hi) || (p == -1 && lo == 0)
+					|| (p == n && hi == n);
+		}
+
+		private double edgeAt(int p) {
+			return (p >= 0 && p < n - 1) ? edge[p] : 0;
+		}
+
+		private double distanceAt(int p, int q) {
+			if (p < 0 || p >= n || q < 0 || q >= n) {
+				return 0;
+			}
+			return distance(path[p], path[q]);
+		}
+
+		private void wake(int p) {
+			if (p >= lo && p < hi) {
+				int x = path[p];
+				if (dontLook[x]) {
+					dontLook[x] = false;
+				}
+				queue.add(x);
+			}
+		}
+
+		/**
+		 * Tries 2-opt moves that create an edge between a and one of its
+		 * candidates.
+		 *
+		 * @return 1 if a move was applied, -1 if an improving move might
+		 *         exist outside the segment, 0 otherwise
+		 */
+		private int improveTwoOpt(int a) {
+			int i = position[a];
+			boolean blocked = false;
+			int to = candidates.rowPointers[a + 1];
+			for (int c = candidates.rowPointers[a]; c < to; c++) {
+				int y = candidates.neighbours[c];
+				double dy = candidates.distances[c];
+				if (dy >= Math.max(edgeAt(i), edgeAt(i - 1))) {
+					break;
+				}
+				int j = position[y];
+				if (!owns(j)) {
+					blocked = true;
+					continue;
+				}
+				// New edge (a, y) replaces (a, successor of a)
+				if (i + 1 < n && dy < edge[i]) {
+					if (j > i + 1) {
+						if (owns(i) && owns(j + 1)) {
+							double gain = edge[i] + edgeAt(j) - dy
+									- distanceAt(i + 1, j + 1);
+							if (gain > EPSILON) {
+								reverse(i + 1, j);
+								return 1;
+							}
+						} else {
+							blocked = true;
+						}
+					} else if (j < i) {
+						if (owns(i + 1)) {
+							double gain = edge[j] + edge[i] - dy
+									- distanceAt(j + 1, i + 1);
+							if (gain > EPSILON) {
+								reverse(j + 1, i);
+								return 1;
+							}
+						} else {
+							blocked = true;
+						}
+					}
+				}
+				// New edge (y, a) replaces (predecessor of a, a)
+				if (i > 0 && dy < edge[i - 1]) {
+					if (j < i - 1) {
+						if (owns(j - 1) && owns(i)) {
+							double gain = edgeAt(j - 1) + edge[i - 1] - dy
+									- distanceAt(j - 1, i - 1);
+							if (gain > EPSILON) {
+								reverse(j, i - 1);
+								return 1;
+							}
+						} else {
+							blocked = true;
+						}
+					} else if (j > i) {
+						if (owns(i - 1)) {
+							double gain = edge[i - 1] + edge[j - 1] - dy
+									- distanceAt(i - 1, j - 1);
+							if (gain > EPSILON) {
+								reverse(i, j - 1);
+								return 1;
+							}
+						} else {
+							blocked = true;
+						}
+					}
+				}
+			}
+			return blocked ? -1 : 0;
+		}
+
+		/**
+		 * Tries to move a chain starting or ending at a next to one of the
+		 * candidates of a.
+		 *
+		 * @return 1 if a move was applied, -1 if an improving move might
+		 *         exist outside the segment, 0 otherwise
+		 */
+		private int improveOrOpt(int a) {
+			int i = position[a];
+			boolean blocked = false;
+			for (int length = 1; length <= maxChainLength; length++) {
+				for (int side = 0; side < 2; side++) {
+					if (length == 1 && side == 1) {
+						continue;
+					}
+					int s = side == 0 ? i : i - length + 1;
+					int e = s + length - 1;
+					if (s < 0 || e >= n) {
+						continue;
+					}
+					if (!owns(s - 1) || !owns(e + 1)) {
+						blocked = true;
+						continue;
+					}
+					double removed = edgeAt(s - 1) + edgeAt(e)
+							- distanceAt(s - 1, e + 1);
+					int to = candidates.rowPointers[a + 1];
+					for (int c = candidates.rowPointers[a]; c < to; c++) {
+						double dy = candidates.distances[c];
+						if (dy >= removed) {
+							break;
+						}
+						int j = position[candidates.neighbours[c]];
+						if (j >= s - 1 && j <= e + 1) {
+							continue;
+						}
+						if (!owns(j - 1) || !owns(j + 1)) {
+							blocked = true;
+							continue;
+						}
+						// Gap after y: the chain has to start with a
+						boolean reversed = side == 1;
+						if (tryChainMove(s, e, j, reversed, removed)) {
+							return 1;
+						}
+						// Gap before y: the chain has to end with a
+						if (tryChainMove(s, e, j - 1, !reversed, removed)) {
+							return 1;
+						}
+					}
+				}
+			}
+			return blocked ? -1 : 0;
+		}
+
+		private boolean tryChainMove(int s, int e, int g, boolean reversed,
+				double removed) {
+			if (g >= s - 1 && g <= e) {
+				return false;
+			}
+			int first = reversed ? e : s;
+			int last = reversed ? s : e;
+			double added = distanceAt(g, first) + distanceAt(last, g + 1)
+					- edgeAt(g);
+			if (removed - added > EPSILON) {
+				moveChain(s, e, g, reversed);
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Reverses the subpath between two positions (inclusive).
+		 */
+		private void reverse(int s, int e) {
+			for (int p = s, q = e; p < q; p++, q--) {
+				int tmp = path[p];
+				path[p] = path[q];
+				path[q] = tmp;
+				position[path[p]] = p;
+				position[path[q]] = q;
+			}
+			for (int p = s, q = e - 1; p < q; p++, q--) {
+				double tmp = edge[p];
+				edge[p] = edge[q];
+				edge[q] = tmp;
+			}
+			if (s > 0) {
+				edge[s - 1] = distance(path[s - 1], path[s]);
+			}
+			if (e < n - 1) {
+				edge[e] = distance(path[e], path[e + 1]);
+			}
+			nMoves++;
+			wake(s - 1);
+			wake(s);
+			wake(e);
+			wake(e + 1);
+		}
+
+		/**
+		 * Moves the chain between positions s and e into the gap after
+		 * position g.
+		 */
+		private void moveChain(int s, int e, int g, boolean reversed) {
+			int length = e - s + 1;
+			int[] chain = new int[length];
+			double[] chainEdges = new double[length - 1];
+			for (int p = 0; p < length; p++) {
+				chain[p] = path[reversed ? e - p : s + p];
+			}
+			for (int p = 0; p < length - 1; p++) {
+				chainEdges[p] = edge[reversed ? e - 1 - p : s + p];
+			}
+			int from;
+			int to;
+			if (g > e) {
+				// Shift (e, g] to the left
+				for (int p = e + 1; p <= g; p++) {
+					path[p - length] = path[p];
+					position[path[p - length]] = p - length;
+				}
+				for (int p = e + 1; p < g; p++) {
+					edge[p - length] = edge[p];
+				}
+				from = g - length + 1;
+				to = g;
+			} else {
+				// Shift (g, s) to the right
+				for (int p = s - 1; p > g; p--) {
+					path[p + length] = path[p];
+					position[path[p + length]] = p + length;
+				}
+				for (int p = s - 2; p > g; p--) {
+					edge[p + length] = edge[p];
+				}
+				from = g + 1;
+				to = g + length;
+			}
+			for (int p = 0; p < length; p++) {
+				path[from + p] = chain[p];
+				position[chain[p]] = from + p;
+			}
+			for (int p = 0; p < length - 1; p++) {
+				edge[from + p] = chainEdges[p];
+			}
+			// Recompute the edges at the three junctions that changed
+			int[] junctions = g > e ? new int[] { s - 1, from - 1, to }
+					: new int[] { from - 1, to, e };
+			for (int p : junctions) {
+				if (p >= 0 && p < n - 1) {
+					edge[p] = distance(path[p], path[p + 1]);
+				}
+			}
+			nMoves++;
+			for (int p : junctions) {
+				wake(p);
+				wake(p + 1);
+			}
+		}
+	}
+
+	public int getnNeighbours() {
+		return nNeighbours;
+	}
+
+	public void setnNeighbours(int nNeighbours) {
+		this.nNeighbours = nNeighbours;
+	}
+
+	public int getMaxChainLength() {
+		return maxChainLength;
+	}
+
+	public void setMaxChainLength(int maxChainLength) {
+		this.maxChainLength = maxChainLength;
+	}
+
+	public int getMaxRounds() {
+		return maxRounds;
+	}
+
+	/**
+	 * Sets the iteration budget. A round is one parallel pass over all
+	 * segments.
+	 *
+	 * @param maxRounds
+	 *            the maximum number of rounds
+	 */
+	public void setMaxRounds(int maxRounds) {
+		this.maxRounds = maxRounds;
+	}
+
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+
+	/**
+	 * Sets the time budget. It covers building the candidate neighbours, if
+	 * the linear order has no kNN graph of the path, as well as the moves.
+	 *
+	 * @param timeLimit
+	 *            the time limit in milliseconds, zero for no limit
+	 */
+	public void setTimeLimit(long timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+
+	public int getnThreads() {
+		return nThreads;
+	}
+
+	public void setnThreads(int nThreads) {
+		this.nThreads = nThreads;
+	}
+
+	private void print(String message) {
+		if (linearOrder.isVerbose()) {
+			System.out.println(message);
+		}
+	}
+
+}
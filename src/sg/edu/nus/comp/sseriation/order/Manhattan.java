@@ -20,19 +20,18 @@ package sg.edu.nus.comp.sseriation.order;
 
 import java.io.IOException;
 
-import sg.edu.nus.comp.sseriation.util.SparseVector;
-
+/**
+ * A distributional order under ManhattanDistance.
+ */
 public class Manhattan extends DistributionalOrder {
 
-	private static final String MODEL_NAME="manh";
-
 	public Manhattan(String filename, boolean isTransposed) throws IOException {
-		super(filename, MODEL_NAME, isTransposed);
+		super(filename, new ManhattanDistance(), isTransposed);
 	}
-	
-	@Override
-	protected double getDistance(int x, int y) {
-		return SparseVector.manhattan(mx[x], mx[y]);
+
+	public Manhattan(String filename, boolean isTransposed, storageTypes storage)
+			throws IOException {
+		super(filename, new ManhattanDistance(), isTransposed, storage);
 	}
 
 }
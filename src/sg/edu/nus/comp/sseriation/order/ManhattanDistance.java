@@ -0,0 +1,63 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import sg.edu.nus.comp.sseriation.util.DenseMatrix;
+import sg.edu.nus.comp.sseriation.util.OffHeapMatrix;
+import sg.edu.nus.comp.sseriation.util.SparseVector;
+import sg.edu.nus.comp.sseriation.util.VectorNode;
+
+public class ManhattanDistance implements Distance {
+
+	@Override
+	public String getName() {
+		return "Manhattan";
+	}
+
+	@Override
+	public String getModel() {
+		return "manh";
+	}
+
+	@Override
+	public Set<capabilities> getCapabilities() {
+		return EnumSet.of(capabilities.metric, capabilities.dense,
+				capabilities.offHeap);
+	}
+
+	@Override
+	public double distance(VectorNode[][] mx, RowNorms norms, int x, int y,
+			int nDimensions) {
+		return SparseVector.manhattan(mx[x], mx[y]);
+	}
+
+	@Override
+	public double distance(DenseMatrix mx, int x, int y, int nDimensions) {
+		return SparseVector.manhattan(mx, x, y);
+	}
+
+	@Override
+	public double distance(OffHeapMatrix mx, int x, int y, int nDimensions) {
+		return SparseVector.manhattan(mx, x, y);
+	}
+
+}
@@ -0,0 +1,267 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import sg.edu.nus.comp.sseriation.util.Events;
+import sg.edu.nus.comp.sseriation.util.Metrics;
+import sg.edu.nus.comp.sseriation.util.Utilities;
+
+/**
+ * Multi-start variant of the left-right heuristic. The heuristic is run from
+ * several seeds concurrently, each run with its own remaining set and order,
+ * and the order with the lowest sum of consecutive distances is kept.
+ */
+public class MultiStart {
+
+	public enum seedingTypes {
+		sampled, medoid, user
+	};
+
+	/** The number of reference elements a medoid candidate is scored on. */
+	private static final int MEDOID_REFERENCE_SIZE = 64;
+
+	private LinearOrder linearOrder;
+	private int nStarts = 4;
+	private seedingTypes seeding = seedingTypes.medoid;
+	private int[] seeds;
+	private long randomSeed = 0;
+	private int nThreads;
+
+	/**
+	 * Instantiates a new multi-start run over a linear order.
+	 *
+	 * @param linearOrder
+	 *            the linear order, it receives the best order found
+	 */
+	public MultiStart(LinearOrder linearOrder) {
+		this.linearOrder = linearOrder;
+		nThreads = linearOrder.getnThreads();
+	}
+
+	/**
+	 * Runs the left-right heuristic from every seed and sets the best order
+	 * on the linear order.
+	 *
+	 * @return the sum of consecutive distances of the best order
+	 */
+	public double generateOrderLeftRight() throws IOException {
+		int[] allElements = linearOrder.getElements();
+		ArrayList<Integer> elements = new ArrayList<Integer>();
+		for (int i = 0; i < allElements.length; i++) {
+			elements.add(allElements[i]);
+		}
+		final KnnGraph knnGraph = linearOrder.getKnnGraph() != null
+				&& linearOrder.getKnnGraph().covers(allElements) ? linearOrder
+				.getKnnGraph() : null;
+		if (elements.size() < 3) {
+			linearOrder.generateOrderLeftRight();
+			return linearOrder.calculateSumOfDistances();
+		}
+		Metrics metrics = linearOrder.getMetrics();
+		Metrics.Timer timer = metrics.getTimer(Metrics.phases.construction);
+		long start = timer.start();
+		Events.Heuristic event = linearOrder
+				.startHeuristicEvent("multistart");
+		Metrics.Timer seedTimer = metrics.getTimer(Metrics.phases.seed);
+		long seedStart = seedTimer.start();
+		int[] startSeeds = findSeeds(elements);
+		seedTimer.stop(seedStart);
+		print("Generating order from " + startSeeds.length
+				+ " seeds...");
+		ExecutorService executor = Utilities.newFixedThreadPool(Math.min(
+				nThreads, startSeeds.length));
+		List<Future<PathConstruction>> futures = new ArrayList<Future<PathConstruction>>();
+		for (int i = 0; i < startSeeds.length; i++) {
+			final int seed = startSeeds[i];
+			final HashSet<Integer> remainingElements = new HashSet<Integer>(
+					elements);
+			futures.add(executor.submit(new Callable<PathConstruction>() {
+				@Override
+				public PathConstruction call() throws IOException {
+					PathConstruction construction = new PathConstruction(
+							linearOrder, remainingElements,
+							new ArrayList<Integer>(), knnGraph, null, false,
+							linearOrder.newProgressTracker("leftright",
+									remainingElements.size(), true));
+					construction.generateLeftRight(seed);
+					return construction;
+				}
+			}));
+		}
+		PathConstruction best = null;
+		double min = Double.POSITIVE_INFINITY;
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				PathConstruction construction = futures.get(i).get();
+				double sum = construction.calculateSumOfDistances();
+				print("Seed " + startSeeds[i]
+						+ ": sum of distances " + sum);
+				if (sum < min) {
+					min = sum;
+					best = construction;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof CancellationException) {
+				for (int i = 0; i < futures.size(); i++) {
+					futures.get(i).cancel(true);
+				}
+				throw (CancellationException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		linearOrder.setOrder(best.getOrder());
+		linearOrder.remainingElements.clear();
+		timer.stop(start);
+		linearOrder.commitHeuristicEvent(event);
+		return min;
+	}
+
+	/**
+	 * Chooses the seeds of the runs.
+	 *
+	 * @param elements
+	 *            the elements to order
+	 * @return the seeds
+	 */
+	private int[] findSeeds(ArrayList<Integer> elements) {
+		if (seeding == seedingTypes.user) {
+			if (seeds == null || seeds.length == 0) {
+				throw new IllegalArgumentException(
+						"User seeding requires at least one seed.");
+			}
+			HashSet<Integer> valid = new HashSet<Integer>(elements);
+			for (int i = 0; i < seeds.length; i++) {
+				if (!valid.contains(seeds[i])) {
+					throw new IllegalArgumentException("Seed " + seeds[i]
+							+ " is not an element of the order.");
+				}
+			}
+			return seeds.clone();
+		}
+		int k = Math.min(nStarts, elements.size());
+		Random random = new Random(randomSeed);
+		ArrayList<Integer> shuffled = new ArrayList<Integer>(elements);
+		Collections.shuffle(shuffled, random);
+		if (seeding == seedingTypes.sampled) {
+			int[] result = new int[k];
+			for (int i = 0; i < k; i++) {
+				result[i] = shuffled.get(i);
+			}
+			return result;
+		}
+		return findMedoidSeeds(shuffled, k, random);
+	}
+
+	/**
+	 * Medoid-like seeds: a sample of candidates is scored by the sum of their
+	 * distances to a random reference sample, and the k most central
+	 * candidates are returned.
+	 */
+	private int[] findMedoidSeeds(ArrayList<Integer> shuffled, int k,
+			Random random) {
+		int nCandidates = Math.min(shuffled.size(), 4 * k);
+		int nReferences = Math.min(shuffled.size(), MEDOID_REFERENCE_SIZE);
+		ArrayList<Integer> references = new ArrayList<Integer>(shuffled);
+		Collections.shuffle(references, random);
+		final double[] score = new double[nCandidates];
+		ArrayList<Integer> candidates = new ArrayList<Integer>();
+		for (int i = 0; i < nCandidates; i++) {
+			int x = shuffled.get(i);
+			for (int j = 0; j < nReferences; j++) {
+				score[i] += linearOrder.getDistance(x, references.get(j));
+			}
+			candidates.add(i);
+		}
+		Collections.sort(candidates, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(score[a], score[b]);
+			}
+		});
+		int[] result = new int[k];
+		for (int i = 0; i < k; i++) {
+			result[i] = shuffled.get(candidates.get(i));
+		}
+		return result;
+	}
+
+	public int getnStarts() {
+		return nStarts;
+	}
+
+	public void setnStarts(int nStarts) {
+		this.nStarts = nStarts;
+	}
+
+	public seedingTypes getSeeding() {
+		return seeding;
+	}
+
+	public void setSeeding(seedingTypes seeding) {
+		this.seeding = seeding;
+	}
+
+	/**
+	 * Sets user-specified seeds and switches to user seeding.
+	 *
+	 * @param seeds
+	 *            the elements to start the runs from
+	 */
+	public void setSeeds(int[] seeds) {
+		this.seeds = seeds;
+		this.seeding = seedingTypes.user;
+	}
+
+	public void setRandomSeed(long randomSeed) {
+		this.randomSeed = randomSeed;
+	}
+
+	public void setnThreads(int nThreads) {
+		this.nThreads = nThreads;
+	}
+
+	private void print(String message) {
+		if (linearOrder.isVerbose()) {
+			System.out.println(message);
+		}
+	}
+
+}
@@ -20,31 +20,30 @@ package sg.edu.nus.comp.sseriation.order;
 
 import java.io.IOException;
 
-import sg.edu.nus.comp.sseriation.util.SparseVector;
-
+/**
+ * A distributional order under MutualInformationDistance, over rows binned
+ * when they are read.
+ */
 public class MutualInformation extends DistributionalOrder {
 
-	private int nBins = 100;
-	
-	private static final String MODEL_NAME="muti";
-	
 	public MutualInformation(String filename, boolean isTransposed)
 			throws IOException {
-		super(filename, MODEL_NAME, isTransposed);
-		mx = SparseVector.binify(mx, nBins);
+		super(filename, new MutualInformationDistance(), isTransposed);
 	}
 
-	@Override
-	protected double getDistance(int x, int y) {
-		return SparseVector.mutualInformationMetric(mx[x], mx[y], nBins, nDimensions);
-	}
-	
 	public int getnBins() {
-		return nBins;
+		return ((MutualInformationDistance) distance).getnBins();
 	}
 
+	/**
+	 * Sets the number of bins of the distance. The rows stay binned as they
+	 * were read.
+	 * 
+	 * @param nBins
+	 *            the number of bins
+	 */
 	public void setnBins(int nBins) {
-		this.nBins = nBins;
+		distance = new MutualInformationDistance(nBins);
 	}
 
 }
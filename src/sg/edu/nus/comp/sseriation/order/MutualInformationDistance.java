@@ -0,0 +1,81 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import sg.edu.nus.comp.sseriation.util.DenseMatrix;
+import sg.edu.nus.comp.sseriation.util.SparseVector;
+import sg.edu.nus.comp.sseriation.util.VectorNode;
+
+/**
+ * The variation of information of the binned rows, which the rows are
+ * binned for when they are read. It has no off-heap kernel.
+ */
+public class MutualInformationDistance implements Distance {
+
+	private int nBins;
+
+	public MutualInformationDistance() {
+		this(100);
+	}
+
+	public MutualInformationDistance(int nBins) {
+		this.nBins = nBins;
+	}
+
+	@Override
+	public String getName() {
+		return "MutualInformation";
+	}
+
+	@Override
+	public String getModel() {
+		return "muti";
+	}
+
+	@Override
+	public Set<capabilities> getCapabilities() {
+		return EnumSet.of(capabilities.metric, capabilities.dense);
+	}
+
+	@Override
+	public VectorNode[][] prepare(VectorNode[][] mx) {
+		return SparseVector.binify(mx, nBins);
+	}
+
+	@Override
+	public double distance(VectorNode[][] mx, RowNorms norms, int x, int y,
+			int nDimensions) {
+		return SparseVector.mutualInformationMetric(mx[x], mx[y], nBins,
+				nDimensions);
+	}
+
+	@Override
+	public double distance(DenseMatrix mx, int x, int y, int nDimensions) {
+		return SparseVector.mutualInformationMetric(mx, x, y, nBins,
+				nDimensions);
+	}
+
+	public int getnBins() {
+		return nBins;
+	}
+
+}
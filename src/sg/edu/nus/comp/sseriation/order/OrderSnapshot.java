@@ -0,0 +1,241 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable version of an order. The elements are kept in a persistent
+ * balanced tree indexed by position, so inserting an element gives a new
+ * version in logarithmic time that shares all but one path of nodes with the
+ * old one. Versions can be read from any thread without locking, while the
+ * single thread that updates the order publishes the next ones.
+ */
+public final class OrderSnapshot extends AbstractList<Integer> {
+
+	/** The empty order before anything is published. */
+	public static final OrderSnapshot EMPTY = new OrderSnapshot(null, 0);
+
+	private final Node root;
+	private final long version;
+
+	private static final class Node {
+		final int element;
+		final Node left;
+		final Node right;
+		final int size;
+		final int height;
+
+		Node(int element, Node left, Node right) {
+			this.element = element;
+			this.left = left;
+			this.right = right;
+			this.size = size(left) + size(right) + 1;
+			this.height = Math.max(height(left), height(right)) + 1;
+		}
+	}
+
+	private OrderSnapshot(Node root, long version) {
+		this.root = root;
+		this.version = version;
+	}
+
+	/**
+	 * Creates a snapshot of the elements of a list.
+	 * 
+	 * @param order
+	 *            the elements in order
+	 * @param version
+	 *            the version of the snapshot
+	 * @return the snapshot
+	 */
+	public static OrderSnapshot of(List<Integer> order, long version) {
+		int[] elements = new int[order.size()];
+		for (int i = 0; i < elements.length; i++) {
+			elements[i] = order.get(i);
+		}
+		return new OrderSnapshot(build(elements, 0, elements.length), version);
+	}
+
+	/**
+	 * Inserts an element, leaving this snapshot unchanged.
+	 * 
+	 * @param index
+	 *            the position of the element in the new snapshot
+	 * @param element
+	 *            the element
+	 * @return the snapshot of the next version
+	 */
+	public OrderSnapshot insert(int index, int element) {
+		if (index < 0 || index > size()) {
+			throw new IndexOutOfBoundsException("Index " + index
+					+ " out of bounds for size " + size());
+		}
+		return new OrderSnapshot(insert(root, index, element), version + 1);
+	}
+
+	/**
+	 * Gets the version, which grows by one with every insertion and
+	 * publication.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	@Override
+	public int size() {
+		return size(root);
+	}
+
+	@Override
+	public Integer get(int index) {
+		return getInt(index);
+	}
+
+	/**
+	 * Gets the element at a position without boxing it.
+	 */
+	public int getInt(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index " + index
+					+ " out of bounds for size " + size());
+		}
+		Node node = root;
+		while (true) {
+			int leftSize = size(node.left);
+			if (index < leftSize) {
+				node = node.left;
+			} else if (index > leftSize) {
+				index -= leftSize + 1;
+				node = node.right;
+			} else {
+				return node.element;
+			}
+		}
+	}
+
+	/**
+	 * Copies the elements in order into an array.
+	 * 
+	 * @param offset
+	 *            the offset added to every element
+	 * @return the elements plus the offset
+	 */
+	public int[] toIntArray(int offset) {
+		int[] result = new int[size()];
+		int i = 0;
+		for (Iterator<Integer> iter = iterator(); iter.hasNext();) {
+			result[i++] = iter.next() + offset;
+		}
+		return result;
+	}
+
+	@Override
+	public Iterator<Integer> iterator() {
+		return new Iterator<Integer>() {
+			// The path to the next node, as a stack
+			private Node[] path = new Node[height(root) + 1];
+			private int depth = 0;
+			{
+				pushLeft(root);
+			}
+
+			private void pushLeft(Node node) {
+				while (node != null) {
+					path[depth++] = node;
+					node = node.left;
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				return depth > 0;
+			}
+
+			@Override
+			public Integer next() {
+				if (depth == 0) {
+					throw new NoSuchElementException();
+				}
+				Node node = path[--depth];
+				pushLeft(node.right);
+				return node.element;
+			}
+		};
+	}
+
+	private static int size(Node node) {
+		return node == null ? 0 : node.size;
+	}
+
+	private static int height(Node node) {
+		return node == null ? 0 : node.height;
+	}
+
+	private static Node build(int[] elements, int from, int to) {
+		if (from >= to) {
+			return null;
+		}
+		int middle = (from + to) >>> 1;
+		return new Node(elements[middle], build(elements, from, middle),
+				build(elements, middle + 1, to));
+	}
+
+	/**
+	 * Inserts by copying the path from the root, rebalanced as an AVL tree.
+	 */
+	private static Node insert(Node node, int index, int element) {
+		if (node == null) {
+			return new Node(element, null, null);
+		}
+		int leftSize = size(node.left);
+		if (index <= leftSize) {
+			return balance(node.element, insert(node.left, index, element),
+					node.right);
+		}
+		return balance(node.element, node.left,
+				insert(node.right, index - leftSize - 1, element));
+	}
+
+	private static Node balance(int element, Node left, Node right) {
+		if (height(left) > height(right) + 1) {
+			if (height(left.left) >= height(left.right)) {
+				return new Node(left.element, left.left, new Node(element,
+						left.right, right));
+			}
+			return new Node(left.right.element, new Node(left.element,
+					left.left, left.right.left), new Node(element,
+					left.right.right, right));
+		}
+		if (height(right) > height(left) + 1) {
+			if (height(right.right) >= height(right.left)) {
+				return new Node(right.element, new Node(element, left,
+						right.left), right.right);
+			}
+			return new Node(right.left.element, new Node(element, left,
+					right.left.left), new Node(right.element,
+					right.left.right, right.right));
+		}
+		return new Node(element, left, right);
+	}
+
+}
@@ -0,0 +1,251 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * The state of a single run of the left-right heuristic: the elements that
+ * are not placed yet and the order built so far. The distances are taken
+ * from a linear order that is only read, so several constructions can run
+ * concurrently over the same matrix.
+ */
+class PathConstruction {
+
+	private class minObject {
+		public double min;
+		public int argmin;
+
+		minObject(double min, int argmin) {
+			this.min = min;
+			this.argmin = argmin;
+		}
+	}
+
+	private LinearOrder linearOrder;
+	private HashSet<Integer> remainingElements;
+	private ArrayList<Integer> order;
+	private KnnGraph knnGraph;
+	private String checkpointFilename;
+	private boolean verbose;
+	private ProgressTracker tracker;
+	private RowSketch.Shortlist shortlist;
+
+	/**
+	 * Instantiates a new construction.
+	 *
+	 * @param linearOrder
+	 *            the linear order providing the distances
+	 * @param remainingElements
+	 *            the elements to place, modified by the construction
+	 * @param order
+	 *            the order computed so far, modified by the construction
+	 * @param knnGraph
+	 *            the kNN graph of all elements, or null
+	 * @param checkpointFilename
+	 *            the file recording every placed element, or null
+	 * @param verbose
+	 *            whether to print the phases
+	 * @param tracker
+	 *            the tracker of the progress, or null
+	 */
+	PathConstruction(LinearOrder linearOrder,
+			HashSet<Integer> remainingElements, ArrayList<Integer> order,
+			KnnGraph knnGraph, String checkpointFilename, boolean verbose,
+			ProgressTracker tracker) {
+		this.linearOrder = linearOrder;
+		this.remainingElements = remainingElements;
+		this.order = order;
+		this.knnGraph = knnGraph;
+		this.checkpointFilename = checkpointFilename;
+		this.verbose = verbose;
+		this.tracker = tracker;
+	}
+
+	/**
+	 * Finds the next candidate from the remaining set of elements that has the
+	 * minimum distance to one end of the order computed so far. The nearest
+	 * remaining neighbour in the kNN graph is the nearest remaining element,
+	 * so the full scan is only needed once all neighbours of x are placed.
+	 * With a sketch, the scan estimates the distances and computes the exact
+	 * ones only on the shortlist.
+	 *
+	 * @param x
+	 *            the current left or right element
+	 * @return the optimal element and its distance from x
+	 */
+	private minObject findNextCandidate(int x) {
+		if (knnGraph != null) {
+			int to = knnGraph.rowPointers[x + 1];
+			for (int p = knnGraph.rowPointers[x]; p < to; p++) {
+				if (remainingElements.contains(knnGraph.neighbours[p])) {
+					return new minObject(knnGraph.distances[p],
+							knnGraph.neighbours[p]);
+				}
+			}
+		}
+		RowSketch sketch = linearOrder.getSketch();
+		if (sketch != null
+				&& remainingElements.size() > linearOrder.getShortlistSize()) {
+			return findNextCandidateSketched(x, sketch);
+		}
+		double min = Integer.MAX_VALUE;
+		int argmin = -1;
+		for (Iterator<Integer> iter = remainingElements.iterator(); iter
+				.hasNext();) {
+			int tmpi = iter.next();
+			double tmpd = linearOrder.getDistance(x, tmpi);
+			if (tmpd < min) {
+				argmin = tmpi;
+				min = tmpd;
+			}
+		}
+		minObject result = new minObject(min, argmin);
+		return result;
+	}
+
+	private minObject findNextCandidateSketched(int x, RowSketch sketch) {
+		if (shortlist == null) {
+			shortlist = new RowSketch.Shortlist(linearOrder.getShortlistSize());
+		}
+		shortlist.clear();
+		for (Iterator<Integer> iter = remainingElements.iterator(); iter
+				.hasNext();) {
+			int y = iter.next();
+			shortlist.offer(y, sketch.estimateDistance(x, y));
+		}
+		double min = Integer.MAX_VALUE;
+		int argmin = -1;
+		for (int i = 0; i < shortlist.size(); i++) {
+			int y = shortlist.get(i);
+			double d = linearOrder.getDistance(x, y);
+			if (d < min) {
+				argmin = y;
+				min = d;
+			}
+		}
+		return new minObject(min, argmin);
+	}
+
+	/**
+	 * Generates the order by the left-right heuristic. If the order is
+	 * empty, the seed and its two nearest elements start the path.
+	 *
+	 * @param seed
+	 *            the first element of the path
+	 */
+	void generateLeftRight(int seed) throws IOException {
+		// Only kept for the progress, a resumed path starts from zero
+		double pathLength = 0;
+		if (order.size() == 0) {
+			order.add(seed);
+			remainingElements.remove(seed);
+			checkpoint(seed);
+			print("Finding left seed...");
+			minObject tl = findNextCandidate(seed);
+			remainingElements.remove(tl.argmin);
+			order.add(0, tl.argmin);
+			checkpoint(tl.argmin);
+			print("Finding right seed...");
+			minObject tr = findNextCandidate(seed);
+			remainingElements.remove(tr.argmin);
+			order.add(tr.argmin);
+			checkpoint(tr.argmin);
+			pathLength = tl.min + tr.min;
+		}
+		print("Generating order...");
+		minObject tlMinObject = findNextCandidate(order.get(0));
+		minObject trMinObject = findNextCandidate(order.get(order.size() - 1));
+		boolean changeLeft = false;
+		boolean changeRight = false;
+		while (!remainingElements.isEmpty()) {
+			if (changeLeft) {
+				tlMinObject = findNextCandidate(order.get(0));
+				changeLeft = false;
+			}
+			if (changeRight) {
+				trMinObject = findNextCandidate(order.get(order.size() - 1));
+				changeRight = false;
+			}
+			if (tlMinObject.min <= trMinObject.min && tlMinObject.argmin != -1) {
+				remainingElements.remove(tlMinObject.argmin);
+				order.add(0, tlMinObject.argmin);
+				checkpoint(tlMinObject.argmin);
+				pathLength += tlMinObject.min;
+				changeLeft = true;
+			} else if (trMinObject.argmin != -1) {
+				remainingElements.remove(trMinObject.argmin);
+				order.add(trMinObject.argmin);
+				checkpoint(trMinObject.argmin);
+				pathLength += trMinObject.min;
+				changeRight = true;
+			}
+			if (trMinObject.argmin == tlMinObject.argmin) {
+				changeLeft = true;
+				changeRight = true;
+			}
+			if (tracker != null) {
+				tracker.step(order.size(), pathLength);
+			}
+			if (trMinObject.argmin == -1 && tlMinObject.argmin == -1) {
+				break;
+			}
+		}
+		if (tracker != null) {
+			tracker.finish(order.size(), pathLength);
+		}
+	}
+
+	ArrayList<Integer> getOrder() {
+		return order;
+	}
+
+	/**
+	 * Calculates the length of the path built so far.
+	 *
+	 * @return the sum of consecutive distances
+	 */
+	double calculateSumOfDistances() {
+		double result = 0;
+		for (int i = 0; i < order.size() - 1; i++) {
+			result += linearOrder.getDistance(order.get(i), order.get(i + 1));
+		}
+		return result;
+	}
+
+	private void checkpoint(int x) throws IOException {
+		if (checkpointFilename != null) {
+			FileWriter out = new FileWriter(new File(checkpointFilename), true);
+			out.write(x + "\n");
+			out.close();
+		}
+	}
+
+	private void print(String message) {
+		if (verbose) {
+			System.out.println(message);
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+/**
+ * The progress of a run of a construction heuristic.
+ */
+public class Progress {
+
+	private String heuristic;
+	private int placed;
+	private int total;
+	private double pathLength;
+	private long elapsedMillis;
+	private long remainingMillis;
+
+	Progress(String heuristic, int placed, int total, double pathLength,
+			long elapsedMillis, long remainingMillis) {
+		this.heuristic = heuristic;
+		this.placed = placed;
+		this.total = total;
+		this.pathLength = pathLength;
+		this.elapsedMillis = elapsedMillis;
+		this.remainingMillis = remainingMillis;
+	}
+
+	public String getHeuristic() {
+		return heuristic;
+	}
+
+	/**
+	 * Gets the number of elements placed by the run.
+	 */
+	public int getPlaced() {
+		return placed;
+	}
+
+	/**
+	 * Gets the number of elements the run places.
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * Gets the sum of distances of the path built so far.
+	 */
+	public double getPathLength() {
+		return pathLength;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * Gets the estimated time to completion, -1 before there is an estimate.
+	 */
+	public long getRemainingMillis() {
+		return remainingMillis;
+	}
+
+	@Override
+	public String toString() {
+		String result = heuristic + ": " + placed + "/" + total;
+		if (remainingMillis >= 0) {
+			result += ", " + (remainingMillis + 999) / 1000 + " s left";
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,47 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+/**
+ * Receives the progress of the construction heuristics and may cancel them.
+ * The heuristics report at most once per report interval of the order, and
+ * ask for cancellation at the same time, so neither needs to be fast. The
+ * runs of the multi-start heuristic report concurrently, each with its own
+ * progress.
+ */
+public interface ProgressListener {
+
+	/**
+	 * Receives the progress of a heuristic.
+	 * 
+	 * @param progress
+	 *            the progress
+	 */
+	void progress(Progress progress);
+
+	/**
+	 * Tells whether the heuristic should stop. A stopped heuristic throws a
+	 * CancellationException and leaves the elements placed so far in the
+	 * order.
+	 * 
+	 * @return true to cancel
+	 */
+	boolean isCancelled();
+
+}
@@ -0,0 +1,123 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Throttles the progress of a run for its listener and enforces its
+ * cancellation and deadline. A run without listener and deadline has no
+ * tracker, so it pays nothing.
+ *
+ * Every step of the left-right heuristic scans the remaining elements and
+ * every step of the insert heuristic the placed ones, so the work done grows
+ * quadratically with the steps, and the time to completion is extrapolated
+ * accordingly.
+ */
+class ProgressTracker {
+
+	private ProgressListener listener;
+	private String heuristic;
+	private int total;
+	private boolean scansRemaining;
+	private boolean hasDeadline;
+	private long deadline;
+	private long reportInterval;
+	private long startTime;
+	private long nextReport;
+
+	/**
+	 * Instantiates a new tracker and starts the clock.
+	 * 
+	 * @param listener
+	 *            the listener, or null to enforce the deadline only
+	 * @param heuristic
+	 *            the name of the heuristic
+	 * @param total
+	 *            the number of elements the run places
+	 * @param scansRemaining
+	 *            whether every step scans the remaining elements rather than
+	 *            the placed ones
+	 * @param deadline
+	 *            the deadline in System.currentTimeMillis, or 0 for none
+	 * @param reportInterval
+	 *            the minimum time between two reports in nanoseconds
+	 */
+	ProgressTracker(ProgressListener listener, String heuristic, int total,
+			boolean scansRemaining, long deadline, long reportInterval) {
+		this.listener = listener;
+		this.heuristic = heuristic;
+		this.total = total;
+		this.scansRemaining = scansRemaining;
+		this.reportInterval = reportInterval;
+		startTime = System.nanoTime();
+		hasDeadline = deadline > 0;
+		this.deadline = startTime + (deadline - System.currentTimeMillis())
+				* 1000000;
+		nextReport = startTime + reportInterval;
+	}
+
+	/**
+	 * Records a step of the run, and reports it if the report interval
+	 * passed.
+	 * 
+	 * @param placed
+	 *            the number of elements placed so far
+	 * @param pathLength
+	 *            the length of the path so far, or NaN
+	 * @throws CancellationException
+	 *             if the listener cancelled the run or the deadline passed
+	 */
+	void step(int placed, double pathLength) {
+		long now = System.nanoTime();
+		if (hasDeadline && now - deadline >= 0) {
+			throw new CancellationException(heuristic + " heuristic ran past"
+					+ " its deadline with " + placed + " of " + total
+					+ " elements placed");
+		}
+		if (listener == null || now - nextReport < 0) {
+			return;
+		}
+		nextReport = now + reportInterval;
+		report(placed, pathLength, now);
+	}
+
+	/**
+	 * Reports the end of the run.
+	 */
+	void finish(int placed, double pathLength) {
+		if (listener != null) {
+			report(placed, pathLength, System.nanoTime());
+		}
+	}
+
+	private void report(int placed, double pathLength, long now) {
+		if (listener.isCancelled()) {
+			throw new CancellationException(heuristic + " heuristic cancelled"
+					+ " with " + placed + " of " + total + " elements placed");
+		}
+		long elapsed = now - startTime;
+		double done = (double) placed / total;
+		done = scansRemaining ? 1 - (1 - done) * (1 - done) : done * done;
+		long remaining = done > 0 ? (long) (elapsed * (1 - done) / done) : -1;
+		listener.progress(new Progress(heuristic, placed, total, pathLength,
+				elapsed / 1000000, remaining < 0 ? -1 : remaining / 1000000));
+	}
+
+}
@@ -0,0 +1,99 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+import java.util.Arrays;
+
+import sg.edu.nus.comp.sseriation.util.SparseVector;
+import sg.edu.nus.comp.sseriation.util.VectorNode;
+
+/**
+ * The sums and sums of squares of the rows of a sparse matrix, computed once
+ * for the distances that need them in every evaluation.
+ */
+public class RowNorms {
+
+	private double[] sums;
+	private double[] sumSquares;
+
+	/**
+	 * Computes the sums of the rows.
+	 * 
+	 * @param mx
+	 *            the rows, null if empty
+	 */
+	public RowNorms(VectorNode[][] mx) {
+		sums = new double[mx.length];
+		sumSquares = new double[mx.length];
+		for (int i = 0; i < mx.length; i++) {
+			if (mx[i] != null) {
+				sums[i] = SparseVector.sum(mx[i]);
+				sumSquares[i] = SparseVector.sumSquare(mx[i]);
+			}
+		}
+	}
+
+	/**
+	 * Keeps sums computed before, such as those of a saved state.
+	 * 
+	 * @param sums
+	 *            the sums of the rows
+	 * @param sumSquares
+	 *            the sums of squares of the rows
+	 */
+	public RowNorms(double[] sums, double[] sumSquares) {
+		this.sums = sums;
+		this.sumSquares = sumSquares;
+	}
+
+	/**
+	 * Computes the sums of a row again after it changed, with room for it if
+	 * it is new.
+	 * 
+	 * @param x
+	 *            the row
+	 * @param row
+	 *            its entries, null if empty
+	 */
+	public void update(int x, VectorNode[] row) {
+		if (x >= sums.length) {
+			int length = Math.max(2 * sums.length, x + 1);
+			sums = Arrays.copyOf(sums, length);
+			sumSquares = Arrays.copyOf(sumSquares, length);
+		}
+		sums[x] = SparseVector.sum(row);
+		sumSquares[x] = SparseVector.sumSquare(row);
+	}
+
+	public double getSum(int x) {
+		return sums[x];
+	}
+
+	public double getSumSquare(int x) {
+		return sumSquares[x];
+	}
+
+	/**
+	 * Gets the Euclidean norm of a row, as SparseVector.calculateNorm.
+	 */
+	public double getNorm(int x) {
+		return Math.sqrt(sumSquares[x]);
+	}
+
+}
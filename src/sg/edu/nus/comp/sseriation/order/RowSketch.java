@@ -0,0 +1,277 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+import sg.edu.nus.comp.sseriation.util.Kernels;
+import sg.edu.nus.comp.sseriation.util.VectorNode;
+
+/**
+ * A compact in-memory sketch of the rows of a matrix: a random projection of
+ * every row onto a few components. The Euclidean distance of two projections
+ * estimates the Euclidean distance of the rows, so the heuristics can rank
+ * all candidates in memory and compute exact distances, which read the rows,
+ * only on a shortlist of the best ones.
+ *
+ * The projection matrix has random signs, which are hashed from the column
+ * index rather than stored. Cosine-like distances sketch the normalized rows,
+ * correlation-like distances the centered and normalized rows; since those
+ * distances take the absolute value of the similarity, a row is as close to
+ * the negative of another as to the other itself.
+ */
+public class RowSketch {
+
+	public enum sketchTypes {
+		raw, normalized, centered
+	};
+
+	/** The largest number of components, one bit of a hash each. */
+	public static final int MAX_COMPONENTS = 64;
+
+	private int nComponents;
+	private sketchTypes sketchType;
+	private int nDimensions;
+	private long seed;
+	private float scale;
+	/** The projection of the all ones vector, for centering. */
+	private double[] onesProjection;
+	private float[] projections;
+	private int nRows = 0;
+
+	/**
+	 * Instantiates an empty sketch.
+	 *
+	 * @param nComponents
+	 *            the number of components, at most MAX_COMPONENTS
+	 * @param sketchType
+	 *            raw, normalized or centered
+	 * @param nDimensions
+	 *            the dimension the rows are centered in
+	 * @param seed
+	 *            the seed of the random signs
+	 */
+	public RowSketch(int nComponents, sketchTypes sketchType, int nDimensions,
+			long seed) {
+		if (nComponents < 1 || nComponents > MAX_COMPONENTS) {
+			throw new IllegalArgumentException(
+					"The number of sketch components must be between 1 and "
+							+ MAX_COMPONENTS + ".");
+		}
+		this.nComponents = nComponents;
+		this.sketchType = sketchType;
+		this.nDimensions = nDimensions;
+		this.seed = seed;
+		this.scale = (float) (1 / Math.sqrt(nComponents));
+		projections = new float[16 * nComponents];
+		if (sketchType == sketchTypes.centered) {
+			onesProjection = new double[nComponents];
+			for (int c = 0; c < nDimensions; c++) {
+				long signs = signs(c);
+				for (int k = 0; k < nComponents; k++) {
+					onesProjection[k] += (signs >>> k & 1) == 0 ? scale
+							: -scale;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hashes a column index to the signs of its projection, one per bit.
+	 */
+	private long signs(int column) {
+		long h = seed + column * 0x9E3779B97F4A7C15L;
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		return h ^ (h >>> 31);
+	}
+
+	/**
+	 * Adds the next row to the sketch.
+	 *
+	 * @param row
+	 *            the row, or null for an empty row
+	 */
+	public void add(VectorNode[] row) {
+		if ((nRows + 1) * nComponents > projections.length) {
+			float[] newProjections = new float[Math.max(
+					2 * projections.length, (nRows + 1) * nComponents)];
+			System.arraycopy(projections, 0, newProjections, 0, nRows
+					* nComponents);
+			projections = newProjections;
+		}
+		project(row, nRows * nComponents);
+		nRows++;
+	}
+
+	/**
+	 * Sketches a row again after it changed, adding empty rows up to it if it
+	 * is new. Only sketches that are not centered may be updated this way,
+	 * as the centering of every row depends on the dimension.
+	 *
+	 * @param x
+	 *            the row
+	 * @param row
+	 *            its entries, or null for an empty row
+	 */
+	public void set(int x, VectorNode[] row) {
+		while (nRows <= x) {
+			add(null);
+		}
+		project(row, x * nComponents);
+	}
+
+	public sketchTypes getSketchType() {
+		return sketchType;
+	}
+
+	/**
+	 * Projects a row into the projections from an offset on.
+	 */
+	private void project(VectorNode[] row, int offset) {
+		double[] projection = new double[nComponents];
+		double sum = 0;
+		double sumSquare = 0;
+		if (row != null) {
+			for (int i = 0; i < row.length; i++) {
+				long signs = signs(row[i].index);
+				double value = row[i].value * scale;
+				for (int k = 0; k < nComponents; k++) {
+					if ((signs >>> k & 1) == 0) {
+						projection[k] += value;
+					} else {
+						projection[k] -= value;
+					}
+				}
+				sum += row[i].value;
+				sumSquare += row[i].value * row[i].value;
+			}
+		}
+		double norm = Math.sqrt(sumSquare);
+		if (sketchType == sketchTypes.centered && nDimensions > 0) {
+			double mean = sum / nDimensions;
+			for (int k = 0; k < nComponents; k++) {
+				projection[k] -= mean * onesProjection[k];
+			}
+			norm = Math.sqrt(Math.max(sumSquare - sum * mean, 0));
+		}
+		for (int k = 0; k < nComponents; k++) {
+			if (sketchType != sketchTypes.raw) {
+				projections[offset + k] = norm > 0 ? (float) (projection[k] / norm)
+						: 0;
+			} else {
+				projections[offset + k] = (float) projection[k];
+			}
+		}
+	}
+
+	/**
+	 * Estimates the distance of two rows from their projections.
+	 *
+	 * @param x
+	 *            the x row
+	 * @param y
+	 *            the y row
+	 * @return the estimated distance
+	 */
+	public double estimateDistance(int x, int y) {
+		Kernels kernels = Kernels.getInstance();
+		double difference = kernels.squaredDistance(projections, x
+				* nComponents, projections, y * nComponents, nComponents);
+		if (sketchType != sketchTypes.raw) {
+			difference = Math.min(difference, kernels.squaredSum(projections,
+					x * nComponents, projections, y * nComponents,
+					nComponents));
+		}
+		return Math.sqrt(difference);
+	}
+
+	public int getnComponents() {
+		return nComponents;
+	}
+
+	public int getnRows() {
+		return nRows;
+	}
+
+	/**
+	 * The elements with the smallest keys offered to it, kept in a bounded
+	 * max-heap so that a scan over all candidates needs no more memory than
+	 * the shortlist.
+	 */
+	static class Shortlist {
+		private int[] elements;
+		private double[] keys;
+		private int size = 0;
+
+		Shortlist(int capacity) {
+			elements = new int[capacity];
+			keys = new double[capacity];
+		}
+
+		void clear() {
+			size = 0;
+		}
+
+		/**
+		 * Offers an element, which is kept if its key is among the smallest.
+		 */
+		void offer(int element, double key) {
+			if (size < elements.length) {
+				int i = size++;
+				while (i > 0 && keys[(i - 1) / 2] < key) {
+					elements[i] = elements[(i - 1) / 2];
+					keys[i] = keys[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+				elements[i] = element;
+				keys[i] = key;
+			} else if (key < keys[0]) {
+				int i = 0;
+				while (true) {
+					int child = 2 * i + 1;
+					if (child >= size) {
+						break;
+					}
+					if (child + 1 < size && keys[child + 1] > keys[child]) {
+						child++;
+					}
+					if (keys[child] <= key) {
+						break;
+					}
+					elements[i] = elements[child];
+					keys[i] = keys[child];
+					i = child;
+				}
+				elements[i] = element;
+				keys[i] = key;
+			}
+		}
+
+		int size() {
+			return size;
+		}
+
+		/**
+		 * Gets an element of the shortlist, in no particular order.
+		 */
+		int get(int i) {
+			return elements[i];
+		}
+	}
+
+}
@@ -0,0 +1,448 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Spectral seriation. The elements are connected in a sparse similarity graph
+ * by their k nearest neighbours, and they are ordered by the Fiedler vector
+ * of the normalized Laplacian of the graph. The eigenvector is found by a
+ * restarted Lanczos iteration that only needs sparse matrix-vector products,
+ * so the cost after building the graph is O(nnz * iterations).
+ */
+public class SpectralOrdering {
+
+	private LinearOrder linearOrder;
+	private int nNeighbours = 10;
+	private int nLanczosSteps = 64;
+	private int maxRestarts = 30;
+	private double tolerance = 1e-8;
+	private int nThreads;
+
+	private int n;
+	// The similarity graph in compressed sparse row format
+	private int[] rowPointers;
+	private int[] columns;
+	private double[] weights;
+	// D^-1/2, and the known top eigenvector D^1/2 1 normalized
+	private double[] inverseSqrtDegree;
+	private double[] trivial;
+
+	/**
+	 * Instantiates a new spectral ordering of a linear order.
+	 *
+	 * @param linearOrder
+	 *            the linear order, it receives the new order
+	 */
+	public SpectralOrdering(LinearOrder linearOrder) {
+		this.linearOrder = linearOrder;
+		nThreads = linearOrder.getnThreads();
+	}
+
+	/**
+	 * Generates the order by sorting the elements on the Fiedler vector.
+	 */
+	public void generateOrder() {
+		int[] elements = linearOrder.getElements();
+		n = elements.length;
+		ArrayList<Integer> newOrder = new ArrayList<Integer>();
+		if (n < 3) {
+			for (int i = 0; i < n; i++) {
+				newOrder.add(elements[i]);
+			}
+		} else {
+			print("Building similarity graph...");
+			buildGraph(elements);
+			print("Computing Fiedler vector...");
+			final double[] fiedler = findFiedlerVector();
+			Integer[] positions = new Integer[n];
+			for (int i = 0; i < n; i++) {
+				positions[i] = i;
+			}
+			Arrays.sort(positions, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Double.compare(fiedler[a], fiedler[b]);
+				}
+			});
+			for (int i = 0; i < n; i++) {
+				newOrder.add(elements[positions[i]]);
+			}
+		}
+		linearOrder.setOrder(newOrder);
+		linearOrder.remainingElements.clear();
+	}
+
+	/**
+	 * Builds the symmetric kNN graph with self-tuning Gaussian weights
+	 * exp(-d(x,y)^2 / (sigma_x sigma_y)), where sigma_x is the distance of x
+	 * to its k-th neighbour. The kNN graph of the linear order is used if it
+	 * covers the elements, otherwise an exact graph is built.
+	 */
+	private void buildGraph(int[] elements) {
+		KnnGraph knnGraph = linearOrder.getKnnGraph();
+		if (knnGraph == null || !knnGraph.covers(elements)) {
+			KnnGraphBuilder builder = new KnnGraphBuilder(linearOrder);
+			builder.setK(nNeighbours);
+			builder.setnThreads(nThreads);
+			knnGraph = builder.build(elements);
+		}
+		int[] local = new int[knnGraph.getnElements()];
+		double[] sigma = new double[n];
+		for (int i = 0; i < n; i++) {
+			local[elements[i]] = i;
+			int degree = knnGraph.getDegree(elements[i]);
+			sigma[i] = degree > 0 ? knnGraph.getDistance(elements[i],
+					degree - 1) : 0;
+		}
+		double meanSigma = 0;
+		for (int i = 0; i < n; i++) {
+			meanSigma += sigma[i] / n;
+		}
+		for (int i = 0; i < n; i++) {
+			if (sigma[i] <= 0) {
+				sigma[i] = meanSigma > 0 ? meanSigma : 1;
+			}
+		}
+		// Every directed kNN edge is stored in both directions
+		int[] degree = new int[n];
+		for (int i = 0; i < n; i++) {
+			int x = elements[i];
+			degree[i] += knnGraph.getDegree(x);
+			for (int j = 0; j < knnGraph.getDegree(x); j++) {
+				degree[local[knnGraph.getNeighbour(x, j)]]++;
+			}
+		}
+		rowPointers = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			rowPointers[i + 1] = rowPointers[i] + degree[i];
+		}
+		int[] fill = Arrays.copyOf(rowPointers, n);
+		int[] rawColumns = new int[rowPointers[n]];
+		double[] rawWeights = new double[rowPointers[n]];
+		for (int i = 0; i < n; i++) {
+			int x = elements[i];
+			for (int j = 0; j < knnGraph.getDegree(x); j++) {
+				int y = local[knnGraph.getNeighbour(x, j)];
+				double d = knnGraph.getDistance(x, j);
+				double w = Math.exp(-d * d / (sigma[i] * sigma[y]));
+				rawColumns[fill[i]] = y;
+				rawWeights[fill[i]++] = w;
+				rawColumns[fill[y]] = i;
+				rawWeights[fill[y]++] = w;
+			}
+		}
+		mergeDuplicateEdges(rawColumns, rawWeights);
+		double[] weightedDegree = new double[n];
+		for (int i = 0; i < n; i++) {
+			for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+				weightedDegree[i] += weights[p];
+			}
+		}
+		inverseSqrtDegree = new double[n];
+		trivial = new double[n];
+		for (int i = 0; i < n; i++) {
+			// An isolated element gets a tiny degree to stay well defined
+			double d = Math.max(weightedDegree[i], 1e-12);
+			inverseSqrtDegree[i] = 1 / Math.sqrt(d);
+			trivial[i] = Math.sqrt(d);
+		}
+		normalize(trivial);
+	}
+
+	/**
+	 * Sorts the columns of every row and keeps a single edge with the
+	 * maximum weight where the kNN relation was mutual.
+	 */
+	private void mergeDuplicateEdges(int[] rawColumns, double[] rawWeights) {
+		int[] newRowPointers = new int[n + 1];
+		int nnz = 0;
+		for (int i = 0; i < n; i++) {
+			int from = rowPointers[i];
+			int to = rowPointers[i + 1];
+			long[] keys = new long[to - from];
+			double[] rowWeights = Arrays.copyOfRange(rawWeights, from, to);
+			for (int p = from; p < to; p++) {
+				keys[p - from] = ((long) rawColumns[p] << 32) | (p - from);
+			}
+			Arrays.sort(keys);
+			int last = -1;
+			for (int q = 0; q < keys.length; q++) {
+				int column = (int) (keys[q] >>> 32);
+				double w = rowWeights[(int) (keys[q] & 0xffffffffL)];
+				if (column == last) {
+					if (w > rawWeights[nnz - 1]) {
+						rawWeights[nnz - 1] = w;
+					}
+				} else {
+					rawColumns[nnz] = column;
+					rawWeights[nnz++] = w;
+					last = column;
+				}
+			}
+			newRowPointers[i + 1] = nnz;
+		}
+		rowPointers = newRowPointers;
+		columns = Arrays.copyOf(rawColumns, nnz);
+		weights = Arrays.copyOf(rawWeights, nnz);
+	}
+
+	/**
+	 * The operator M = I + D^-1/2 W D^-1/2 restricted to the complement of
+	 * its top eigenvector D^1/2 1. Its largest eigenvector is the second
+	 * smallest eigenvector of the normalized Laplacian.
+	 */
+	private void multiply(double[] x, double[] y) {
+		for (int i = 0; i < n; i++) {
+			double sum = 0;
+			for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+				sum += weights[p] * inverseSqrtDegree[columns[p]]
+						* x[columns[p]];
+			}
+			y[i] = x[i] + inverseSqrtDegree[i] * sum;
+		}
+		deflate(y);
+	}
+
+	private void deflate(double[] x) {
+		double projection = dot(x, trivial);
+		for (int i = 0; i < n; i++) {
+			x[i] -= projection * trivial[i];
+		}
+	}
+
+	/**
+	 * Restarted two-pass Lanczos iteration. The first pass builds the
+	 * tridiagonal matrix, the second pass recomputes the Lanczos vectors to
+	 * assemble the Ritz vector, so only a few vectors are kept in memory.
+	 */
+	private double[] findFiedlerVector() {
+		double[] v = new double[n];
+		Random random = new Random(0);
+		for (int i = 0; i < n; i++) {
+			v[i] = random.nextDouble() - 0.5;
+		}
+		deflate(v);
+		normalize(v);
+		int m = Math.min(nLanczosSteps, n - 1);
+		for (int restart = 0; restart < maxRestarts; restart++) {
+			double[] alpha = new double[m];
+			double[] beta = new double[m];
+			int steps = lanczos(v, alpha, beta, m, null, null);
+			double[] s = largestRitzVector(alpha, beta, steps);
+			double residual = Math.abs(beta[steps - 1] * s[steps - 1]);
+			double[] ritz = new double[n];
+			lanczos(v, alpha, beta, steps, s, ritz);
+			deflate(ritz);
+			normalize(ritz);
+			v = ritz;
+			if (residual < tolerance || steps < m) {
+				break;
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			v[i] *= inverseSqrtDegree[i];
+		}
+		return v;
+	}
+
+	/**
+	 * Runs the Lanczos recurrence from a unit start vector. If s is given,
+	 * the combination of the Lanczos vectors with coefficients s is
+	 * accumulated in result instead of recording the coefficients.
+	 *
+	 * @return the number of steps taken before an invariant subspace was
+	 *         found
+	 */
+	private int lanczos(double[] start, double[] alpha, double[] beta,
+			int m, double[] s, double[] result) {
+		double[] previous = new double[n];
+		double[] current = start.clone();
+		double[] w = new double[n];
+		double previousBeta = 0;
+		for (int j = 0; j < m; j++) {
+			if (s != null) {
+				for (int i = 0; i < n; i++) {
+					result[i] += s[j] * current[i];
+				}
+				if (j == m - 1) {
+					return m;
+				}
+			}
+			multiply(current, w);
+			double a = dot(w, current);
+			for (int i = 0; i < n; i++) {
+				w[i] -= a * current[i] + previousBeta * previous[i];
+			}
+			double b = Math.sqrt(dot(w, w));
+			if (s == null) {
+				alpha[j] = a;
+				beta[j] = b;
+			}
+			if (b < 1e-12) {
+				return j + 1;
+			}
+			double[] tmp = previous;
+			previous = current;
+			current = tmp;
+			for (int i = 0; i < n; i++) {
+				current[i] = w[i] / b;
+			}
+			previousBeta = b;
+		}
+		return m;
+	}
+
+	/**
+	 * Eigenvector of the largest eigenvalue of a symmetric tridiagonal matrix
+	 * by the implicit QL method.
+	 */
+	private static double[] largestRitzVector(double[] alpha, double[] beta,
+			int m) {
+		double[] d = Arrays.copyOf(alpha, m);
+		double[] e = new double[m];
+		for (int i = 0; i < m - 1; i++) {
+			e[i] = beta[i];
+		}
+		double[][] z = new double[m][m];
+		for (int i = 0; i < m; i++) {
+			z[i][i] = 1;
+		}
+		for (int l = 0; l < m; l++) {
+			int iter = 0;
+			int k;
+			do {
+				for (k = l; k < m - 1; k++) {
+					double dd = Math.abs(d[k]) + Math.abs(d[k + 1]);
+					if (Math.abs(e[k]) <= 1e-15 * dd) {
+						break;
+					}
+				}
+				if (k != l) {
+					if (iter++ == 60) {
+						break;
+					}
+					double g = (d[l + 1] - d[l]) / (2 * e[l]);
+					double r = Math.hypot(g, 1);
+					g = d[k] - d[l] + e[l] / (g + (g >= 0 ? r : -r));
+					double sn = 1;
+					double c = 1;
+					double p = 0;
+					int i;
+					for (i = k - 1; i >= l; i--) {
+						double f = sn * e[i];
+						double b = c * e[i];
+						r = Math.hypot(f, g);
+						e[i + 1] = r;
+						if (r == 0) {
+							d[i + 1] -= p;
+							e[k] = 0;
+							break;
+						}
+						sn = f / r;
+						c = g / r;
+						g = d[i + 1] - p;
+						r = (d[i] - g) * sn + 2 * c * b;
+						p = sn * r;
+						d[i + 1] = g + p;
+						g = c * r - b;
+						for (int row = 0; row < m; row++) {
+							f = z[row][i + 1];
+							z[row][i + 1] = sn * z[row][i] + c * f;
+							z[row][i] = c * z[row][i] - sn * f;
+						}
+					}
+					if (r == 0 && i >= l) {
+						continue;
+					}
+					d[l] -= p;
+					e[l] = g;
+					e[k] = 0;
+				}
+			} while (k != l);
+		}
+		int argmax = 0;
+		for (int i = 1; i < m; i++) {
+			if (d[i] > d[argmax]) {
+				argmax = i;
+			}
+		}
+		double[] result = new double[m];
+		for (int i = 0; i < m; i++) {
+			result[i] = z[i][argmax];
+		}
+		return result;
+	}
+
+	private double dot(double[] x, double[] y) {
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += x[i] * y[i];
+		}
+		return sum;
+	}
+
+	private void normalize(double[] x) {
+		double norm = Math.sqrt(dot(x, x));
+		if (norm > 0) {
+			for (int i = 0; i < n; i++) {
+				x[i] /= norm;
+			}
+		}
+	}
+
+	public int getnNeighbours() {
+		return nNeighbours;
+	}
+
+	public void setnNeighbours(int nNeighbours) {
+		this.nNeighbours = nNeighbours;
+	}
+
+	public int getnLanczosSteps() {
+		return nLanczosSteps;
+	}
+
+	public void setnLanczosSteps(int nLanczosSteps) {
+		this.nLanczosSteps = nLanczosSteps;
+	}
+
+	public void setMaxRestarts(int maxRestarts) {
+		this.maxRestarts = maxRestarts;
+	}
+
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public void setnThreads(int nThreads) {
+		this.nThreads = nThreads;
+	}
+
+	private void print(String message) {
+		if (linearOrder.isVerbose()) {
+			System.out.println(message);
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.order;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import sg.edu.nus.comp.sseriation.util.Metrics;
+
+/**
+ * A linear order over a subset of the elements of another linear order. The
+ * elements are renumbered from zero, distances are delegated to the parent,
+ * and nothing is written to disk, so subsets can be ordered concurrently.
+ */
+class SubsetOrder extends LinearOrder {
+
+	private LinearOrder parent;
+	private int[] elements;
+
+	/**
+	 * Instantiates a new order over a subset.
+	 * 
+	 * @param parent
+	 *            the linear order providing the distances
+	 * @param elements
+	 *            the elements of the parent in the subset
+	 */
+	SubsetOrder(LinearOrder parent, int[] elements) {
+		super(parent.filename, parent.model);
+		this.parent = parent;
+		this.elements = elements;
+		nInstances = elements.length;
+		verbose = false;
+		// Its runs are part of the run of the parent, whose distances count
+		metrics = new Metrics();
+		remainingElements = new HashSet<Integer>();
+		for (int i = 0; i < nInstances; i++) {
+			remainingElements.add(i);
+		}
+		order = new ArrayList<Integer>();
+	}
+
+	@Override
+	protected int findSeed() {
+		return nInstances / 2;
+	}
+
+	@Override
+	protected double getDistance(int x, int y) {
+		return parent.getDistance(elements[x], elements[y]);
+	}
+
+	@Override
+	protected String getTemporaryOrderFilename() {
+		return null;
+	}
+
+	@Override
+	protected void printInstance(int x) {
+		parent.printInstance(elements[x]);
+	}
+
+	/**
+	 * Gets the order in terms of the elements of the parent.
+	 * 
+	 * @return the elements of the parent in order
+	 */
+	int[] getParentOrder() {
+		int[] result = new int[order.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = elements[order.get(i)];
+		}
+		return result;
+	}
+
+}
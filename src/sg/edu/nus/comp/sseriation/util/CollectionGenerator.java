@@ -0,0 +1,336 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Generates reproducible synthetic term-document collections with a planted
+ * order. Every row has a planted position in [0, 1), and the columns are
+ * split into blocks, one for each stretch of positions. A row draws most of
+ * its terms from its block and, the closer it is to a neighbouring stretch,
+ * the more from the neighbouring block, so that the blocks form a path; the
+ * rest of its terms come from the whole vocabulary. Within a block and in
+ * the vocabulary, terms are drawn with Zipfian frequencies, and a value is
+ * the number of times its term was drawn.
+ *
+ * The rows come in random order. Later calls to generate continue the same
+ * collection, as the rows of updates.
+ */
+public class CollectionGenerator {
+
+	private int nColumns;
+	private int nTerms;
+	private int nBlocks;
+	private double zipfExponent = 1.0;
+	private double signal = 0.8;
+	private Random random;
+	/** The vocabulary in decreasing popularity. */
+	private int[] popularColumns;
+	private double[] blockWeights;
+	private double[] vocabularyWeights;
+	private double[] positions = new double[0];
+
+	/**
+	 * Instantiates a new generator.
+	 *
+	 * @param nColumns
+	 *            the number of columns, indexed from 1
+	 * @param density
+	 *            the expected fraction of the columns a row draws
+	 * @param nBlocks
+	 *            the number of blocks
+	 * @param seed
+	 *            the seed of the collection
+	 */
+	public CollectionGenerator(int nColumns, double density, int nBlocks,
+			long seed) {
+		if (nBlocks < 1 || nBlocks > nColumns) {
+			throw new IllegalArgumentException(
+					"The number of blocks must be between 1 and the number of columns.");
+		}
+		this.nColumns = nColumns;
+		this.nTerms = Math.max(1, (int) Math.round(density * nColumns));
+		this.nBlocks = nBlocks;
+		this.random = new Random(seed);
+		popularColumns = new int[nColumns];
+		for (int i = 0; i < nColumns; i++) {
+			popularColumns[i] = i + 1;
+		}
+		for (int i = nColumns - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int tmp = popularColumns[i];
+			popularColumns[i] = popularColumns[j];
+			popularColumns[j] = tmp;
+		}
+		initializeWeights();
+	}
+
+	private void initializeWeights() {
+		blockWeights = cumulativeZipf(nColumns / nBlocks);
+		vocabularyWeights = cumulativeZipf(nColumns);
+	}
+
+	/**
+	 * The cumulative weights of ranks 1 to n, normalized to 1.
+	 */
+	private double[] cumulativeZipf(int n) {
+		double[] result = new double[n];
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += Math.pow(i + 1, -zipfExponent);
+			result[i] = sum;
+		}
+		for (int i = 0; i < n; i++) {
+			result[i] /= sum;
+		}
+		return result;
+	}
+
+	/**
+	 * Draws a rank from cumulative weights.
+	 */
+	private int drawRank(double[] weights) {
+		int rank = Arrays.binarySearch(weights, random.nextDouble());
+		return Math.min(rank >= 0 ? rank : -rank - 1, weights.length - 1);
+	}
+
+	/**
+	 * Generates the next rows of the collection.
+	 *
+	 * @param nRows
+	 *            the number of rows
+	 * @return the rows
+	 */
+	public VectorNode[][] generate(int nRows) {
+		VectorNode[][] result = new VectorNode[nRows][];
+		double[] newPositions = Arrays.copyOf(positions, positions.length
+				+ nRows);
+		int blockWidth = nColumns / nBlocks;
+		TreeMap<Integer, Integer> counts = new TreeMap<Integer, Integer>();
+		for (int i = 0; i < nRows; i++) {
+			double position = random.nextDouble();
+			newPositions[positions.length + i] = position;
+			int block = (int) (position * nBlocks);
+			double offset = position * nBlocks - block;
+			counts.clear();
+			for (int t = 0; t < nTerms; t++) {
+				int column;
+				if (random.nextDouble() < signal) {
+					int termBlock = block;
+					double u = random.nextDouble();
+					if (u < offset / 2 && block + 1 < nBlocks) {
+						termBlock++;
+					} else if (u > 1 - (1 - offset) / 2 && block > 0) {
+						termBlock--;
+					}
+					column = termBlock * blockWidth + drawRank(blockWeights)
+							+ 1;
+				} else {
+					column = popularColumns[drawRank(vocabularyWeights)];
+				}
+				Integer count = counts.get(column);
+				counts.put(column, count == null ? 1 : count + 1);
+			}
+			result[i] = new VectorNode[counts.size()];
+			int j = 0;
+			for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+				result[i][j++] = new VectorNode(entry.getKey(),
+						entry.getValue());
+			}
+		}
+		positions = newPositions;
+		return result;
+	}
+
+	/**
+	 * Gets the planted positions of all rows generated so far, in the order
+	 * they were generated.
+	 *
+	 * @return the positions in [0, 1)
+	 */
+	public double[] getPlantedPositions() {
+		return positions.clone();
+	}
+
+	public void setZipfExponent(double zipfExponent) {
+		this.zipfExponent = zipfExponent;
+		initializeWeights();
+	}
+
+	/**
+	 * Sets the fraction of the terms drawn from the blocks rather than from
+	 * the whole vocabulary.
+	 *
+	 * @param signal
+	 *            the fraction in [0, 1]
+	 */
+	public void setSignal(double signal) {
+		this.signal = signal;
+	}
+
+	/**
+	 * Writes rows in the libsvm format without labels.
+	 *
+	 * @param rows
+	 *            the rows
+	 * @param filename
+	 *            the file name
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void write(VectorNode[][] rows, String filename)
+			throws IOException {
+		Writer out = new BufferedWriter(new FileWriter(new File(filename)),
+				1 << 16);
+		try {
+			for (int i = 0; i < rows.length; i++) {
+				for (int j = 0; j < rows[i].length; j++) {
+					if (j > 0) {
+						out.write(' ');
+					}
+					out.write(rows[i][j].index + ":" + (int) rows[i][j].value);
+				}
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Rank correlation of an order with the planted positions of its
+	 * elements, in absolute value since a path may run either way: 1 if the
+	 * order recovers the planted one.
+	 *
+	 * @param order
+	 *            the order
+	 * @param positions
+	 *            the planted positions of the elements
+	 * @return the absolute Spearman correlation
+	 */
+	public static double computeRecovery(int[] order, double[] positions) {
+		int n = order.length;
+		if (n < 2) {
+			return 1;
+		}
+		Integer[] byPosition = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			byPosition[i] = i;
+		}
+		final double[] orderPositions = new double[n];
+		for (int i = 0; i < n; i++) {
+			orderPositions[i] = positions[order[i]];
+		}
+		Arrays.sort(byPosition, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(orderPositions[a], orderPositions[b]);
+			}
+		});
+		double sumSquares = 0;
+		for (int rank = 0; rank < n; rank++) {
+			double d = byPosition[rank] - rank;
+			sumSquares += d * d;
+		}
+		return Math.abs(1 - 6 * sumSquares / ((double) n * ((double) n * n - 1)));
+	}
+
+	/**
+	 * Writes a collection, a stream of update files and the planted positions
+	 * of the rows: prefix.dat, prefix-update-1.dat, ... and
+	 * prefix-planted.txt, one position per row of the collection and the
+	 * updates in turn.
+	 *
+	 * @param args
+	 *            [-r rows] [-c columns] [-d density] [-b blocks] [-u
+	 *            updates] [-n rows per update] [-z Zipf exponent] [-s seed]
+	 *            prefix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void main(String[] args) throws IOException {
+		int nRows = 1000;
+		int nColumns = 500;
+		double density = 0.04;
+		int nBlocks = 10;
+		int nUpdates = 0;
+		int nUpdateRows = 10;
+		double zipfExponent = 1.0;
+		long seed = 1;
+		int argc = 0;
+		while (argc + 1 < args.length && args[argc].charAt(0) == '-') {
+			String flagName = args[argc].substring(1);
+			String flagValue = args[argc + 1];
+			if (flagName.equals("r")) {
+				nRows = Integer.parseInt(flagValue);
+			} else if (flagName.equals("c")) {
+				nColumns = Integer.parseInt(flagValue);
+			} else if (flagName.equals("d")) {
+				density = Double.parseDouble(flagValue);
+			} else if (flagName.equals("b")) {
+				nBlocks = Integer.parseInt(flagValue);
+			} else if (flagName.equals("u")) {
+				nUpdates = Integer.parseInt(flagValue);
+			} else if (flagName.equals("n")) {
+				nUpdateRows = Integer.parseInt(flagValue);
+			} else if (flagName.equals("z")) {
+				zipfExponent = Double.parseDouble(flagValue);
+			} else if (flagName.equals("s")) {
+				seed = Long.parseLong(flagValue);
+			} else {
+				throw new IllegalArgumentException("Unknown option -"
+						+ flagName);
+			}
+			argc += 2;
+		}
+		if (argc >= args.length) {
+			throw new IllegalArgumentException("A file name prefix is required.");
+		}
+		String prefix = args[argc];
+		CollectionGenerator generator = new CollectionGenerator(nColumns,
+				density, nBlocks, seed);
+		generator.setZipfExponent(zipfExponent);
+		write(generator.generate(nRows), prefix + ".dat");
+		for (int u = 1; u <= nUpdates; u++) {
+			write(generator.generate(nUpdateRows), prefix + "-update-" + u
+					+ ".dat");
+		}
+		double[] positions = generator.getPlantedPositions();
+		Writer out = new BufferedWriter(new FileWriter(prefix
+				+ "-planted.txt"));
+		try {
+			for (int i = 0; i < positions.length; i++) {
+				out.write(positions[i] + "\n");
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,342 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A matrix stored row-major in a single array of doubles, for rows that are
+ * dense enough that a cell costs less than a vector node. Row x occupies
+ * values[x * nColumns] to values[(x + 1) * nColumns - 1], column j at offset
+ * j, so the distances run over contiguous runs without merging indices.
+ *
+ * A bit per cell records which entries the rows stored, so that the rows can
+ * be given back exactly, explicit zeros included. Absent rows, the null rows
+ * of a matrix of vector nodes, are zero and marked as such. The sums and
+ * sums of squares of the rows are kept for the cosine and the correlation.
+ *
+ * The arrays have room for more rows than the matrix has. Appending rows of
+ * no new columns gives a new matrix that writes them into that room while
+ * this one stays as it is, and the room doubles when it runs out.
+ */
+public class DenseMatrix {
+
+	/** The largest number of cells, the length limit of an array. */
+	public static final long MAX_CELLS = Integer.MAX_VALUE - 8;
+
+	private int nRows;
+	private int nColumns;
+	private double[] values;
+	private BitSet stored;
+	private BitSet absent;
+	private int[] lengths;
+	private double[] sums;
+	private double[] sumSquares;
+	/**
+	 * The number of rows of the matrix that wrote to the arrays last, shared
+	 * by the matrices that write to them, so that only that matrix appends
+	 * into the room.
+	 */
+	private int[] lastnRows;
+
+	private DenseMatrix(int nRows, int nColumns) {
+		this(nRows, nColumns, nRows);
+	}
+
+	private DenseMatrix(int nRows, int nColumns, int capacity) {
+		this.nRows = nRows;
+		this.nColumns = nColumns;
+		values = new double[capacity * nColumns];
+		stored = new BitSet(capacity * nColumns);
+		absent = new BitSet(capacity);
+		lengths = new int[capacity];
+		sums = new double[capacity];
+		sumSquares = new double[capacity];
+		lastnRows = new int[] { nRows };
+	}
+
+	/**
+	 * Gets a matrix that shares the arrays of this one, with more rows.
+	 */
+	private DenseMatrix(DenseMatrix mx, int nRows) {
+		this.nRows = nRows;
+		nColumns = mx.nColumns;
+		values = mx.values;
+		stored = mx.stored;
+		absent = mx.absent;
+		lengths = mx.lengths;
+		sums = mx.sums;
+		sumSquares = mx.sumSquares;
+		lastnRows = mx.lastnRows;
+	}
+
+	/**
+	 * Calculates the density of a matrix: the ratio of its entries to the
+	 * cells of a dense matrix of its rows and columns 0 to the largest column
+	 * index.
+	 *
+	 * @param mx
+	 *            the sparse matrix
+	 * @return the density, 0 for a matrix without entries
+	 */
+	public static double computeDensity(VectorNode[][] mx) {
+		long nEntries = 0;
+		for (int i = 0; i < mx.length; i++) {
+			if (mx[i] != null) {
+				nEntries += mx[i].length;
+			}
+		}
+		if (nEntries == 0) {
+			return 0;
+		}
+		return (double) nEntries
+				/ ((double) mx.length * (SparseVector.findMaxColumnIndex(mx) + 1));
+	}
+
+	/**
+	 * Copies a matrix of vector nodes to a dense matrix.
+	 *
+	 * @param mx
+	 *            the sparse matrix
+	 * @return the dense matrix, or null if the matrix has negative or
+	 *         repeated column indices in a row, or too many cells
+	 */
+	public static DenseMatrix fromVectorNodes(VectorNode[][] mx) {
+		int nColumns = SparseVector.findMaxColumnIndex(mx) + 1;
+		if ((long) mx.length * nColumns > MAX_CELLS) {
+			return null;
+		}
+		DenseMatrix result = new DenseMatrix(mx.length, nColumns);
+		for (int i = 0; i < mx.length; i++) {
+			if (!result.setRow(i, mx[i])) {
+				return null;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Clears a row in the room of the arrays, which a failed append may have
+	 * written to.
+	 */
+	private void clearRow(int x) {
+		Arrays.fill(values, x * nColumns, (x + 1) * nColumns, 0);
+		stored.clear(x * nColumns, (x + 1) * nColumns);
+		absent.clear(x);
+		lengths[x] = 0;
+	}
+
+	/**
+	 * Copies a row into the matrix and computes its sums.
+	 *
+	 * @return false if the row has negative or repeated column indices
+	 */
+	private boolean setRow(int x, VectorNode[] row) {
+		if (row == null) {
+			absent.set(x);
+			return true;
+		}
+		int offset = x * nColumns;
+		int lastIndex = -1;
+		for (int j = 0; j < row.length; j++) {
+			if (row[j].index <= lastIndex) {
+				return false;
+			}
+			lastIndex = row[j].index;
+			values[offset + lastIndex] = row[j].value;
+			stored.set(offset + lastIndex);
+		}
+		lengths[x] = row.length;
+		Kernels kernels = Kernels.getInstance();
+		sums[x] = kernels.sum(values, offset, nColumns);
+		sumSquares[x] = kernels.sumSquare(values, offset, nColumns);
+		return true;
+	}
+
+	/**
+	 * Appends rows, widening the matrix if they have new columns. This
+	 * matrix stays as it is; the rows are written into the room of its
+	 * arrays if they have no new columns and no other matrix wrote there,
+	 * and the matrix is copied into arrays of twice the room otherwise.
+	 *
+	 * @param rows
+	 *            the new rows, null for empty rows
+	 * @return a new matrix with the rows appended, or null if the rows cannot
+	 *         be stored densely
+	 */
+	public DenseMatrix append(VectorNode[][] rows) {
+		int newnColumns = Math.max(nColumns,
+				SparseVector.findMaxColumnIndex(rows) + 1);
+		int newnRows = nRows + rows.length;
+		if ((long) newnRows * newnColumns > MAX_CELLS) {
+			return null;
+		}
+		if (newnColumns == nColumns && lastnRows[0] == nRows
+				&& newnRows <= lengths.length) {
+			DenseMatrix result = new DenseMatrix(this, newnRows);
+			for (int i = 0; i < rows.length; i++) {
+				result.clearRow(nRows + i);
+				if (!result.setRow(nRows + i, rows[i])) {
+					return null;
+				}
+			}
+			lastnRows[0] = newnRows;
+			return result;
+		}
+		long capacity = Math.min(Math.max(2L * nRows, newnRows), MAX_CELLS
+				/ Math.max(newnColumns, 1));
+		DenseMatrix result = new DenseMatrix(newnRows, newnColumns,
+				(int) capacity);
+		for (int x = 0; x < nRows; x++) {
+			System.arraycopy(values, x * nColumns, result.values, x
+					* newnColumns, nColumns);
+			int offset = x * nColumns;
+			for (int j = stored.nextSetBit(offset); j >= 0
+					&& j < offset + nColumns; j = stored.nextSetBit(j + 1)) {
+				result.stored.set(x * newnColumns + j - offset);
+			}
+		}
+		result.absent.or(absent.get(0, nRows));
+		System.arraycopy(lengths, 0, result.lengths, 0, nRows);
+		System.arraycopy(sums, 0, result.sums, 0, nRows);
+		System.arraycopy(sumSquares, 0, result.sumSquares, 0, nRows);
+		for (int i = 0; i < rows.length; i++) {
+			if (!result.setRow(nRows + i, rows[i])) {
+				return null;
+			}
+		}
+		return result;
+	}
+
+	public int getnRows() {
+		return nRows;
+	}
+
+	public int getnColumns() {
+		return nColumns;
+	}
+
+	/**
+	 * Gets the array of the values, row x starting at x * nColumns.
+	 *
+	 * @return the values
+	 */
+	public double[] getValues() {
+		return values;
+	}
+
+	/**
+	 * Checks whether a row is present, that is, not null in the matrix of
+	 * vector nodes.
+	 */
+	public boolean isPresent(int x) {
+		return !absent.get(x);
+	}
+
+	/**
+	 * Checks whether the row stored an entry in a column.
+	 */
+	public boolean isStored(int x, int column) {
+		return stored.get(x * nColumns + column);
+	}
+
+	/**
+	 * Gets the number of entries the row stored.
+	 */
+	public int getLength(int x) {
+		return lengths[x];
+	}
+
+	/**
+	 * Finds the smallest first column index of the rows as
+	 * SparseVector.findMinColumnIndex.
+	 */
+	public int findMinColumnIndex() {
+		int result = Integer.MAX_VALUE;
+		for (int i = 0; i < nRows; i++) {
+			int first = stored.nextSetBit(i * nColumns);
+			if (first >= 0 && first < (i + 1) * nColumns) {
+				result = Math.min(result, first - i * nColumns);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Counts the entries all rows stored.
+	 */
+	public long countNonZeros() {
+		long result = 0;
+		for (int i = 0; i < nRows; i++) {
+			result += lengths[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Estimates the bytes taken by the cells and the statistics of the rows.
+	 */
+	public long estimateMemory() {
+		return 8L * values.length + values.length / 8 + 24L * nRows;
+	}
+
+	public double getSum(int x) {
+		return sums[x];
+	}
+
+	public double getSumSquare(int x) {
+		return sumSquares[x];
+	}
+
+	/**
+	 * Gets a row as vector nodes, as it was stored.
+	 *
+	 * @param x
+	 *            the row
+	 * @return the row, null if it is absent
+	 */
+	public VectorNode[] getRow(int x) {
+		if (absent.get(x)) {
+			return null;
+		}
+		VectorNode[] result = new VectorNode[lengths[x]];
+		int offset = x * nColumns;
+		int k = 0;
+		for (int j = stored.nextSetBit(offset); k < result.length; j = stored
+				.nextSetBit(j + 1)) {
+			result[k++] = new VectorNode(j - offset, values[j]);
+		}
+		return result;
+	}
+
+	/**
+	 * Copies the matrix to the heap as vector nodes.
+	 *
+	 * @return the rows
+	 */
+	public VectorNode[][] toVectorNodes() {
+		VectorNode[][] result = new VectorNode[nRows][];
+		for (int i = 0; i < nRows; i++) {
+			result[i] = getRow(i);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,144 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Flight Recorder events of the engine, so that a recording shows the
+ * seriation work next to garbage collection and I/O. Every event carries the
+ * rows and entries it worked on and the distances it evaluated. An event
+ * that is not recorded costs a check of its settings: the counts are only
+ * taken if it is committed.
+ *
+ * A typical use:
+ *
+ * <pre>
+ * Events.FoldIn event = new Events.FoldIn();
+ * event.start(metrics);
+ * ...
+ * if (event.finish()) {
+ * 	event.rows = 1;
+ * 	event.nnz = row.length;
+ * 	event.commit();
+ * }
+ * </pre>
+ */
+public class Events {
+
+	/**
+	 * The fields the events share.
+	 */
+	@Category("Seriation")
+	public static abstract class SeriationEvent extends Event {
+
+		@Label("Rows")
+		public int rows;
+
+		@Label("Entries")
+		@Description("The number of non-zero entries of the rows")
+		public long nnz;
+
+		@Label("Distance Calls")
+		@Description("The distances evaluated by all orders reporting to the same registry meanwhile")
+		public long distanceCalls;
+
+		private transient Metrics metrics;
+		private transient long startCalls;
+
+		/**
+		 * Begins the event, and counts the distance evaluations from now on
+		 * if it is recorded at all.
+		 * 
+		 * @param metrics
+		 *            the registry the distance evaluations are counted in
+		 */
+		public void start(Metrics metrics) {
+			if (isEnabled()) {
+				this.metrics = metrics;
+				startCalls = metrics.getCount(Metrics.counters.distanceCalls);
+			}
+			begin();
+		}
+
+		/**
+		 * Ends the event.
+		 * 
+		 * @return true if the event is to be committed, after the caller
+		 *         sets the rows and the entries
+		 */
+		public boolean finish() {
+			end();
+			if (!shouldCommit()) {
+				return false;
+			}
+			distanceCalls = metrics.getCount(Metrics.counters.distanceCalls)
+					- startCalls;
+			return true;
+		}
+	}
+
+	@Name("sg.edu.nus.comp.sseriation.MatrixLoad")
+	@Label("Matrix Load")
+	public static class MatrixLoad extends SeriationEvent {
+		@Label("File")
+		public String filename;
+	}
+
+	@Name("sg.edu.nus.comp.sseriation.Transpose")
+	@Label("Transpose")
+	public static class Transpose extends SeriationEvent {
+	}
+
+	@Name("sg.edu.nus.comp.sseriation.Heuristic")
+	@Label("Heuristic Run")
+	public static class Heuristic extends SeriationEvent {
+		@Label("Heuristic")
+		public String heuristic;
+	}
+
+	@Name("sg.edu.nus.comp.sseriation.FoldIn")
+	@Label("Fold-in")
+	@Description("The insertion of a new row into the order")
+	public static class FoldIn extends SeriationEvent {
+	}
+
+	@Name("sg.edu.nus.comp.sseriation.FeatureSpaceUpdate")
+	@Label("Feature Space Update")
+	@Description("The update of the column order after row updates")
+	public static class FeatureSpaceUpdate extends SeriationEvent {
+	}
+
+	@Name("sg.edu.nus.comp.sseriation.OutputWrite")
+	@Label("Output Write")
+	public static class OutputWrite extends SeriationEvent {
+		@Label("File")
+		public String filename;
+
+		@Label("Bytes")
+		@DataAmount
+		public long bytes;
+	}
+
+}
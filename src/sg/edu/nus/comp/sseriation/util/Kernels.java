@@ -0,0 +1,226 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+/**
+ * Inner loops over dense runs of values: sums, dot products and distances of
+ * arrays from given offsets. The scalar kernels add the terms in order. The
+ * SIMD kernels in the optional src-simd tree use the Java Vector API, which
+ * adds them in a different order, so their results may differ in the last
+ * bits; they are only used when switched on, by the system property
+ * sseriation.simd=true or by setSimd, and only if they can be loaded, which
+ * requires java --add-modules jdk.incubator.vector.
+ */
+public abstract class Kernels {
+
+	private static final String SIMD_CLASS = "sg.edu.nus.comp.sseriation.util.SimdKernels";
+
+	private static final Kernels SCALAR = new ScalarKernels();
+	private static volatile Kernels instance = SCALAR;
+
+	static {
+		if (Boolean.getBoolean("sseriation.simd")) {
+			setSimd(true);
+		}
+	}
+
+	/**
+	 * Gets the kernels in use.
+	 *
+	 * @return the kernels
+	 */
+	public static Kernels getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Switches between the SIMD and the scalar kernels.
+	 *
+	 * @param simd
+	 *            whether to use the SIMD kernels
+	 * @return whether the SIMD kernels are in use; false if they were asked
+	 *         for but cannot be loaded
+	 */
+	public static boolean setSimd(boolean simd) {
+		Kernels kernels = simd ? getSimd() : null;
+		instance = kernels != null ? kernels : SCALAR;
+		return kernels != null;
+	}
+
+	public static Kernels getScalar() {
+		return SCALAR;
+	}
+
+	/**
+	 * Loads the SIMD kernels.
+	 *
+	 * @return the SIMD kernels, or null if they were not compiled or the
+	 *         vector module is missing
+	 */
+	public static Kernels getSimd() {
+		try {
+			return (Kernels) Class.forName(SIMD_CLASS).getConstructor()
+					.newInstance();
+		} catch (Exception e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
+	}
+
+	public abstract String getName();
+
+	/**
+	 * Sum of x[xOffset], ..., x[xOffset + length - 1].
+	 */
+	public abstract double sum(double[] x, int xOffset, int length);
+
+	/**
+	 * Sum of the squares of a run.
+	 */
+	public abstract double sumSquare(double[] x, int xOffset, int length);
+
+	/**
+	 * Sum of the absolute values of a run.
+	 */
+	public abstract double sumAbsolute(double[] x, int xOffset, int length);
+
+	/**
+	 * Dot product of two runs of the same length.
+	 */
+	public abstract double dotProduct(double[] x, int xOffset, double[] y,
+			int yOffset, int length);
+
+	/**
+	 * Squared Euclidean distance of two runs of the same length.
+	 */
+	public abstract double squaredDistance(double[] x, int xOffset,
+			double[] y, int yOffset, int length);
+
+	/**
+	 * Manhattan distance of two runs of the same length.
+	 */
+	public abstract double absoluteDistance(double[] x, int xOffset,
+			double[] y, int yOffset, int length);
+
+	/**
+	 * Squared Euclidean distance of two runs of floats.
+	 */
+	public abstract double squaredDistance(float[] x, int xOffset, float[] y,
+			int yOffset, int length);
+
+	/**
+	 * Squared norm of the sum of two runs of floats, the squared distance of
+	 * x from -y.
+	 */
+	public abstract double squaredSum(float[] x, int xOffset, float[] y,
+			int yOffset, int length);
+
+	/**
+	 * The kernels in plain Java.
+	 */
+	static class ScalarKernels extends Kernels {
+
+		@Override
+		public String getName() {
+			return "scalar";
+		}
+
+		@Override
+		public double sum(double[] x, int xOffset, int length) {
+			double result = 0;
+			for (int i = xOffset; i < xOffset + length; i++) {
+				result += x[i];
+			}
+			return result;
+		}
+
+		@Override
+		public double sumSquare(double[] x, int xOffset, int length) {
+			double result = 0;
+			for (int i = xOffset; i < xOffset + length; i++) {
+				result += x[i] * x[i];
+			}
+			return result;
+		}
+
+		@Override
+		public double sumAbsolute(double[] x, int xOffset, int length) {
+			double result = 0;
+			for (int i = xOffset; i < xOffset + length; i++) {
+				result += Math.abs(x[i]);
+			}
+			return result;
+		}
+
+		@Override
+		public double dotProduct(double[] x, int xOffset, double[] y,
+				int yOffset, int length) {
+			double result = 0;
+			for (int i = 0; i < length; i++) {
+				result += x[xOffset + i] * y[yOffset + i];
+			}
+			return result;
+		}
+
+		@Override
+		public double squaredDistance(double[] x, int xOffset, double[] y,
+				int yOffset, int length) {
+			double result = 0;
+			for (int i = 0; i < length; i++) {
+				double d = x[xOffset + i] - y[yOffset + i];
+				result += d * d;
+			}
+			return result;
+		}
+
+		@Override
+		public double absoluteDistance(double[] x, int xOffset, double[] y,
+				int yOffset, int length) {
+			double result = 0;
+			for (int i = 0; i < length; i++) {
+				result += Math.abs(x[xOffset + i] - y[yOffset + i]);
+			}
+			return result;
+		}
+
+		@Override
+		public double squaredDistance(float[] x, int xOffset, float[] y,
+				int yOffset, int length) {
+			double result = 0;
+			for (int i = 0; i < length; i++) {
+				double d = x[xOffset + i] - y[yOffset + i];
+				result += d * d;
+			}
+			return result;
+		}
+
+		@Override
+		public double squaredSum(float[] x, int xOffset, float[] y,
+				int yOffset, int length) {
+			double result = 0;
+			for (int i = 0; i < length; i++) {
+				double s = x[xOffset + i] + y[yOffset + i];
+				result += s * s;
+			}
+			return result;
+		}
+	}
+
+}
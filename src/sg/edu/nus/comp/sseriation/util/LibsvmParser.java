@@ -0,0 +1,703 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Parser of sparse matrices in libsvm format. The file is memory-mapped in
+ * chunks split at line boundaries, the chunks are parsed in parallel byte by
+ * byte into primitive arrays, and the result is concatenated in file order.
+ * Gzip compressed files are decompressed on a separate thread while they are
+ * parsed.
+ *
+ * A line is a sequence of tokens separated by spaces, tabs, colons or
+ * opening brackets. Tokens come in index-value pairs; if their number is
+ * odd, the first token is a label and is skipped. Empty lines are skipped.
+ */
+public class LibsvmParser {
+
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+	private static final int MAX_CHUNK_SIZE = 1 << 26;
+
+	/** Decompressed blocks and the number of them queued for parsing. */
+	private static final int BLOCK_SIZE = 1 << 20;
+	private static final int QUEUE_LENGTH = 8;
+	private static final byte[] END = new byte[0];
+
+	/** Powers of ten that are exact in double precision. */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/** The largest mantissa that is exact in double precision. */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	/**
+	 * Parses a sparse matrix with one thread per processor.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @return the sparse matrix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred, or the file is
+	 *             malformed.
+	 */
+	public static SparseMatrix parse(String filename) throws IOException {
+		return parse(filename, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Parses a sparse matrix.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @param nThreads
+	 *            the number of parser threads
+	 * @return the sparse matrix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred, or the file is
+	 *             malformed.
+	 */
+	public static SparseMatrix parse(final String filename, int nThreads)
+			throws IOException {
+		if (isGzip(filename)) {
+			return parseCompressed(filename);
+		}
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			final FileChannel channel = file.getChannel();
+			long size = channel.size();
+			long[] boundaries = findChunkBoundaries(channel, size, nThreads);
+			int nChunks = boundaries.length - 1;
+			List<Chunk> chunks = new ArrayList<Chunk>();
+			if (nChunks == 1 || nThreads == 1) {
+				for (int c = 0; c < nChunks; c++) {
+					chunks.add(parseChunk(channel, filename, boundaries[c],
+							boundaries[c + 1]));
+				}
+			} else {
+				ExecutorService executor = Executors.newFixedThreadPool(Math
+						.min(nThreads, nChunks));
+				try {
+					List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+					for (int c = 0; c < nChunks; c++) {
+						final long start = boundaries[c];
+						final long end = boundaries[c + 1];
+						futures.add(executor.submit(new Callable<Chunk>() {
+							@Override
+							public Chunk call() throws IOException {
+								return parseChunk(channel, filename, start, end);
+							}
+						}));
+					}
+					for (Future<Chunk> future : futures) {
+						chunks.add(future.get());
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while reading "
+							+ filename, e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new RuntimeException(e.getCause());
+				} finally {
+					executor.shutdown();
+				}
+			}
+			return concatenate(chunks);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Parses a sparse matrix held in memory, such as the body of a request.
+	 *
+	 * @param text
+	 *            the lines in libsvm format
+	 * @param name
+	 *            the name of the text in error messages
+	 * @return the sparse matrix
+	 * @throws IOException
+	 *             if the text is malformed
+	 */
+	public static SparseMatrix parse(byte[] text, String name)
+			throws IOException {
+		Chunk chunk = new Chunk(text.length / 8 + 16);
+		parseLines(ByteBuffer.wrap(text), chunk, name, 0);
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		chunks.add(chunk);
+		return concatenate(chunks);
+	}
+
+	/**
+	 * Counts the rows, columns and entries of a file without parsing its
+	 * values, to estimate the memory of the matrix before it is read. Gzip
+	 * compressed files are decompressed on the way.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @return the number of rows, one more than the largest column index,
+	 *         and the number of entries
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static long[] count(String filename) throws IOException {
+		InputStream in = new FileInputStream(filename);
+		if (isGzip(filename)) {
+			in = new GZIPInputStream(in, 1 << 16);
+		}
+		try {
+			byte[] block = new byte[1 << 16];
+			long nRows = 0;
+			long nEntries = 0;
+			long maxIndex = -1;
+			// The tokens of the line so far, and their largest integers at
+			// even and odd positions, one of which are the indices once the
+			// parity of the line is known; any byte makes a line a row
+			int nTokens = 0;
+			long[] maxTokens = { -1, -1 };
+			boolean inLine = false;
+			boolean inToken = false;
+			boolean isInteger = false;
+			long token = 0;
+			int n = 0;
+			while (n >= 0) {
+				n = in.read(block);
+				if (n < 0) {
+					// Ends the last line
+					block[0] = '\n';
+				}
+				for (int i = 0; i < Math.max(n, 1); i++) {
+					byte b = block[i];
+					boolean isLineEnd = b == '\n' || b == '\r';
+					if (isLineEnd || isDelimiter(b)) {
+						if (inToken) {
+							if (isInteger) {
+								maxTokens[nTokens % 2] = Math.max(
+										maxTokens[nTokens % 2], token);
+							}
+							nTokens++;
+							inToken = false;
+						}
+						if (isLineEnd && inLine) {
+							nRows++;
+							nEntries += nTokens / 2;
+							maxIndex = Math.max(maxIndex,
+									maxTokens[nTokens % 2]);
+							nTokens = 0;
+							maxTokens[0] = -1;
+							maxTokens[1] = -1;
+							inLine = false;
+						} else if (!isLineEnd) {
+							inLine = true;
+						}
+					} else {
+						inLine = true;
+						if (!inToken) {
+							inToken = true;
+							isInteger = true;
+							token = 0;
+						}
+						if (isInteger && b >= '0' && b <= '9'
+								&& token < Integer.MAX_VALUE) {
+							token = 10 * token + b - '0';
+						} else {
+							isInteger = false;
+						}
+					}
+				}
+			}
+			return new long[] { nRows, maxIndex + 1, nEntries };
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Splits the file into chunks of roughly equal size that start at the
+	 * beginning of a line.
+	 */
+	private static long[] findChunkBoundaries(FileChannel channel, long size,
+			int nThreads) throws IOException {
+		long nChunks = Math.max(1, Math.min(4L * nThreads, size
+				/ MIN_CHUNK_SIZE));
+		nChunks = Math.max(nChunks, (size + MAX_CHUNK_SIZE - 1)
+				/ MAX_CHUNK_SIZE);
+		ArrayList<Long> boundaries = new ArrayList<Long>();
+		boundaries.add(0L);
+		for (long c = 1; c < nChunks; c++) {
+			long boundary = findLineStart(channel, size, c * size / nChunks);
+			if (boundary > boundaries.get(boundaries.size() - 1)
+					&& boundary < size) {
+				boundaries.add(boundary);
+			}
+		}
+		boundaries.add(size);
+		long[] result = new long[boundaries.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = boundaries.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the first line start at or after a position.
+	 */
+	private static long findLineStart(FileChannel channel, long size,
+			long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		long offset = position - 1;
+		while (offset < size) {
+			buffer.clear();
+			int n = channel.read(buffer, offset);
+			if (n <= 0) {
+				break;
+			}
+			for (int i = 0; i < n; i++) {
+				byte b = buffer.get(i);
+				if (b == '\n' || b == '\r') {
+					return offset + i + 1;
+				}
+			}
+			offset += n;
+		}
+		return size;
+	}
+
+	private static Chunk parseChunk(FileChannel channel, String filename,
+			long start, long end) throws IOException {
+		ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start,
+				end - start);
+		Chunk chunk = new Chunk((int) ((end - start) / 8) + 16);
+		parseLines(buffer, chunk, filename, start);
+		return chunk;
+	}
+
+	/**
+	 * Parses the lines of a buffer up to its limit.
+	 */
+	private static void parseLines(ByteBuffer buffer, Chunk chunk,
+			String filename, long offset) throws IOException {
+		int limit = buffer.limit();
+		int position = 0;
+		while (position < limit) {
+			int lineEnd = position;
+			while (lineEnd < limit) {
+				byte b = buffer.get(lineEnd);
+				if (b == '\n' || b == '\r') {
+					break;
+				}
+				lineEnd++;
+			}
+			if (lineEnd > position) {
+				parseLine(buffer, position, lineEnd, chunk, filename, offset);
+			}
+			position = lineEnd + 1;
+		}
+	}
+
+	/**
+	 * Checks whether a file is gzip compressed.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @return true if the file starts with the gzip magic number
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static boolean isGzip(String filename) throws IOException {
+		FileInputStream in = new FileInputStream(filename);
+		try {
+			return in.read() == 0x1f && in.read() == 0x8b;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Parses a gzip compressed file. A decompression thread fills blocks of
+	 * text into a bounded queue, and the calling thread parses them as they
+	 * arrive, so decompression and parsing overlap.
+	 */
+	private static SparseMatrix parseCompressed(final String filename)
+			throws IOException {
+		final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<byte[]>(
+				QUEUE_LENGTH);
+		final IOException[] failure = new IOException[1];
+		final InputStream in = new GZIPInputStream(new FileInputStream(
+				filename), 1 << 16);
+		Thread decompressor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						byte[] block = new byte[BLOCK_SIZE];
+						int n = readFully(in, block);
+						if (n == 0) {
+							break;
+						}
+						blocks.put(n < block.length ? Arrays.copyOf(block, n)
+								: block);
+					}
+				} catch (IOException e) {
+					failure[0] = e;
+				} catch (InterruptedException e) {
+					return;
+				}
+				try {
+					blocks.put(END);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}, "decompressor " + filename);
+		decompressor.setDaemon(true);
+		decompressor.start();
+		try {
+			Chunk chunk = new Chunk(BLOCK_SIZE / 8);
+			byte[] carry = new byte[0];
+			long offset = 0;
+			while (true) {
+				byte[] block = blocks.take();
+				if (block == END) {
+					break;
+				}
+				byte[] text = block;
+				if (carry.length > 0) {
+					text = Arrays.copyOf(carry, carry.length + block.length);
+					System.arraycopy(block, 0, text, carry.length, block.length);
+				}
+				// Parse the complete lines, keep the last partial one
+				int end = text.length;
+				while (end > 0 && text[end - 1] != '\n'
+						&& text[end - 1] != '\r') {
+					end--;
+				}
+				parseLines(ByteBuffer.wrap(text, 0, end), chunk, filename,
+						offset);
+				carry = Arrays.copyOfRange(text, end, text.length);
+				offset += end;
+			}
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+			parseLines(ByteBuffer.wrap(carry), chunk, filename, offset);
+			List<Chunk> chunks = new ArrayList<Chunk>();
+			chunks.add(chunk);
+			return concatenate(chunks);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading " + filename, e);
+		} finally {
+			decompressor.interrupt();
+			in.close();
+		}
+	}
+
+	private static int readFully(InputStream in, byte[] block)
+			throws IOException {
+		int n = 0;
+		while (n < block.length) {
+			int read = in.read(block, n, block.length - n);
+			if (read < 0) {
+				break;
+			}
+			n += read;
+		}
+		return n;
+	}
+
+	private static boolean isDelimiter(byte b) {
+		return b == ' ' || b == ':' || b == '[' || b == ']'
+				|| b == '\t';
+	}
+
+	private static void parseLine(ByteBuffer buffer, int from, int to,
+			Chunk chunk, String filename, long offset) throws IOException {
+		int nTokens = 0;
+		boolean inToken = false;
+		for (int i = from; i < to; i++) {
+			boolean delimiter = isDelimiter(buffer.get(i));
+			if (!delimiter && !inToken) {
+				nTokens++;
+			}
+			inToken = !delimiter;
+		}
+		boolean skipLabel = nTokens % 2 != 0;
+		chunk.startRow();
+		int i = from;
+		boolean isIndex = true;
+		while (i < to) {
+			while (i < to && isDelimiter(buffer.get(i))) {
+				i++;
+			}
+			if (i == to) {
+				break;
+			}
+			int tokenStart = i;
+			while (i < to && !isDelimiter(buffer.get(i))) {
+				i++;
+			}
+			if (skipLabel) {
+				skipLabel = false;
+			} else if (isIndex) {
+				chunk.addColumn(parseInt(buffer, tokenStart, i, filename,
+						offset));
+				isIndex = false;
+			} else {
+				chunk.addValue(parseDouble(buffer, tokenStart, i, filename,
+						offset));
+				isIndex = true;
+			}
+		}
+	}
+
+	private static int parseInt(ByteBuffer buffer, int from, int to,
+			String filename, long offset) throws IOException {
+		int i = from;
+		boolean negative = false;
+		if (buffer.get(i) == '-' || buffer.get(i) == '+') {
+			negative = buffer.get(i) == '-';
+			i++;
+		}
+		if (i == to) {
+			throw malformed(buffer, from, to, filename, offset);
+		}
+		long result = 0;
+		for (; i < to; i++) {
+			int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				throw malformed(buffer, from, to, filename, offset);
+			}
+			result = result * 10 + digit;
+			if (result > Integer.MAX_VALUE + 1L) {
+				throw malformed(buffer, from, to, filename, offset);
+			}
+		}
+		result = negative ? -result : result;
+		if (result > Integer.MAX_VALUE) {
+			throw malformed(buffer, from, to, filename, offset);
+		}
+		return (int) result;
+	}
+
+	/**
+	 * Parses a decimal number. Numbers with at most 18 significant digits and
+	 * a decimal exponent of at most 22 in magnitude are converted exactly by a
+	 * single multiplication or division; anything else falls back to
+	 * Double.parseDouble, so the result is always correctly rounded.
+	 */
+	private static double parseDouble(ByteBuffer buffer, int from, int to,
+			String filename, long offset) throws IOException {
+		int i = from;
+		boolean negative = false;
+		if (buffer.get(i) == '-' || buffer.get(i) == '+') {
+			negative = buffer.get(i) == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int nDigits = 0;
+		int exponent = 0;
+		boolean hasDigits = false;
+		boolean truncated = false;
+		for (; i < to; i++) {
+			int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				break;
+			}
+			hasDigits = true;
+			if (nDigits < 18) {
+				mantissa = mantissa * 10 + digit;
+				if (mantissa > 0) {
+					nDigits++;
+				}
+			} else {
+				exponent++;
+				truncated |= digit != 0;
+			}
+		}
+		if (i < to && buffer.get(i) == '.') {
+			for (i++; i < to; i++) {
+				int digit = buffer.get(i) - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				hasDigits = true;
+				if (nDigits < 18) {
+					mantissa = mantissa * 10 + digit;
+					exponent--;
+					if (mantissa > 0) {
+						nDigits++;
+					}
+				} else {
+					truncated |= digit != 0;
+				}
+			}
+		}
+		if (hasDigits && i < to
+				&& (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+				negativeExponent = buffer.get(i) == '-';
+				i++;
+			}
+			int explicitExponent = 0;
+			boolean hasExponentDigits = false;
+			for (; i < to; i++) {
+				int digit = buffer.get(i) - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				hasExponentDigits = true;
+				if (explicitExponent < 100000) {
+					explicitExponent = explicitExponent * 10 + digit;
+				}
+			}
+			if (!hasExponentDigits) {
+				hasDigits = false;
+			}
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+		if (!hasDigits || i < to || truncated) {
+			return parseDoubleSlowly(buffer, from, to, filename, offset);
+		}
+		double result;
+		if (mantissa == 0) {
+			result = 0;
+		} else if (mantissa < MAX_EXACT_MANTISSA && exponent >= 0
+				&& exponent <= 22) {
+			result = mantissa * POWERS_OF_TEN[exponent];
+		} else if (mantissa < MAX_EXACT_MANTISSA && exponent < 0
+				&& exponent >= -22) {
+			result = mantissa / POWERS_OF_TEN[-exponent];
+		} else {
+			return parseDoubleSlowly(buffer, from, to, filename, offset);
+		}
+		return negative ? -result : result;
+	}
+
+	private static double parseDoubleSlowly(ByteBuffer buffer, int from,
+			int to, String filename, long offset) throws IOException {
+		try {
+			return Double.parseDouble(token(buffer, from, to));
+		} catch (NumberFormatException e) {
+			throw malformed(buffer, from, to, filename, offset);
+		}
+	}
+
+	private static String token(ByteBuffer buffer, int from, int to) {
+		byte[] bytes = new byte[to - from];
+		for (int i = from; i < to; i++) {
+			bytes[i - from] = buffer.get(i);
+		}
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	private static IOException malformed(ByteBuffer buffer, int from, int to,
+			String filename, long offset) {
+		return new IOException("Malformed entry \"" + token(buffer, from, to)
+				+ "\" at byte " + (offset + from) + " of " + filename);
+	}
+
+	private static SparseMatrix concatenate(List<Chunk> chunks) {
+		int nRows = 0;
+		int nnz = 0;
+		for (Chunk chunk : chunks) {
+			nRows += chunk.nRows;
+			nnz += chunk.nValues;
+		}
+		int[] rowPointers = new int[nRows + 1];
+		int[] columns = new int[nnz];
+		double[] values = new double[nnz];
+		int row = 0;
+		int position = 0;
+		for (Chunk chunk : chunks) {
+			for (int i = 0; i < chunk.nRows; i++) {
+				rowPointers[row + i] = position + chunk.rowStarts[i];
+			}
+			row += chunk.nRows;
+			System.arraycopy(chunk.columns, 0, columns, position, chunk.nValues);
+			System.arraycopy(chunk.values, 0, values, position, chunk.nValues);
+			position += chunk.nValues;
+		}
+		rowPointers[nRows] = nnz;
+		return new SparseMatrix(rowPointers, columns, values);
+	}
+
+	/**
+	 * The rows parsed from one chunk, in growable primitive arrays.
+	 */
+	private static class Chunk {
+		int[] rowStarts = new int[1024];
+		int nRows = 0;
+		int[] columns;
+		double[] values;
+		int nColumns = 0;
+		int nValues = 0;
+
+		Chunk(int capacity) {
+			columns = new int[capacity];
+			values = new double[capacity];
+		}
+
+		void startRow() {
+			if (nRows == rowStarts.length) {
+				rowStarts = Arrays.copyOf(rowStarts, 2 * nRows);
+			}
+			rowStarts[nRows++] = nValues;
+		}
+
+		void addColumn(int column) {
+			if (nColumns == columns.length) {
+				columns = Arrays.copyOf(columns, 2 * nColumns);
+			}
+			columns[nColumns++] = column;
+		}
+
+		void addValue(double value) {
+			if (nValues == values.length) {
+				values = Arrays.copyOf(values, 2 * nValues);
+			}
+			values[nValues++] = value;
+		}
+	}
+
+}
@@ -0,0 +1,236 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A registry of the counters and phase timers of the engine. The counters
+ * are striped LongAdders, which threads increment without contention, so
+ * they stay on all the time; a distance evaluation costs one increment.
+ * Phases may nest: a construction includes the seed search, a feature space
+ * update the transposition.
+ *
+ * The orders report to the default registry unless given another one. A
+ * registry can be registered as an MXBean to be read over JMX.
+ */
+public class Metrics implements MetricsMXBean {
+
+	public enum counters {
+		distanceCalls, knnCacheHits, knnCacheMisses
+	};
+
+	public enum phases {
+		parse, transpose, seed, construction, foldIn, featureSpaceUpdate, write
+	};
+
+	private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+		@Override
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	};
+
+	private static final Metrics DEFAULT = new Metrics();
+
+	private LongAdder[] counterValues;
+	private Timer[] timers;
+
+	public Metrics() {
+		counterValues = new LongAdder[counters.values().length];
+		for (int i = 0; i < counterValues.length; i++) {
+			counterValues[i] = new LongAdder();
+		}
+		timers = new Timer[phases.values().length];
+		for (int i = 0; i < timers.length; i++) {
+			timers[i] = new Timer();
+		}
+	}
+
+	/**
+	 * Gets the registry the orders report to by default.
+	 *
+	 * @return the default registry
+	 */
+	public static Metrics getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * The number of runs and the total and longest time of a phase.
+	 */
+	public static class Timer {
+		private LongAdder count = new LongAdder();
+		private LongAdder totalNanos = new LongAdder();
+		private LongAccumulator maxNanos = new LongAccumulator(MAX, 0);
+
+		/**
+		 * Starts a run of the phase.
+		 *
+		 * @return the start time to pass to stop
+		 */
+		public long start() {
+			return System.nanoTime();
+		}
+
+		/**
+		 * Ends a run of the phase.
+		 *
+		 * @param start
+		 *            the time start returned
+		 */
+		public void stop(long start) {
+			long time = System.nanoTime() - start;
+			count.increment();
+			totalNanos.add(time);
+			maxNanos.accumulate(time);
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public long getTotalNanos() {
+			return totalNanos.sum();
+		}
+
+		public long getMaxNanos() {
+			return maxNanos.get();
+		}
+
+		void reset() {
+			count.reset();
+			totalNanos.reset();
+			maxNanos.reset();
+		}
+	}
+
+	/**
+	 * Gets a counter to increment.
+	 */
+	public LongAdder getCounter(counters counter) {
+		return counterValues[counter.ordinal()];
+	}
+
+	public long getCount(counters counter) {
+		return counterValues[counter.ordinal()].sum();
+	}
+
+	public Timer getTimer(phases phase) {
+		return timers[phase.ordinal()];
+	}
+
+	@Override
+	public Map<String, Long> getCounters() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (counters counter : counters.values()) {
+			result.put(counter.name(), getCount(counter));
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getPhaseCounts() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (phases phase : phases.values()) {
+			result.put(phase.name(), getTimer(phase).getCount());
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getPhaseMillis() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (phases phase : phases.values()) {
+			result.put(phase.name(), getTimer(phase).getTotalNanos() / 1000000);
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getPhaseMaxMillis() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (phases phase : phases.values()) {
+			result.put(phase.name(), getTimer(phase).getMaxNanos() / 1000000);
+		}
+		return result;
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < counterValues.length; i++) {
+			counterValues[i].reset();
+		}
+		for (int i = 0; i < timers.length; i++) {
+			timers[i].reset();
+		}
+	}
+
+	/**
+	 * Registers the registry with the platform MBean server.
+	 *
+	 * @param name
+	 *            the name of the registry in the object name
+	 * @return the object name
+	 * @throws JMException
+	 *             if the registration fails, for example because the name is
+	 *             taken
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		ObjectName objectName = new ObjectName(
+				"sg.edu.nus.comp.sseriation:type=Metrics,name=" + name);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(this, objectName);
+		return objectName;
+	}
+
+	/**
+	 * Formats the counters and the phases that ran, one per line.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (counters counter : counters.values()) {
+			result.append(counter.name()).append(": ")
+					.append(getCount(counter)).append('\n');
+		}
+		for (phases phase : phases.values()) {
+			Timer timer = getTimer(phase);
+			if (timer.getCount() > 0) {
+				result.append(phase.name()).append(": ")
+						.append(timer.getCount()).append(" runs, ")
+						.append(timer.getTotalNanos() / 1000000)
+						.append(" ms, longest ")
+						.append(timer.getMaxNanos() / 1000000)
+						.append(" ms\n");
+			}
+		}
+		return result.toString();
+	}
+
+}
@@ -0,0 +1,53 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import java.util.Map;
+
+/**
+ * The management interface of the metrics registry, as seen over JMX.
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * Gets the counters by name.
+	 */
+	Map<String, Long> getCounters();
+
+	/**
+	 * Gets the number of runs of every phase.
+	 */
+	Map<String, Long> getPhaseCounts();
+
+	/**
+	 * Gets the total time of every phase in milliseconds.
+	 */
+	Map<String, Long> getPhaseMillis();
+
+	/**
+	 * Gets the longest run of every phase in milliseconds.
+	 */
+	Map<String, Long> getPhaseMaxMillis();
+
+	/**
+	 * Resets the counters and the timers.
+	 */
+	void reset();
+
+}
@@ -0,0 +1,781 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A sparse matrix whose entries live outside the Java heap, in direct
+ * buffers or in memory mapped from a binary matrix file, so that they add
+ * nothing to garbage collection and pages of a mapped file can be evicted by
+ * the operating system. Only the row pointers are kept on the heap. Rows may
+ * be absent, which corresponds to null rows of a VectorNode matrix.
+ *
+ * The entries are stored in segments of 2^27, so a matrix may have more
+ * entries than a single buffer can address. Reads are absolute, so any
+ * number of threads may read the matrix at the same time.
+ *
+ * With a scratch directory, the buffers the matrix allocates are mapped from
+ * temporary files in that directory rather than taken from memory, so that
+ * the whole matrix is backed by files and may exceed the physical memory.
+ *
+ * A matrix never changes once it is built. Appending rows or a column gives
+ * a new matrix, which writes its entries after the end of this one into the
+ * same buffers while they have room, and into buffers of twice the size
+ * otherwise, so that a matrix grown step by step copies every entry a
+ * constant number of times on average. Rows that a column is appended to
+ * move to the end with room to grow, so their entries are no longer
+ * contiguous.
+ */
+public class OffHeapMatrix {
+
+	static final int SEGMENT_SHIFT = 27;
+	static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	/** The starts of the rows, followed by the end of the entries. */
+	private long[] rowPointers;
+	/** The ends of the rows, null if every row ends where the next starts. */
+	private long[] rowEnds;
+	/** The ends up to which the rows may grow in place, with rowEnds. */
+	private long[] rowLimits;
+	private BitSet absent;
+	private ByteBuffer[] columns;
+	private ByteBuffer[] values;
+	/** Where file-backed buffers are created, null for direct buffers. */
+	private File scratchDirectory;
+	/** The number of entries the buffers have room for. */
+	private long capacity;
+	/**
+	 * The generation of the matrix that wrote to the buffers last, shared by
+	 * the matrices that write to them, so that only that matrix appends in
+	 * place.
+	 */
+	private long[] lastGeneration;
+	private long generation;
+
+	OffHeapMatrix(long[] rowPointers, BitSet absent, ByteBuffer[] columns,
+			ByteBuffer[] values, File scratchDirectory) {
+		this.rowPointers = rowPointers;
+		this.absent = absent;
+		this.columns = columns;
+		this.values = values;
+		this.scratchDirectory = scratchDirectory;
+		// Buffers mapped from elsewhere have no room to write to
+		capacity = rowPointers[rowPointers.length - 1];
+		lastGeneration = new long[1];
+	}
+
+	/**
+	 * Gets an empty matrix of a number of rows that writes its entries after
+	 * the end of this one, and into the room of its rows: into the buffers of
+	 * this matrix if it wrote to them last and they have room for the
+	 * entries, and into copies of twice the size otherwise.
+	 *
+	 * @param nRows
+	 *            the number of rows
+	 * @param nEntries
+	 *            the number of entries to be written at most
+	 * @return the matrix, whose rows and pointers are to be filled in
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private OffHeapMatrix extend(int nRows, long nEntries) throws IOException {
+		long end = getLimit();
+		OffHeapMatrix result = new OffHeapMatrix(new long[nRows + 1], absent
+				.get(0, Math.max(getnRows(), 1)), columns, values,
+				scratchDirectory);
+		result.capacity = capacity;
+		result.lastGeneration = lastGeneration;
+		if (lastGeneration[0] != generation || end + nEntries > capacity) {
+			result.capacity = Math.max(2 * capacity, end + nEntries);
+			result.columns = allocate(result.capacity, 4, scratchDirectory);
+			result.values = allocate(result.capacity, 8, scratchDirectory);
+			copy(columns, result.columns, end, 4);
+			copy(values, result.values, end, 8);
+			result.lastGeneration = new long[1];
+		}
+		result.generation = ++result.lastGeneration[0];
+		return result;
+	}
+
+	/**
+	 * Copies the first entries of one set of segments to another, in bulk if
+	 * they have the same byte order.
+	 */
+	private static void copy(ByteBuffer[] from, ByteBuffer[] to,
+			long nEntries, int entrySize) {
+		for (int s = 0; s < countSegments(nEntries); s++) {
+			int length = getSegmentLength(nEntries, s) * entrySize;
+			if (length == 0) {
+				continue;
+			}
+			if (from[s].order() == to[s].order()) {
+				ByteBuffer source = from[s].duplicate();
+				source.position(0).limit(length);
+				ByteBuffer target = to[s].duplicate();
+				target.position(0);
+				target.put(source);
+			} else if (entrySize == 4) {
+				for (int i = 0; i < length; i += 4) {
+					to[s].putInt(i, from[s].getInt(i));
+				}
+			} else {
+				for (int i = 0; i < length; i += 8) {
+					to[s].putDouble(i, from[s].getDouble(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the position after the entries of this matrix.
+	 */
+	private long getLimit() {
+		return rowPointers[rowPointers.length - 1];
+	}
+
+	/**
+	 * Allocates direct buffers for a number of entries.
+	 *
+	 * @param nEntries
+	 *            the number of entries
+	 * @param entrySize
+	 *            the size of an entry in bytes
+	 * @return the segments
+	 */
+	static ByteBuffer[] allocate(long nEntries, int entrySize) {
+		ByteBuffer[] result = new ByteBuffer[countSegments(nEntries)];
+		for (int s = 0; s < result.length; s++) {
+			result[s] = ByteBuffer.allocateDirect(
+					getSegmentLength(nEntries, s) * entrySize).order(
+					ByteOrder.nativeOrder());
+		}
+		return result;
+	}
+
+	/**
+	 * Allocates buffers for a number of entries, mapped from a temporary file
+	 * if a scratch directory is given. The file is deleted at once where the
+	 * operating system allows it, and on exit otherwise.
+	 *
+	 * @param nEntries
+	 *            the number of entries
+	 * @param entrySize
+	 *            the size of an entry in bytes
+	 * @param scratchDirectory
+	 *            the directory of the file, or null for direct buffers
+	 * @return the segments
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static ByteBuffer[] allocate(long nEntries, int entrySize,
+			File scratchDirectory) throws IOException {
+		if (scratchDirectory == null) {
+			return allocate(nEntries, entrySize);
+		}
+		File file = File.createTempFile("offheap", ".tmp", scratchDirectory);
+		RandomAccessFile scratch = new RandomAccessFile(file, "rw");
+		try {
+			scratch.setLength(nEntries * entrySize);
+			ByteBuffer[] result = new ByteBuffer[countSegments(nEntries)];
+			for (int s = 0; s < result.length; s++) {
+				result[s] = scratch.getChannel().map(
+						FileChannel.MapMode.READ_WRITE,
+						((long) s << SEGMENT_SHIFT) * entrySize,
+						(long) getSegmentLength(nEntries, s) * entrySize);
+				result[s].order(ByteOrder.nativeOrder());
+			}
+			return result;
+		} finally {
+			scratch.close();
+			if (!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+	}
+
+	static int countSegments(long nEntries) {
+		return Math.max(
+				(int) ((nEntries + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT), 1);
+	}
+
+	static int getSegmentLength(long nEntries, int segment) {
+		return (int) Math.max(Math.min(SEGMENT_SIZE, nEntries
+				- ((long) segment << SEGMENT_SHIFT)), 0);
+	}
+
+	/**
+	 * Copies a matrix of vector nodes off the heap.
+	 *
+	 * @param mx
+	 *            the sparse matrix
+	 * @return the off-heap matrix
+	 */
+	public static OffHeapMatrix fromVectorNodes(VectorNode[][] mx) {
+		long[] rowPointers = new long[mx.length + 1];
+		BitSet absent = new BitSet(mx.length);
+		for (int i = 0; i < mx.length; i++) {
+			rowPointers[i + 1] = rowPointers[i];
+			if (mx[i] == null) {
+				absent.set(i);
+			} else {
+				rowPointers[i + 1] += mx[i].length;
+			}
+		}
+		ByteBuffer[] columns = allocate(rowPointers[mx.length], 4);
+		ByteBuffer[] values = allocate(rowPointers[mx.length], 8);
+		for (int i = 0; i < mx.length; i++) {
+			for (long j = rowPointers[i]; j < rowPointers[i + 1]; j++) {
+				VectorNode node = mx[i][(int) (j - rowPointers[i])];
+				putColumn(columns, j, node.index);
+				putValue(values, j, node.value);
+			}
+		}
+		return new OffHeapMatrix(rowPointers, absent, columns, values, null);
+	}
+
+	/**
+	 * Copies a compressed sparse row matrix off the heap.
+	 *
+	 * @param mx
+	 *            the matrix
+	 * @param scratchDirectory
+	 *            the directory of file-backed buffers, or null
+	 * @return the off-heap matrix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static OffHeapMatrix fromSparseMatrix(SparseMatrix mx,
+			File scratchDirectory) throws IOException {
+		int nRows = mx.getnRows();
+		int[] pointers = mx.getRowPointers();
+		int[] sourceColumns = mx.getColumns();
+		double[] sourceValues = mx.getValues();
+		long[] rowPointers = new long[nRows + 1];
+		for (int i = 0; i <= nRows; i++) {
+			rowPointers[i] = pointers[i];
+		}
+		ByteBuffer[] columns = allocate(rowPointers[nRows], 4,
+				scratchDirectory);
+		ByteBuffer[] values = allocate(rowPointers[nRows], 8,
+				scratchDirectory);
+		for (int j = 0; j < pointers[nRows]; j++) {
+			putColumn(columns, j, sourceColumns[j]);
+			putValue(values, j, sourceValues[j]);
+		}
+		return new OffHeapMatrix(rowPointers, new BitSet(nRows), columns,
+				values, scratchDirectory);
+	}
+
+	/**
+	 * Reads a matrix off the heap. A binary matrix file is mapped, other
+	 * files are parsed and copied.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @return the off-heap matrix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static OffHeapMatrix read(String filename) throws IOException {
+		return read(filename, null);
+	}
+
+	/**
+	 * Reads a matrix off the heap, with file-backed buffers in a scratch
+	 * directory. Only a binary matrix file is read without passing through
+	 * the heap.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @param scratchDirectory
+	 *            the directory of file-backed buffers, or null for direct
+	 *            buffers
+	 * @return the off-heap matrix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static OffHeapMatrix read(String filename, File scratchDirectory)
+			throws IOException {
+		return read(filename, scratchDirectory, Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * Reads a matrix off the heap, as read(filename, scratchDirectory) does.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @param scratchDirectory
+	 *            the directory of file-backed buffers, or null for direct
+	 *            buffers
+	 * @param nThreads
+	 *            the number of parser threads
+	 * @return the off-heap matrix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static OffHeapMatrix read(String filename, File scratchDirectory,
+			int nThreads) throws IOException {
+		if (SparseMatrixFile.isSparseMatrixFile(filename)) {
+			return SparseMatrixFile.readOffHeap(filename, false,
+					scratchDirectory);
+		}
+		return fromSparseMatrix(LibsvmParser.parse(filename, nThreads),
+				scratchDirectory);
+	}
+
+	/**
+	 * Reads the transpose of a matrix off the heap, with the same rows as
+	 * SparseVector.readTransposedSparseMatrix: column 0 is dropped if it is
+	 * empty, and empty columns are absent.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @return the transposed off-heap matrix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static OffHeapMatrix readTransposed(String filename)
+			throws IOException {
+		return readTransposed(filename, null);
+	}
+
+	/**
+	 * Reads the transpose of a matrix off the heap, with file-backed buffers
+	 * in a scratch directory. Only a binary matrix file with a column-major
+	 * section is read without passing through the heap.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @param scratchDirectory
+	 *            the directory of file-backed buffers, or null for direct
+	 *            buffers
+	 * @return the transposed off-heap matrix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static OffHeapMatrix readTransposed(String filename,
+			File scratchDirectory) throws IOException {
+		return readTransposed(filename, scratchDirectory, Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * Reads the transpose of a matrix off the heap, as
+	 * readTransposed(filename, scratchDirectory) does.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @param scratchDirectory
+	 *            the directory of file-backed buffers, or null for direct
+	 *            buffers
+	 * @param nThreads
+	 *            the number of parser threads
+	 * @return the transposed off-heap matrix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static OffHeapMatrix readTransposed(String filename,
+			File scratchDirectory, int nThreads) throws IOException {
+		OffHeapMatrix columns = null;
+		boolean binary = SparseMatrixFile.isSparseMatrixFile(filename);
+		if (binary) {
+			columns = SparseMatrixFile.readOffHeap(filename, true,
+					scratchDirectory);
+		}
+		if (columns == null) {
+			SparseMatrix mx = binary ? SparseMatrixFile.read(filename)
+					: LibsvmParser.parse(filename, nThreads);
+			int nColumns = 0;
+			for (int j = 0; j < mx.getnNonZeros(); j++) {
+				nColumns = Math.max(nColumns, mx.getColumns()[j] + 1);
+			}
+			columns = fromSparseMatrix(mx.transpose(nColumns),
+					scratchDirectory);
+		}
+		int nColumns = columns.getnRows();
+		for (int c = 0; c < nColumns; c++) {
+			if (columns.getLength(c) == 0) {
+				columns.absent.set(c);
+			}
+		}
+		if (nColumns > 0 && columns.absent.get(0)) {
+			columns.dropFirstRow();
+		}
+		return columns;
+	}
+
+	private void dropFirstRow() {
+		rowPointers = Arrays.copyOfRange(rowPointers, 1, rowPointers.length);
+		if (rowEnds != null) {
+			rowEnds = Arrays.copyOfRange(rowEnds, 1, rowEnds.length);
+			rowLimits = Arrays.copyOfRange(rowLimits, 1, rowLimits.length);
+		}
+		absent = absent.get(1, Math.max(absent.length(), 1));
+	}
+
+	/**
+	 * Appends rows. This matrix stays as it is, and the entries are only
+	 * copied if the buffers have no room for the new rows.
+	 *
+	 * @param rows
+	 *            the new rows
+	 * @return the extended matrix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public OffHeapMatrix append(VectorNode[][] rows) throws IOException {
+		int nRows = getnRows();
+		long nEntries = 0;
+		for (int i = 0; i < rows.length; i++) {
+			if (rows[i] != null) {
+				nEntries += rows[i].length;
+			}
+		}
+		OffHeapMatrix result = extend(nRows + rows.length, nEntries);
+		long[] pointers = result.rowPointers;
+		System.arraycopy(rowPointers, 0, pointers, 0, rowPointers.length);
+		if (rowEnds != null) {
+			result.rowEnds = Arrays.copyOf(rowEnds, nRows + rows.length);
+			result.rowLimits = Arrays.copyOf(rowLimits, nRows + rows.length);
+		}
+		for (int i = 0; i < rows.length; i++) {
+			pointers[nRows + i + 1] = pointers[nRows + i];
+			if (rows[i] == null) {
+				result.absent.set(nRows + i);
+			} else {
+				pointers[nRows + i + 1] += rows[i].length;
+			}
+			for (long j = pointers[nRows + i]; j < pointers[nRows + i + 1]; j++) {
+				VectorNode node = rows[i][(int) (j - pointers[nRows + i])];
+				putColumn(result.columns, j, node.index);
+				putValue(result.values, j, node.value);
+			}
+			if (result.rowEnds != null) {
+				result.rowEnds[nRows + i] = pointers[nRows + i + 1];
+				result.rowLimits[nRows + i] = pointers[nRows + i + 1];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Appends a column, as SparseVector.transpose would give it for a new row
+	 * of the transposed matrix: every entry (j, v) of the row appends the
+	 * entry (column, v) to row j - offset of this matrix, or adds v to it if
+	 * the row already has it. Rows that become non-empty are present. This
+	 * matrix stays as it is; a row that has no room for the entry is moved
+	 * to the end with twice the room, and only the moved rows are copied.
+	 *
+	 * @param column
+	 *            the column, larger than the column indices of the rows
+	 * @param row
+	 *            the new row of the transposed matrix, null if empty
+	 * @param offset
+	 *            what is subtracted from the indices of the row
+	 * @return the extended matrix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public OffHeapMatrix appendColumn(int column, VectorNode[] row, int offset)
+			throws IOException {
+		int nRows = getnRows();
+		int newnRows = nRows;
+		long nEntries = 0;
+		if (row != null) {
+			for (int k = 0; k < row.length; k++) {
+				int x = row[k].index - offset;
+				newnRows = Math.max(newnRows, x + 1);
+				int length = x < nRows ? getLength(x) : 0;
+				nEntries += Math.max(2 * (length + 1), 4);
+			}
+		}
+		OffHeapMatrix result = extend(newnRows, nEntries);
+		long[] starts = result.rowPointers;
+		long[] ends = new long[newnRows];
+		long[] limits = new long[newnRows];
+		for (int x = 0; x < nRows; x++) {
+			starts[x] = rowPointers[x];
+			ends[x] = getEnd(x);
+			limits[x] = rowLimits != null ? rowLimits[x] : ends[x];
+		}
+		for (int x = nRows; x < newnRows; x++) {
+			result.absent.set(x);
+		}
+		long end = getLimit();
+		if (row != null) {
+			for (int k = 0; k < row.length; k++) {
+				int x = row[k].index - offset;
+				if (ends[x] > starts[x]
+						&& result.getColumn(ends[x] - 1) == column) {
+					// The entry was appended by this call
+					result.putValue(ends[x] - 1, result.getValue(ends[x] - 1)
+							+ row[k].value);
+					continue;
+				}
+				if (ends[x] == limits[x]) {
+					long length = ends[x] - starts[x];
+					long room = Math.max(2 * (length + 1), 4);
+					for (long j = 0; j < length; j++) {
+						putColumn(result.columns, end + j, result
+								.getColumn(starts[x] + j));
+						putValue(result.values, end + j, result
+								.getValue(starts[x] + j));
+					}
+					starts[x] = end;
+					ends[x] = end + length;
+					limits[x] = end + room;
+					end += room;
+				}
+				putColumn(result.columns, ends[x], column);
+				putValue(result.values, ends[x], row[k].value);
+				ends[x]++;
+				result.absent.clear(x);
+			}
+		}
+		starts[newnRows] = end;
+		result.rowEnds = ends;
+		result.rowLimits = limits;
+		return result;
+	}
+
+	private void putValue(long j, double value) {
+		putValue(values, j, value);
+	}
+
+	/**
+	 * Transposes the rows of the matrix in a new order, without copying them
+	 * to the heap. Row i of the reordered matrix is row rowOrder[i], or empty
+	 * if rowOrder[i] is negative, and the
+	 * entries of every row of the result are in increasing order of their
+	 * index. The buffers are allocated as those of this matrix.
+	 *
+	 * @param rowOrder
+	 *            the rows in their new order
+	 * @param nColumns
+	 *            the number of rows of the result, at least one more than the
+	 *            largest column index
+	 * @return the transposed matrix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public OffHeapMatrix transpose(int[] rowOrder, int nColumns)
+			throws IOException {
+		long[] columnPointers = new long[nColumns + 1];
+		for (int i = 0; i < rowOrder.length; i++) {
+			if (rowOrder[i] >= 0 && isPresent(rowOrder[i])) {
+				for (long j = getStart(rowOrder[i]); j < getEnd(rowOrder[i]); j++) {
+					columnPointers[getColumn(j) + 1]++;
+				}
+			}
+		}
+		for (int c = 0; c < nColumns; c++) {
+			columnPointers[c + 1] += columnPointers[c];
+		}
+		long[] next = columnPointers.clone();
+		ByteBuffer[] rows = allocate(columnPointers[nColumns], 4,
+				scratchDirectory);
+		ByteBuffer[] columnValues = allocate(columnPointers[nColumns], 8,
+				scratchDirectory);
+		for (int i = 0; i < rowOrder.length; i++) {
+			if (rowOrder[i] >= 0 && isPresent(rowOrder[i])) {
+				for (long j = getStart(rowOrder[i]); j < getEnd(rowOrder[i]); j++) {
+					long position = next[getColumn(j)]++;
+					putColumn(rows, position, i);
+					putValue(columnValues, position, getValue(j));
+				}
+			}
+		}
+		return new OffHeapMatrix(columnPointers, new BitSet(nColumns), rows,
+				columnValues, scratchDirectory);
+	}
+
+	/**
+	 * Transposes the matrix with the same rows as SparseVector.transpose,
+	 * without copying it to the heap: column 0 is dropped if no row has an
+	 * entry in it, and empty columns are absent.
+	 *
+	 * @return the transposed matrix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public OffHeapMatrix transpose() throws IOException {
+		int[] rowOrder = new int[getnRows()];
+		for (int i = 0; i < rowOrder.length; i++) {
+			rowOrder[i] = i;
+		}
+		OffHeapMatrix result = transpose(rowOrder, findMaxColumnIndex() + 1);
+		for (int c = 0; c < result.getnRows(); c++) {
+			if (result.getLength(c) == 0) {
+				result.absent.set(c);
+			}
+		}
+		if (result.absent.get(0)) {
+			result.dropFirstRow();
+		}
+		return result;
+	}
+
+	static void putColumn(ByteBuffer[] segments, long j, int column) {
+		segments[(int) (j >>> SEGMENT_SHIFT)].putInt(
+				((int) j & SEGMENT_MASK) << 2, column);
+	}
+
+	static void putValue(ByteBuffer[] segments, long j, double value) {
+		segments[(int) (j >>> SEGMENT_SHIFT)].putDouble(
+				((int) j & SEGMENT_MASK) << 3, value);
+	}
+
+	public int getnRows() {
+		return rowPointers.length - 1;
+	}
+
+	/**
+	 * Checks whether a row is present.
+	 *
+	 * @param x
+	 *            the row
+	 * @return false if the row is absent, true otherwise
+	 */
+	public boolean isPresent(int x) {
+		return !absent.get(x);
+	}
+
+	/**
+	 * Gets the position of the first entry of a row.
+	 */
+	public long getStart(int x) {
+		return rowPointers[x];
+	}
+
+	/**
+	 * Gets the position after the last entry of a row.
+	 */
+	public long getEnd(int x) {
+		return rowEnds != null ? rowEnds[x] : rowPointers[x + 1];
+	}
+
+	public int getLength(int x) {
+		return (int) (getEnd(x) - rowPointers[x]);
+	}
+
+	/**
+	 * Gets the column index of an entry.
+	 *
+	 * @param j
+	 *            the position of the entry
+	 * @return the column index
+	 */
+	public int getColumn(long j) {
+		return columns[(int) (j >>> SEGMENT_SHIFT)]
+				.getInt(((int) j & SEGMENT_MASK) << 2);
+	}
+
+	/**
+	 * Gets the value of an entry.
+	 *
+	 * @param j
+	 *            the position of the entry
+	 * @return the value
+	 */
+	public double getValue(long j) {
+		return values[(int) (j >>> SEGMENT_SHIFT)]
+				.getDouble(((int) j & SEGMENT_MASK) << 3);
+	}
+
+	/**
+	 * Copies a row to the heap.
+	 *
+	 * @param x
+	 *            the row
+	 * @return the row, null if it is absent
+	 */
+	public VectorNode[] getRow(int x) {
+		if (absent.get(x)) {
+			return null;
+		}
+		VectorNode[] result = new VectorNode[getLength(x)];
+		for (int j = 0; j < result.length; j++) {
+			result[j] = new VectorNode(getColumn(rowPointers[x] + j),
+					getValue(rowPointers[x] + j));
+		}
+		return result;
+	}
+
+	/**
+	 * Copies the matrix to the heap.
+	 *
+	 * @return the sparse matrix
+	 */
+	public VectorNode[][] toVectorNodes() {
+		VectorNode[][] result = new VectorNode[getnRows()][];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = getRow(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Counts the entries of all rows.
+	 */
+	public long countNonZeros() {
+		long result = 0;
+		for (int i = 0; i < getnRows(); i++) {
+			result += getLength(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the largest column index as SparseVector.findMaxColumnIndex.
+	 */
+	public int findMaxColumnIndex() {
+		int result = 0;
+		for (int i = 0; i < getnRows(); i++) {
+			for (long j = rowPointers[i]; j < getEnd(i); j++) {
+				result = Math.max(result, getColumn(j));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the smallest first column index of the rows as
+	 * SparseVector.findMinColumnIndex.
+	 */
+	public int findMinColumnIndex() {
+		int result = Integer.MAX_VALUE;
+		for (int i = 0; i < getnRows(); i++) {
+			if (!absent.get(i) && getLength(i) > 0) {
+				result = Math.min(result, getColumn(rowPointers[i]));
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,186 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The result of a biseriation as a pair of permutations: the row indices and
+ * the column indices of the input matrix in their new order, optionally with
+ * the scales, the cumulative distances along each order. The binary file is
+ * big-endian:
+ *
+ * <pre>
+ * int       magic number "PERM"
+ * int       version
+ * int       flags: 1 if the row scale is stored, 2 if the column scale is
+ * int       number of rows n
+ * int       number of columns m
+ * int[n]    row permutation
+ * int[m]    column permutation
+ * double[n] row scale, if flagged
+ * double[m] column scale, if flagged
+ * </pre>
+ */
+public class PermutationFile {
+
+	private static final int MAGIC = 0x5045524D;
+	private static final int VERSION = 1;
+	private static final int ROW_SCALE = 1;
+	private static final int COLUMN_SCALE = 2;
+
+	private int[] rowOrder;
+	private int[] columnOrder;
+	private double[] rowScale;
+	private double[] columnScale;
+
+	/**
+	 * Instantiates a new permutation file.
+	 *
+	 * @param rowOrder
+	 *            the row indices in their new order
+	 * @param columnOrder
+	 *            the column indices in their new order
+	 * @param rowScale
+	 *            the row scale, or null
+	 * @param columnScale
+	 *            the column scale, or null
+	 */
+	public PermutationFile(int[] rowOrder, int[] columnOrder,
+			double[] rowScale, double[] columnScale) {
+		this.rowOrder = rowOrder;
+		this.columnOrder = columnOrder;
+		this.rowScale = rowScale;
+		this.columnScale = columnScale;
+	}
+
+	/**
+	 * Writes the permutations.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void write(String filename) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(filename), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt((rowScale != null ? ROW_SCALE : 0)
+					| (columnScale != null ? COLUMN_SCALE : 0));
+			out.writeInt(rowOrder.length);
+			out.writeInt(columnOrder.length);
+			for (int i = 0; i < rowOrder.length; i++) {
+				out.writeInt(rowOrder[i]);
+			}
+			for (int i = 0; i < columnOrder.length; i++) {
+				out.writeInt(columnOrder[i]);
+			}
+			if (rowScale != null) {
+				for (int i = 0; i < rowScale.length; i++) {
+					out.writeDouble(rowScale[i]);
+				}
+			}
+			if (columnScale != null) {
+				for (int i = 0; i < columnScale.length; i++) {
+					out.writeDouble(columnScale[i]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads permutations written by {@link #write(String)}.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @return the permutations
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred, or the file is
+	 *             not a permutation file.
+	 */
+	public static PermutationFile read(String filename) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(filename), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(filename + " is not a permutation file.");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported permutation file version "
+						+ version + " in " + filename + ".");
+			}
+			int flags = in.readInt();
+			int[] rowOrder = new int[in.readInt()];
+			int[] columnOrder = new int[in.readInt()];
+			for (int i = 0; i < rowOrder.length; i++) {
+				rowOrder[i] = in.readInt();
+			}
+			for (int i = 0; i < columnOrder.length; i++) {
+				columnOrder[i] = in.readInt();
+			}
+			double[] rowScale = null;
+			if ((flags & ROW_SCALE) != 0) {
+				rowScale = new double[rowOrder.length];
+				for (int i = 0; i < rowScale.length; i++) {
+					rowScale[i] = in.readDouble();
+				}
+			}
+			double[] columnScale = null;
+			if ((flags & COLUMN_SCALE) != 0) {
+				columnScale = new double[columnOrder.length];
+				for (int i = 0; i < columnScale.length; i++) {
+					columnScale[i] = in.readDouble();
+				}
+			}
+			return new PermutationFile(rowOrder, columnOrder, rowScale,
+					columnScale);
+		} finally {
+			in.close();
+		}
+	}
+
+	public int[] getRowOrder() {
+		return rowOrder;
+	}
+
+	public int[] getColumnOrder() {
+		return columnOrder;
+	}
+
+	public double[] getRowScale() {
+		return rowScale;
+	}
+
+	public double[] getColumnScale() {
+		return columnScale;
+	}
+
+}
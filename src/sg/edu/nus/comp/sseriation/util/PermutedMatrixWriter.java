@@ -0,0 +1,167 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes a biseriated matrix in libsvm format straight from the source rows,
+ * without building the rearranged or transposed matrix. Row i of the output
+ * is row rowOrder[i] of the source, and column columnOrder[j] of the source
+ * becomes column j.
+ */
+public class PermutedMatrixWriter {
+
+	/**
+	 * Writes the permuted matrix.
+	 *
+	 * @param mx
+	 *            the source matrix
+	 * @param rowOrder
+	 *            the source rows in their new order
+	 * @param columnOrder
+	 *            the source columns in their new order
+	 * @param filename
+	 *            the file name
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void write(VectorNode[][] mx, int[] rowOrder,
+			int[] columnOrder, String filename) throws IOException {
+		write(mx, rowOrder, columnOrder, filename, false);
+	}
+
+	/**
+	 * Writes the permuted matrix, optionally gzip compressed. Compression and
+	 * output run on a background thread.
+	 * 
+	 * @param mx
+	 *            the source matrix
+	 * @param rowOrder
+	 *            the source rows in their new order
+	 * @param columnOrder
+	 *            the source columns in their new order
+	 * @param filename
+	 *            the file name
+	 * @param compress
+	 *            whether the file is gzip compressed
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void write(VectorNode[][] mx, int[] rowOrder,
+			int[] columnOrder, String filename, boolean compress)
+			throws IOException {
+		int[] newColumn = invert(columnOrder);
+		TextBlockWriter out = new TextBlockWriter(filename, compress);
+		try {
+			long[] entries = new long[16];
+			for (int i = 0; i < rowOrder.length; i++) {
+				VectorNode[] row = mx[rowOrder[i]];
+				if (row != null) {
+					if (entries.length < row.length) {
+						entries = new long[row.length];
+					}
+					// New column in the high, position in the low half
+					for (int j = 0; j < row.length; j++) {
+						entries[j] = ((long) newColumn[row[j].index] << 32) | j;
+					}
+					Arrays.sort(entries, 0, row.length);
+					for (int j = 0; j < row.length; j++) {
+						if (j > 0) {
+							out.write(' ');
+						}
+						out.write(entries[j] >>> 32);
+						out.write(':');
+						out.write(row[(int) entries[j]].value);
+					}
+				}
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the permuted matrix from rows stored off the heap, optionally
+	 * gzip compressed.
+	 * 
+	 * @param mx
+	 *            the source matrix
+	 * @param rowOrder
+	 *            the source rows in their new order
+	 * @param columnOrder
+	 *            the source columns in their new order
+	 * @param filename
+	 *            the file name
+	 * @param compress
+	 *            whether the file is gzip compressed
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void write(OffHeapMatrix mx, int[] rowOrder,
+			int[] columnOrder, String filename, boolean compress)
+			throws IOException {
+		int[] newColumn = invert(columnOrder);
+		TextBlockWriter out = new TextBlockWriter(filename, compress);
+		try {
+			long[] entries = new long[16];
+			for (int i = 0; i < rowOrder.length; i++) {
+				if (mx.isPresent(rowOrder[i])) {
+					long start = mx.getStart(rowOrder[i]);
+					int length = mx.getLength(rowOrder[i]);
+					if (entries.length < length) {
+						entries = new long[length];
+					}
+					for (int j = 0; j < length; j++) {
+						entries[j] = ((long) newColumn[mx.getColumn(start + j)] << 32)
+								| j;
+					}
+					Arrays.sort(entries, 0, length);
+					for (int j = 0; j < length; j++) {
+						if (j > 0) {
+							out.write(' ');
+						}
+						out.write(entries[j] >>> 32);
+						out.write(':');
+						out.write(mx.getValue(start + (int) entries[j]));
+					}
+				}
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static int[] invert(int[] columnOrder) {
+		int nColumns = 0;
+		for (int j = 0; j < columnOrder.length; j++) {
+			nColumns = Math.max(nColumns, columnOrder[j] + 1);
+		}
+		int[] result = new int[nColumns];
+		Arrays.fill(result, -1);
+		for (int j = 0; j < columnOrder.length; j++) {
+			result[columnOrder[j]] = j;
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,142 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+/**
+ * A sparse matrix in compressed sparse row format. The entries of row i are
+ * columns[rowPointers[i]] to columns[rowPointers[i + 1] - 1] with the
+ * matching values, in the order they were read.
+ */
+public class SparseMatrix {
+
+	private int[] rowPointers;
+	private int[] columns;
+	private double[] values;
+
+	/**
+	 * Instantiates a new sparse matrix.
+	 *
+	 * @param rowPointers
+	 *            the start of every row, followed by the number of entries
+	 * @param columns
+	 *            the column indices of the entries
+	 * @param values
+	 *            the values of the entries
+	 */
+	public SparseMatrix(int[] rowPointers, int[] columns, double[] values) {
+		this.rowPointers = rowPointers;
+		this.columns = columns;
+		this.values = values;
+	}
+
+	/**
+	 * Converts a row-first matrix of vector nodes. Null rows become empty
+	 * rows.
+	 *
+	 * @param mx
+	 *            the sparse matrix
+	 * @return the matrix in compressed sparse row format
+	 */
+	public static SparseMatrix fromVectorNodes(VectorNode[][] mx) {
+		int[] rowPointers = new int[mx.length + 1];
+		for (int i = 0; i < mx.length; i++) {
+			rowPointers[i + 1] = rowPointers[i]
+					+ (mx[i] == null ? 0 : mx[i].length);
+		}
+		int[] columns = new int[rowPointers[mx.length]];
+		double[] values = new double[columns.length];
+		for (int i = 0; i < mx.length; i++) {
+			for (int j = rowPointers[i]; j < rowPointers[i + 1]; j++) {
+				columns[j] = mx[i][j - rowPointers[i]].index;
+				values[j] = mx[i][j - rowPointers[i]].value;
+			}
+		}
+		return new SparseMatrix(rowPointers, columns, values);
+	}
+
+	/**
+	 * Converts the matrix to the row-first vector nodes the distance
+	 * functions work on.
+	 *
+	 * @return the sparse matrix
+	 */
+	public VectorNode[][] toVectorNodes() {
+		VectorNode[][] result = new VectorNode[getnRows()][];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = new VectorNode[rowPointers[i + 1] - rowPointers[i]];
+			for (int j = 0; j < result[i].length; j++) {
+				result[i][j] = new VectorNode(columns[rowPointers[i] + j],
+						values[rowPointers[i] + j]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Transposes the matrix. The entries of every row of the result are in
+	 * increasing order of their index.
+	 *
+	 * @param nColumns
+	 *            the number of rows of the result, at least one more than the
+	 *            largest column index
+	 * @return the transposed matrix
+	 */
+	public SparseMatrix transpose(int nColumns) {
+		int nnz = getnNonZeros();
+		int[] columnPointers = new int[nColumns + 1];
+		for (int j = 0; j < nnz; j++) {
+			columnPointers[columns[j] + 1]++;
+		}
+		for (int c = 0; c < nColumns; c++) {
+			columnPointers[c + 1] += columnPointers[c];
+		}
+		int[] next = columnPointers.clone();
+		int[] rows = new int[nnz];
+		double[] columnValues = new double[nnz];
+		for (int i = 0; i < getnRows(); i++) {
+			for (int j = rowPointers[i]; j < rowPointers[i + 1]; j++) {
+				int position = next[columns[j]]++;
+				rows[position] = i;
+				columnValues[position] = values[j];
+			}
+		}
+		return new SparseMatrix(columnPointers, rows, columnValues);
+	}
+
+	public int getnRows() {
+		return rowPointers.length - 1;
+	}
+
+	public int getnNonZeros() {
+		return rowPointers[rowPointers.length - 1];
+	}
+
+	public int[] getRowPointers() {
+		return rowPointers;
+	}
+
+	public int[] getColumns() {
+		return columns;
+	}
+
+	public double[] getValues() {
+		return values;
+	}
+
+}
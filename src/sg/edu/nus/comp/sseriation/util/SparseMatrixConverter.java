@@ -0,0 +1,102 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Converts sparse matrices between the libsvm text format and the binary
+ * format of {@link SparseMatrixFile}. The direction is given by the input:
+ * a binary input is written as text, a text input as binary.
+ */
+public class SparseMatrixConverter {
+
+	/**
+	 * @param args
+	 *            [--float] [--columns] input output
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void main(String[] args) throws IOException {
+		int flags = 0;
+		int argc = 0;
+		while (args.length > argc && args[argc].startsWith("--")) {
+			if (args[argc].equals("--float")) {
+				flags |= SparseMatrixFile.SINGLE_PRECISION;
+			} else if (args[argc].equals("--columns")) {
+				flags |= SparseMatrixFile.COLUMN_MAJOR;
+			} else {
+				throw new IllegalArgumentException("Unknown option "
+						+ args[argc]);
+			}
+			argc++;
+		}
+		if (args.length - argc != 2) {
+			throw new IllegalArgumentException(
+					"Usage: SparseMatrixConverter [--float] [--columns] input output");
+		}
+		String input = args[argc];
+		String output = args[argc + 1];
+		long start = System.currentTimeMillis();
+		if (SparseMatrixFile.isSparseMatrixFile(input)) {
+			writeLibsvm(SparseMatrixFile.read(input), output);
+		} else {
+			SparseMatrixFile.write(LibsvmParser.parse(input), output, flags);
+		}
+		System.out.println("Converted " + input + " to " + output + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Writes a matrix in libsvm format without labels, one row per line.
+	 *
+	 * @param mx
+	 *            the matrix
+	 * @param filename
+	 *            the file name
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void writeLibsvm(SparseMatrix mx, String filename)
+			throws IOException {
+		Writer out = new BufferedWriter(new FileWriter(filename), 1 << 16);
+		try {
+			int[] rowPointers = mx.getRowPointers();
+			int[] columns = mx.getColumns();
+			double[] values = mx.getValues();
+			for (int i = 0; i < mx.getnRows(); i++) {
+				for (int j = rowPointers[i]; j < rowPointers[i + 1]; j++) {
+					if (j > rowPointers[i]) {
+						out.write(' ');
+					}
+					out.write(Integer.toString(columns[j]));
+					out.write(':');
+					out.write(Double.toString(values[j]));
+				}
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,644 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * Binary sparse matrix format. All numbers are big-endian. The file starts
+ * with a header:
+ *
+ * <pre>
+ * int   magic number "SPMX"
+ * int   version
+ * int   flags: 1 if values are floats rather than doubles,
+ *              2 if a column-major section follows the row-major one
+ * int   number of rows
+ * int   number of columns, one more than the largest column index
+ * long  number of entries
+ * </pre>
+ *
+ * followed by the row-major section and, if flagged, the column-major
+ * section, which is the same structure for the transposed matrix:
+ *
+ * <pre>
+ * int[n + 1]   entry pointers: the entries of row i are pointers[i]
+ *              to pointers[i + 1] - 1
+ * long[n + 1]  byte offsets of the rows in the index stream
+ * long         length of the index stream
+ * byte[]       index stream: the column indices of every row as zigzag
+ *              varints, the first one absolute, the others as the
+ *              difference to the previous index
+ * float[] or double[]  the values
+ * </pre>
+ *
+ * The byte offsets allow decoding any row without the preceding ones.
+ * Sections are read through memory-mapped windows, so files may exceed the
+ * 2 GB limit of a single mapping. Double precision values can also be left in
+ * the mapped file, see {@link OffHeapMatrix}.
+ */
+public class SparseMatrixFile {
+
+	private static final int MAGIC = 0x53504D58;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 28;
+
+	/** Values are stored in single precision. */
+	public static final int SINGLE_PRECISION = 1;
+	/** A column-major section is stored. */
+	public static final int COLUMN_MAJOR = 2;
+
+	private static final long WINDOW_SIZE = 1L << 28;
+
+	/**
+	 * Checks whether a file is in the binary sparse matrix format.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @return true if the file starts with the magic number
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static boolean isSparseMatrixFile(String filename)
+			throws IOException {
+		if (new File(filename).length() < HEADER_SIZE) {
+			return false;
+		}
+		FileInputStream in = new FileInputStream(filename);
+		try {
+			byte[] magic = new byte[4];
+			if (in.read(magic) != 4) {
+				return false;
+			}
+			return ByteBuffer.wrap(magic).getInt() == MAGIC;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes a matrix.
+	 *
+	 * @param mx
+	 *            the matrix
+	 * @param filename
+	 *            the file name
+	 * @param flags
+	 *            SINGLE_PRECISION and/or COLUMN_MAJOR, or zero
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void write(SparseMatrix mx, String filename, int flags)
+			throws IOException {
+		int nColumns = 0;
+		int[] columns = mx.getColumns();
+		for (int j = 0; j < mx.getnNonZeros(); j++) {
+			nColumns = Math.max(nColumns, columns[j] + 1);
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(filename), 1 << 16));
+		try {
+			writeHeader(out, flags, mx.getnRows(), nColumns,
+					mx.getnNonZeros());
+			boolean singlePrecision = (flags & SINGLE_PRECISION) != 0;
+			writeSection(out, section(mx), singlePrecision);
+			if ((flags & COLUMN_MAJOR) != 0) {
+				writeSection(out, section(mx.transpose(nColumns)),
+						singlePrecision);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the rows of an off-heap matrix in a new order, without copying
+	 * them to the heap. Row i of the file is row rowOrder[i] of the matrix,
+	 * or empty if rowOrder[i] is negative; the column-major section is transposed into buffers allocated as those
+	 * of the matrix.
+	 *
+	 * @param mx
+	 *            the matrix
+	 * @param rowOrder
+	 *            the rows in their new order
+	 * @param filename
+	 *            the file name
+	 * @param flags
+	 *            SINGLE_PRECISION and/or COLUMN_MAJOR, or zero
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void write(OffHeapMatrix mx, int[] rowOrder,
+			String filename, int flags) throws IOException {
+		int nColumns = 0;
+		long nnz = 0;
+		for (int i = 0; i < rowOrder.length; i++) {
+			if (rowOrder[i] >= 0 && mx.isPresent(rowOrder[i])) {
+				for (long j = mx.getStart(rowOrder[i]); j < mx
+						.getEnd(rowOrder[i]); j++) {
+					nColumns = Math.max(nColumns, mx.getColumn(j) + 1);
+				}
+				nnz += mx.getLength(rowOrder[i]);
+			}
+		}
+		if (nnz > Integer.MAX_VALUE) {
+			throw new IOException("Too many entries for " + filename + ".");
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(filename), 1 << 16));
+		try {
+			writeHeader(out, flags, rowOrder.length, nColumns, nnz);
+			boolean singlePrecision = (flags & SINGLE_PRECISION) != 0;
+			writeSection(out, section(mx, rowOrder), singlePrecision);
+			if ((flags & COLUMN_MAJOR) != 0) {
+				OffHeapMatrix transposed = mx.transpose(rowOrder, nColumns);
+				int[] identity = new int[nColumns];
+				for (int c = 0; c < nColumns; c++) {
+					identity[c] = c;
+				}
+				writeSection(out, section(transposed, identity),
+						singlePrecision);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeHeader(DataOutputStream out, int flags,
+			int nRows, int nColumns, long nnz) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(flags);
+		out.writeInt(nRows);
+		out.writeInt(nColumns);
+		out.writeLong(nnz);
+	}
+
+	/**
+	 * The rows of a section to write.
+	 */
+	private interface Section {
+		int getnRows();
+
+		int getLength(int i);
+
+		/** The column index of entry j of row i. */
+		int getColumn(int i, int j);
+
+		/** The value of entry j of row i. */
+		double getValue(int i, int j);
+	}
+
+	private static Section section(final SparseMatrix mx) {
+		final int[] rowPointers = mx.getRowPointers();
+		final int[] columns = mx.getColumns();
+		final double[] values = mx.getValues();
+		return new Section() {
+			public int getnRows() {
+				return mx.getnRows();
+			}
+
+			public int getLength(int i) {
+				return rowPointers[i + 1] - rowPointers[i];
+			}
+
+			public int getColumn(int i, int j) {
+				return columns[rowPointers[i] + j];
+			}
+
+			public double getValue(int i, int j) {
+				return values[rowPointers[i] + j];
+			}
+		};
+	}
+
+	private static Section section(final OffHeapMatrix mx,
+			final int[] rowOrder) {
+		return new Section() {
+			public int getnRows() {
+				return rowOrder.length;
+			}
+
+			public int getLength(int i) {
+				return rowOrder[i] >= 0 && mx.isPresent(rowOrder[i]) ? mx
+						.getLength(rowOrder[i]) : 0;
+			}
+
+			public int getColumn(int i, int j) {
+				return mx.getColumn(mx.getStart(rowOrder[i]) + j);
+			}
+
+			public double getValue(int i, int j) {
+				return mx.getValue(mx.getStart(rowOrder[i]) + j);
+			}
+		};
+	}
+
+	private static void writeSection(DataOutputStream out, Section mx,
+			boolean singlePrecision) throws IOException {
+		int nRows = mx.getnRows();
+		int pointer = 0;
+		out.writeInt(pointer);
+		for (int i = 0; i < nRows; i++) {
+			pointer += mx.getLength(i);
+			out.writeInt(pointer);
+		}
+		long offset = 0;
+		for (int i = 0; i < nRows; i++) {
+			out.writeLong(offset);
+			int previous = 0;
+			for (int j = 0; j < mx.getLength(i); j++) {
+				int column = mx.getColumn(i, j);
+				offset += varintLength(zigzag(column - previous));
+				previous = column;
+			}
+		}
+		out.writeLong(offset);
+		out.writeLong(offset);
+		for (int i = 0; i < nRows; i++) {
+			int previous = 0;
+			for (int j = 0; j < mx.getLength(i); j++) {
+				int column = mx.getColumn(i, j);
+				writeVarint(out, zigzag(column - previous));
+				previous = column;
+			}
+		}
+		for (int i = 0; i < nRows; i++) {
+			for (int j = 0; j < mx.getLength(i); j++) {
+				if (singlePrecision) {
+					out.writeFloat((float) mx.getValue(i, j));
+				} else {
+					out.writeDouble(mx.getValue(i, j));
+				}
+			}
+		}
+	}
+
+	private static int zigzag(int x) {
+		return (x << 1) ^ (x >> 31);
+	}
+
+	private static int unzigzag(int x) {
+		return (x >>> 1) ^ -(x & 1);
+	}
+
+	private static int varintLength(int x) {
+		int length = 1;
+		while ((x & ~0x7F) != 0) {
+			x >>>= 7;
+			length++;
+		}
+		return length;
+	}
+
+	private static void writeVarint(DataOutputStream out, int x)
+			throws IOException {
+		while ((x & ~0x7F) != 0) {
+			out.writeByte((x & 0x7F) | 0x80);
+			x >>>= 7;
+		}
+		out.writeByte(x);
+	}
+
+	/**
+	 * Reads the row-major section of a matrix.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @return the matrix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred, or the file is
+	 *             not a binary sparse matrix.
+	 */
+	public static SparseMatrix read(String filename) throws IOException {
+		return read(filename, false);
+	}
+
+	/**
+	 * Reads the column-major section of a matrix, that is, the transposed
+	 * matrix with one row for every column index up to the largest one.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @return the transposed matrix, or null if the file has no column-major
+	 *         section
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred, or the file is
+	 *             not a binary sparse matrix.
+	 */
+	public static SparseMatrix readColumns(String filename)
+			throws IOException {
+		return read(filename, true);
+	}
+
+	/**
+	 * Reads the size of a matrix from the header.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @return the number of rows, the number of columns and the number of
+	 *         entries
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred, or the file is
+	 *             not a binary sparse matrix.
+	 */
+	public static long[] readSize(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			MappedReader in = new MappedReader(file.getChannel());
+			int[] header = readHeader(in, filename);
+			return new long[] { header[1], header[2], in.getLong() };
+		} finally {
+			file.close();
+		}
+	}
+
+	private static SparseMatrix read(String filename, boolean columnMajor)
+			throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			MappedReader in = new MappedReader(file.getChannel());
+			int[] header = readHeader(in, filename);
+			long nnz = in.getLong();
+			if (nnz > Integer.MAX_VALUE) {
+				throw new IOException(filename + " has too many entries.");
+			}
+			boolean singlePrecision = (header[0] & SINGLE_PRECISION) != 0;
+			if (!columnMajor) {
+				return readSection(in, header[1], (int) nnz, singlePrecision);
+			}
+			if ((header[0] & COLUMN_MAJOR) == 0) {
+				return null;
+			}
+			skipSection(in, header[1], nnz, singlePrecision);
+			return readSection(in, header[2], (int) nnz, singlePrecision);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Reads the header up to the number of entries.
+	 *
+	 * @return the flags, the number of rows and the number of columns
+	 */
+	private static int[] readHeader(MappedReader in, String filename)
+			throws IOException {
+		if (in.size() < HEADER_SIZE || in.getInt() != MAGIC) {
+			throw new IOException(filename
+					+ " is not a binary sparse matrix file.");
+		}
+		int version = in.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported binary sparse matrix version "
+					+ version + " in " + filename + ".");
+		}
+		int flags = in.getInt();
+		int nRows = in.getInt();
+		int nColumns = in.getInt();
+		return new int[] { flags, nRows, nColumns };
+	}
+
+	private static void skipSection(MappedReader in, int nRows, long nnz,
+			boolean singlePrecision) throws IOException {
+		in.skip(4L * (nRows + 1) + 8L * (nRows + 1));
+		long streamLength = in.getLong();
+		in.skip(streamLength + (singlePrecision ? 4 : 8) * nnz);
+	}
+
+	/**
+	 * Reads a section of a matrix off the heap. Column indices are decoded
+	 * into direct buffers; double precision values are mapped from the file
+	 * and stay there, single precision values are widened into direct
+	 * buffers.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @param columnMajor
+	 *            whether the column-major section is read
+	 * @param scratchDirectory
+	 *            the directory of file-backed buffers, or null for direct
+	 *            buffers
+	 * @return the matrix, or null if the column-major section is requested
+	 *         but the file has none
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred, or the file is
+	 *             not a binary sparse matrix.
+	 */
+	static OffHeapMatrix readOffHeap(String filename, boolean columnMajor,
+			File scratchDirectory) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			MappedReader in = new MappedReader(channel);
+			int[] header = readHeader(in, filename);
+			long nnz = in.getLong();
+			boolean singlePrecision = (header[0] & SINGLE_PRECISION) != 0;
+			int nRows = header[1];
+			if (columnMajor) {
+				if ((header[0] & COLUMN_MAJOR) == 0) {
+					return null;
+				}
+				skipSection(in, nRows, nnz, singlePrecision);
+				nRows = header[2];
+			}
+			long[] rowPointers = new long[nRows + 1];
+			for (int i = 0; i <= nRows; i++) {
+				rowPointers[i] = in.getInt() & 0xFFFFFFFFL;
+			}
+			in.skip(8L * (nRows + 1));
+			in.getLong();
+			ByteBuffer[] columns = OffHeapMatrix.allocate(nnz, 4,
+					scratchDirectory);
+			for (int i = 0; i < nRows; i++) {
+				int previous = 0;
+				for (long j = rowPointers[i]; j < rowPointers[i + 1]; j++) {
+					previous += unzigzag(in.getVarint());
+					OffHeapMatrix.putColumn(columns, j, previous);
+				}
+			}
+			ByteBuffer[] values;
+			if (singlePrecision) {
+				values = OffHeapMatrix.allocate(nnz, 8, scratchDirectory);
+				for (long j = 0; j < nnz; j++) {
+					OffHeapMatrix.putValue(values, j, in.getFloat());
+				}
+			} else {
+				long position = in.position();
+				values = new ByteBuffer[OffHeapMatrix.countSegments(nnz)];
+				for (int s = 0; s < values.length; s++) {
+					long start = (long) s << OffHeapMatrix.SEGMENT_SHIFT;
+					values[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+							position + 8 * start,
+							8L * OffHeapMatrix.getSegmentLength(nnz, s));
+				}
+			}
+			return new OffHeapMatrix(rowPointers, new BitSet(nRows), columns,
+					values, scratchDirectory);
+		} finally {
+			file.close();
+		}
+	}
+
+	private static SparseMatrix readSection(MappedReader in, int nRows,
+			int nnz, boolean singlePrecision) throws IOException {
+		int[] rowPointers = new int[nRows + 1];
+		in.getInts(rowPointers);
+		in.skip(8L * (nRows + 1));
+		in.getLong();
+		int[] columns = new int[nnz];
+		for (int i = 0; i < nRows; i++) {
+			int previous = 0;
+			for (int j = rowPointers[i]; j < rowPointers[i + 1]; j++) {
+				previous += unzigzag(in.getVarint());
+				columns[j] = previous;
+			}
+		}
+		double[] values = new double[nnz];
+		if (singlePrecision) {
+			in.getFloats(values);
+		} else {
+			in.getDoubles(values);
+		}
+		return new SparseMatrix(rowPointers, columns, values);
+	}
+
+	/**
+	 * Sequential reader over a file mapped in windows.
+	 */
+	private static class MappedReader {
+		private FileChannel channel;
+		private long size;
+		private long windowStart = 0;
+		private ByteBuffer window;
+
+		MappedReader(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.size = channel.size();
+			map(0);
+		}
+
+		long size() {
+			return size;
+		}
+
+		long position() {
+			return windowStart + window.position();
+		}
+
+		private void map(long position) throws IOException {
+			windowStart = position;
+			window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+					Math.min(WINDOW_SIZE, size - position));
+		}
+
+		private void ensure(int nBytes) throws IOException {
+			if (window.remaining() < nBytes) {
+				long position = windowStart + window.position();
+				if (size - position < nBytes) {
+					throw new IOException("Unexpected end of file.");
+				}
+				map(position);
+			}
+		}
+
+		void skip(long nBytes) throws IOException {
+			long position = windowStart + window.position() + nBytes;
+			if (position - windowStart <= window.limit()) {
+				window.position((int) (position - windowStart));
+			} else {
+				map(position);
+			}
+		}
+
+		int getInt() throws IOException {
+			ensure(4);
+			return window.getInt();
+		}
+
+		long getLong() throws IOException {
+			ensure(8);
+			return window.getLong();
+		}
+
+		int getVarint() throws IOException {
+			int result = 0;
+			for (int shift = 0;; shift += 7) {
+				ensure(1);
+				byte b = window.get();
+				result |= (b & 0x7F) << shift;
+				if (b >= 0) {
+					return result;
+				}
+			}
+		}
+
+		float getFloat() throws IOException {
+			ensure(4);
+			return window.getFloat();
+		}
+
+		void getInts(int[] destination) throws IOException {
+			int offset = 0;
+			while (offset < destination.length) {
+				ensure(4);
+				int n = Math.min(destination.length - offset,
+						window.remaining() / 4);
+				window.asIntBuffer().get(destination, offset, n);
+				window.position(window.position() + 4 * n);
+				offset += n;
+			}
+		}
+
+		void getDoubles(double[] destination) throws IOException {
+			int offset = 0;
+			while (offset < destination.length) {
+				ensure(8);
+				int n = Math.min(destination.length - offset,
+						window.remaining() / 8);
+				window.asDoubleBuffer().get(destination, offset, n);
+				window.position(window.position() + 8 * n);
+				offset += n;
+			}
+		}
+
+		void getFloats(double[] destination) throws IOException {
+			int offset = 0;
+			while (offset < destination.length) {
+				ensure(4);
+				int n = Math.min(destination.length - offset,
+						window.remaining() / 4);
+				for (int j = 0; j < n; j++) {
+					destination[offset + j] = window.getFloat();
+				}
+				offset += n;
+			}
+		}
+	}
+
+}
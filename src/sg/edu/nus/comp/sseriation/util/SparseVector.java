@@ -32,7 +32,13 @@ import java.util.Vector;
  */
 public class SparseVector {
 
-	private static VectorNode[] addNode(VectorNode[] v, int index, double value) {
+	/**
+	 * Adds a value to the entry of a row at an index, inserting the entry in
+	 * order if the row has none there. The row stays as it is.
+	 * 
+	 * @return the new row
+	 */
+	public static VectorNode[] addNode(VectorNode[] v, int index, double value) {
 		if (v == null || v[0] == null) {
 			VectorNode[] w = new VectorNode[1];
 			w[0] = new VectorNode();
@@ -344,6 +350,23 @@ public class SparseVector {
 		return result;
 	}
 
+	/**
+	 * Counts the entries of a sparse matrix.
+	 * 
+	 * @param mx
+	 *            the sparse matrix
+	 * @return the number of entries
+	 */
+	public static long countNonZeros(VectorNode[][] mx) {
+		long result = 0;
+		for (int i = 0; i < mx.length; i++) {
+			if (mx[i] != null) {
+				result += mx[i].length;
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Finds the maximum column index (often the dimension of the space).
 	 * 
@@ -584,24 +607,6 @@ public class SparseVector {
 				- entropy(y, nBins, n);
 	}
 
-	private static VectorNode[] parseSparseVectorString(String s) {
-		StringTokenizer st = new StringTokenizer(s, "[ :]");
-		int nTokens = st.countTokens();
-		if (nTokens % 2 != 0) {
-			st.nextToken();
-			nTokens--;
-		}
-		VectorNode[] result = new VectorNode[nTokens / 2];
-		int n = 0;
-		while (st.hasMoreTokens()) {
-			result[n] = new VectorNode();
-			result[n].index = Integer.valueOf(st.nextToken());
-			result[n].value = Double.valueOf(st.nextToken());
-			n++;
-		}
-		return result;
-	}
-
 	/**
 	 * Reads the class list from a sparse matrix file
 	 * 
@@ -627,7 +632,7 @@ public class SparseVector {
 	}
 
 	/**
-	 * Reads a sparse matrix.
+	 * Reads a sparse matrix, parsing with one thread per processor.
 	 * 
 	 * @param filename
 	 *            the file name
@@ -637,21 +642,79 @@ public class SparseVector {
 	 */
 	public static VectorNode[][] readSparseMatrix(String filename)
 			throws IOException {
-		ArrayList<VectorNode[]> result = new ArrayList<VectorNode[]>();
-		Scanner scn = new Scanner(new BufferedReader(new FileReader(filename)))
-				.useDelimiter("[\n\r]");
-		while (scn.hasNext()) {
-			String tmp = scn.next();
-			if (tmp.length() > 0) {
-				result.add(parseSparseVectorString(tmp));
-			}
+		return readSparseMatrix(filename, Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * Reads a sparse matrix.
+	 * 
+	 * @param filename
+	 *            the file name
+	 * @param nThreads
+	 *            the number of parser threads
+	 * @return the sparse matrix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static VectorNode[][] readSparseMatrix(String filename,
+			int nThreads) throws IOException {
+		if (SparseMatrixFile.isSparseMatrixFile(filename)) {
+			return SparseMatrixFile.read(filename).toVectorNodes();
 		}
-		scn.close();
-		VectorNode[][] resultArray = new VectorNode[result.size()][];
-		for (int i = 0; i < result.size(); i++) {
-			resultArray[i] = result.get(i);
+		return LibsvmParser.parse(filename, nThreads).toVectorNodes();
+	}
+
+	/**
+	 * Reads the transpose of a sparse matrix. The result is the same as
+	 * transpose(readSparseMatrix(filename)), but it is taken from the
+	 * column-major section of a binary file if there is one.
+	 * 
+	 * @param filename
+	 *            the file name
+	 * @return the transposed sparse matrix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static VectorNode[][] readTransposedSparseMatrix(String filename)
+			throws IOException {
+		return readTransposedSparseMatrix(filename, Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * Reads the transpose of a sparse matrix, as
+	 * readTransposedSparseMatrix(filename) does.
+	 * 
+	 * @param filename
+	 *            the file name
+	 * @param nThreads
+	 *            the number of parser threads
+	 * @return the transposed sparse matrix
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static VectorNode[][] readTransposedSparseMatrix(String filename,
+			int nThreads) throws IOException {
+		SparseMatrix columns = null;
+		if (SparseMatrixFile.isSparseMatrixFile(filename)) {
+			columns = SparseMatrixFile.readColumns(filename);
+		}
+		if (columns == null) {
+			return transpose(readSparseMatrix(filename, nThreads));
 		}
-		return resultArray;
+		// Same shift and null columns as transpose
+		int[] columnPointers = columns.getRowPointers();
+		int nColumns = columns.getnRows();
+		int adjust = nColumns == 0 || columnPointers[1] == 0 ? 1 : 0;
+		VectorNode[][] transposed = columns.toVectorNodes();
+		VectorNode[][] result = new VectorNode[Math.max(nColumns, 1) - adjust][];
+		for (int c = adjust; c < nColumns; c++) {
+			if (transposed[c].length > 0) {
+				result[c - adjust] = transposed[c];
+			}
+		}
+		return result;
 	}
 
 	/**
@@ -676,7 +739,6 @@ public class SparseVector {
 				}
 			}
 		}
-		System.out.println();
 		return result;
 	}
 
@@ -720,7 +782,7 @@ public class SparseVector {
 		return result;
 	}
 
-	private static double sum(VectorNode[] v) {
+	public static double sum(VectorNode[] v) {
 		if (v == null)
 			return 0;
 		double result = 0;
@@ -740,7 +802,7 @@ public class SparseVector {
 		return result;
 	}
 
-	private static double sumSquare(VectorNode[] v) {
+	public static double sumSquare(VectorNode[] v) {
 		if (v == null)
 			return 0;
 		double result = 0;
@@ -777,4 +839,388 @@ public class SparseVector {
 		return result;
 	}
 
+	/*
+	 * Kernels on rows of an off-heap matrix. They visit the entries in the
+	 * same order as their counterparts on vector nodes, so the results are
+	 * identical.
+	 */
+
+	/**
+	 * Euclidean distance of two rows of an off-heap matrix.
+	 * 
+	 * @param mx
+	 *            the off-heap matrix
+	 * @param x
+	 *            the x row
+	 * @param y
+	 *            the y row
+	 * @return the Euclidean distance
+	 */
+	public static double euclidean(OffHeapMatrix mx, int x, int y) {
+		if (!mx.isPresent(x) || !mx.isPresent(y)) {
+			return 0;
+		}
+		return Math.sqrt(sumDifferences(mx, x, y, false));
+	}
+
+	/**
+	 * Manhattan distance of two rows of an off-heap matrix.
+	 * 
+	 * @param mx
+	 *            the off-heap matrix
+	 * @param x
+	 *            the x row
+	 * @param y
+	 *            the y row
+	 * @return the Manhattan distance
+	 */
+	public static double manhattan(OffHeapMatrix mx, int x, int y) {
+		if (!mx.isPresent(x) || !mx.isPresent(y)) {
+			return 0;
+		}
+		return sumDifferences(mx, x, y, true);
+	}
+
+	/**
+	 * Sums the squared or absolute entries of the difference of two rows,
+	 * merging them as addVectors does.
+	 */
+	private static double sumDifferences(OffHeapMatrix mx, int x, int y,
+			boolean absolute) {
+		double result = 0;
+		long i = mx.getStart(x);
+		long iEnd = mx.getEnd(x);
+		long j = mx.getStart(y);
+		long jEnd = mx.getEnd(y);
+		while (i < iEnd || j < jEnd) {
+			double difference;
+			if (i < iEnd && j < jEnd) {
+				int xIndex = mx.getColumn(i);
+				int yIndex = mx.getColumn(j);
+				if (xIndex == yIndex) {
+					difference = mx.getValue(i++) + -mx.getValue(j++);
+				} else if (xIndex < yIndex) {
+					difference = mx.getValue(i++);
+				} else {
+					difference = -mx.getValue(j++);
+				}
+			} else if (i < iEnd) {
+				difference = mx.getValue(i++);
+			} else {
+				difference = -mx.getValue(j++);
+			}
+			if (absolute) {
+				result += Math.abs(difference);
+			} else {
+				result += difference * difference;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Dot product of two rows of an off-heap matrix.
+	 * 
+	 * @param mx
+	 *            the off-heap matrix
+	 * @param x
+	 *            the x row
+	 * @param y
+	 *            the y row
+	 * @return the dot product
+	 */
+	public static double dotProduct(OffHeapMatrix mx, int x, int y) {
+		if (!mx.isPresent(x) || !mx.isPresent(y)) {
+			return 0;
+		}
+		double sum = 0;
+		long i = mx.getStart(x);
+		long iEnd = mx.getEnd(x);
+		long j = mx.getStart(y);
+		long jEnd = mx.getEnd(y);
+		while (i < iEnd && j < jEnd) {
+			int xIndex = mx.getColumn(i);
+			int yIndex = mx.getColumn(j);
+			if (xIndex == yIndex)
+				sum += mx.getValue(i++) * mx.getValue(j++);
+			else if (xIndex > yIndex)
+				++j;
+			else
+				++i;
+		}
+		return sum;
+	}
+
+	/**
+	 * Norm of a row of an off-heap matrix.
+	 * 
+	 * @param mx
+	 *            the off-heap matrix
+	 * @param x
+	 *            the row
+	 * @return the norm
+	 */
+	public static double calculateNorm(OffHeapMatrix mx, int x) {
+		if (!mx.isPresent(x)) {
+			return 0;
+		}
+		return Math.sqrt(sumSquare(mx, x));
+	}
+
+	/**
+	 * Cosine similarity of two rows of an off-heap matrix.
+	 * 
+	 * @param mx
+	 *            the off-heap matrix
+	 * @param x
+	 *            the x row
+	 * @param y
+	 *            the y row
+	 * @return the cosine similarity
+	 */
+	public static double cosine(OffHeapMatrix mx, int x, int y) {
+		double result = dotProduct(mx, x, y)
+				/ (calculateNorm(mx, x) * calculateNorm(mx, y));
+		if (result > 1.0) {
+			result = 1.0;
+		} else if (result < -1.0) {
+			result = -1.0;
+		}
+		return result;
+	}
+
+	/**
+	 * Correlation of two rows of an off-heap matrix.
+	 * 
+	 * @param mx
+	 *            the off-heap matrix
+	 * @param x
+	 *            the x row
+	 * @param y
+	 *            the y row
+	 * @param n
+	 *            the dimension
+	 * @return the correlation
+	 */
+	public static double correlation(OffHeapMatrix mx, int x, int y, int n) {
+		if (!mx.isPresent(x) || !mx.isPresent(y)) {
+			return 0;
+		}
+		double sumx = sum(mx, x);
+		double sumy = sum(mx, y);
+		return (n * dotProduct(mx, x, y) - sumx * sumy)
+				/ (Math.sqrt(n * sumSquare(mx, x) - sumx * sumx) * Math.sqrt(n
+						* sumSquare(mx, y) - sumy * sumy));
+	}
+
+	private static double sum(OffHeapMatrix mx, int x) {
+		double result = 0;
+		for (long i = mx.getStart(x); i < mx.getEnd(x); i++) {
+			result += mx.getValue(i);
+		}
+		return result;
+	}
+
+	private static double sumSquare(OffHeapMatrix mx, int x) {
+		double result = 0;
+		for (long i = mx.getStart(x); i < mx.getEnd(x); i++) {
+			double value = mx.getValue(i);
+			result += value * value;
+		}
+		return result;
+	}
+
+	/**
+	 * Euclidean distance of two rows of a dense matrix. With the scalar
+	 * kernels, it is the same as that of the rows as vector nodes.
+	 * 
+	 * @param mx
+	 *            the dense matrix
+	 * @param x
+	 *            the x row
+	 * @param y
+	 *            the y row
+	 * @return the Euclidean distance
+	 */
+	public static double euclidean(DenseMatrix mx, int x, int y) {
+		if (!mx.isPresent(x) || !mx.isPresent(y)) {
+			return 0;
+		}
+		int n = mx.getnColumns();
+		return Math.sqrt(Kernels.getInstance().squaredDistance(
+				mx.getValues(), x * n, mx.getValues(), y * n, n));
+	}
+
+	/**
+	 * Manhattan distance of two rows of a dense matrix.
+	 * 
+	 * @param mx
+	 *            the dense matrix
+	 * @param x
+	 *            the x row
+	 * @param y
+	 *            the y row
+	 * @return the Manhattan distance
+	 */
+	public static double manhattan(DenseMatrix mx, int x, int y) {
+		if (!mx.isPresent(x) || !mx.isPresent(y)) {
+			return 0;
+		}
+		int n = mx.getnColumns();
+		return Kernels.getInstance().absoluteDistance(mx.getValues(), x * n,
+				mx.getValues(), y * n, n);
+	}
+
+	/**
+	 * Dot product of two rows of a dense matrix.
+	 * 
+	 * @param mx
+	 *            the dense matrix
+	 * @param x
+	 *            the x row
+	 * @param y
+	 *            the y row
+	 * @return the dot product
+	 */
+	public static double dotProduct(DenseMatrix mx, int x, int y) {
+		if (!mx.isPresent(x) || !mx.isPresent(y)) {
+			return 0;
+		}
+		int n = mx.getnColumns();
+		return Kernels.getInstance().dotProduct(mx.getValues(), x * n,
+				mx.getValues(), y * n, n);
+	}
+
+	/**
+	 * Cosine similarity of two rows of a dense matrix.
+	 * 
+	 * @param mx
+	 *            the dense matrix
+	 * @param x
+	 *            the x row
+	 * @param y
+	 *            the y row
+	 * @return the cosine similarity
+	 */
+	public static double cosine(DenseMatrix mx, int x, int y) {
+		double result = dotProduct(mx, x, y)
+				/ (Math.sqrt(mx.getSumSquare(x)) * Math.sqrt(mx
+						.getSumSquare(y)));
+		if (result > 1.0) {
+			result = 1.0;
+		} else if (result < -1.0) {
+			result = -1.0;
+		}
+		return result;
+	}
+
+	/**
+	 * Correlation of two rows of a dense matrix.
+	 * 
+	 * @param mx
+	 *            the dense matrix
+	 * @param x
+	 *            the x row
+	 * @param y
+	 *            the y row
+	 * @param n
+	 *            the dimension
+	 * @return the correlation
+	 */
+	public static double correlation(DenseMatrix mx, int x, int y, int n) {
+		if (!mx.isPresent(x) || !mx.isPresent(y)) {
+			return 0;
+		}
+		double sumx = mx.getSum(x);
+		double sumy = mx.getSum(y);
+		return (n * dotProduct(mx, x, y) - sumx * sumy)
+				/ (Math.sqrt(n * mx.getSumSquare(x) - sumx * sumx) * Math
+						.sqrt(n * mx.getSumSquare(y) - sumy * sumy));
+	}
+
+	/**
+	 * Mutual information of two binned rows of a dense matrix. Rather than
+	 * counting the occurrences of every pair of bins in a pass over the rows,
+	 * as the sparse version does, it fills a joint histogram in a single
+	 * pass, counting the same pairs: the (0, Y) pairs outside column 0 and
+	 * the pairs of stored entries, with (0, 0) the columns neither row
+	 * stored.
+	 * 
+	 * @param mx
+	 *            the dense matrix of bins
+	 * @param x
+	 *            the x row
+	 * @param y
+	 *            the y row
+	 * @param nBins
+	 *            the number of pre-allocated bins
+	 * @param n
+	 *            the dimension
+	 * @return the mutual information
+	 */
+	public static double mutualInformationMetric(DenseMatrix mx, int x,
+			int y, int nBins, int n) {
+		if (!mx.isPresent(x) || !mx.isPresent(y)) {
+			return mutualInformationMetric(mx.getRow(x), mx.getRow(y), nBins,
+					n);
+		}
+		double[] values = mx.getValues();
+		int nColumns = mx.getnColumns();
+		int xOffset = x * nColumns;
+		int yOffset = y * nColumns;
+		int[] xCounts = new int[nBins];
+		int[] yCounts = new int[nBins];
+		int[] jointCounts = new int[nBins * nBins];
+		int nUnion = 0;
+		for (int j = 0; j < nColumns; j++) {
+			boolean xStored = mx.isStored(x, j);
+			boolean yStored = mx.isStored(y, j);
+			int xBin = xStored ? findBin(values[xOffset + j], nBins) : -1;
+			int yBin = yStored ? findBin(values[yOffset + j], nBins) : -1;
+			if (xBin > 0) {
+				xCounts[xBin]++;
+			}
+			if (yBin > 0) {
+				yCounts[yBin]++;
+			}
+			if (xStored || yStored) {
+				nUnion++;
+			}
+			if (xStored && yStored) {
+				if (xBin > 0 && yBin >= 0) {
+					jointCounts[xBin * nBins + yBin]++;
+				}
+			} else if (yBin > 0 && j > 0) {
+				jointCounts[yBin]++;
+			}
+		}
+		xCounts[0] = n - mx.getLength(x);
+		yCounts[0] = n - mx.getLength(y);
+		jointCounts[0] = n - nUnion;
+		return 2 * -sumLogOccurances(jointCounts, n)
+				+ sumLogOccurances(xCounts, n) + sumLogOccurances(yCounts, n);
+	}
+
+	/**
+	 * Gets the bin a value stands for, or -1 if it is not one of the bins.
+	 */
+	private static int findBin(double value, int nBins) {
+		int bin = (int) value;
+		return bin == value && bin >= 0 && bin < nBins ? bin : -1;
+	}
+
+	/**
+	 * Sums the terms of logOccurances for the counts in order.
+	 */
+	private static double sumLogOccurances(int[] counts, int n) {
+		double result = 0;
+		for (int i = 0; i < counts.length; i++) {
+			double p = (double) counts[i] / n;
+			if (p != 0) {
+				result += p * Math.log(p);
+			}
+		}
+		return result;
+	}
+
 }
@@ -0,0 +1,380 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+/**
+ * Binary format of the state of seriations, so that they can be continued
+ * after a restart. All numbers are big-endian. The file starts with a header:
+ *
+ * <pre>
+ * int     magic number "STAT"
+ * int     version
+ * int     number of rows folded in
+ * short   length of the distance name, followed by its bytes in UTF-8
+ * int     number of sections
+ * </pre>
+ *
+ * followed by a section for every seriation:
+ *
+ * <pre>
+ * int          flags, 0
+ * int          number of dimensions
+ * int          number of rows n
+ * int          number of elements in the order m
+ * long         number of entries
+ * int[m]       the order
+ * long[n + 1]  entry pointers: the entries of row i are pointers[i] to
+ *              pointers[i + 1] - 1
+ * long[]       the absent rows as a bit set of (n + 63) / 64 words
+ * double[n]    the sums of the rows
+ * double[n]    the sums of squares of the rows
+ * int[]        the column indices of the entries
+ * double[]     the values of the entries
+ * </pre>
+ *
+ * The column indices are not compressed, so that the entries of a section
+ * can be used off the heap straight from the mapped file. Files are written
+ * to a temporary file first and then moved in place, so a reader never sees
+ * a partly written state.
+ */
+public class StateFile {
+
+	private static final int MAGIC = 0x53544154;
+	private static final int VERSION = 1;
+
+	private final int updateIteration;
+	private final String distanceName;
+	private final Section[] sections;
+
+	/**
+	 * The state of a seriation: its rows, in one of the storages, and its
+	 * order.
+	 */
+	public static class Section {
+		private final int nDimensions;
+		private final int[] order;
+		private VectorNode[][] mx;
+		private OffHeapMatrix offHeapMx;
+		private DenseMatrix denseMx;
+		private double[] sums;
+		private double[] sumSquares;
+
+		/**
+		 * Instantiates a section of rows in any storage, of which the others
+		 * are null. The rows must not be changed in place until the section
+		 * is written.
+		 */
+		public Section(int nDimensions, int[] order, VectorNode[][] mx,
+				OffHeapMatrix offHeapMx, DenseMatrix denseMx) {
+			this.nDimensions = nDimensions;
+			this.order = order;
+			this.mx = mx;
+			this.offHeapMx = offHeapMx;
+			this.denseMx = denseMx;
+		}
+
+		public int getnDimensions() {
+			return nDimensions;
+		}
+
+		public int[] getOrder() {
+			return order;
+		}
+
+		/**
+		 * Gets the rows of a section read onto the heap.
+		 */
+		public VectorNode[][] getMx() {
+			return mx;
+		}
+
+		/**
+		 * Gets the rows of a section read off the heap, which stay in the
+		 * mapped file.
+		 */
+		public OffHeapMatrix getOffHeapMx() {
+			return offHeapMx;
+		}
+
+		/**
+		 * Gets the sums of the rows of a section read from a file.
+		 */
+		public double[] getSums() {
+			return sums;
+		}
+
+		/**
+		 * Gets the sums of squares of the rows of a section read from a file.
+		 */
+		public double[] getSumSquares() {
+			return sumSquares;
+		}
+	}
+
+	public StateFile(int updateIteration, String distanceName,
+			Section... sections) {
+		this.updateIteration = updateIteration;
+		this.distanceName = distanceName;
+		this.sections = sections;
+	}
+
+	public int getUpdateIteration() {
+		return updateIteration;
+	}
+
+	public String getDistanceName() {
+		return distanceName;
+	}
+
+	public Section[] getSections() {
+		return sections;
+	}
+
+	/**
+	 * Writes the state.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void write(String filename) throws IOException {
+		File target = new File(filename);
+		File temporary = new File(filename + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temporary), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(updateIteration);
+			byte[] name = distanceName.getBytes(StandardCharsets.UTF_8);
+			out.writeShort(name.length);
+			out.write(name);
+			out.writeInt(sections.length);
+			for (Section section : sections) {
+				writeSection(out, section);
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(temporary.toPath(), target.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeSection(DataOutputStream out, Section section)
+			throws IOException {
+		VectorNode[][] mx = section.mx;
+		if (section.denseMx != null) {
+			mx = section.denseMx.toVectorNodes();
+		}
+		OffHeapMatrix offHeapMx = section.offHeapMx;
+		int nRows = mx != null ? mx.length : offHeapMx.getnRows();
+		long[] rowPointers = new long[nRows + 1];
+		BitSet absent = new BitSet(nRows);
+		for (int i = 0; i < nRows; i++) {
+			boolean present = mx != null ? mx[i] != null : offHeapMx
+					.isPresent(i);
+			if (!present) {
+				absent.set(i);
+			}
+			rowPointers[i + 1] = rowPointers[i]
+					+ (mx == null ? offHeapMx.getLength(i)
+							: present ? mx[i].length : 0);
+		}
+		out.writeInt(0);
+		out.writeInt(section.nDimensions);
+		out.writeInt(nRows);
+		out.writeInt(section.order.length);
+		out.writeLong(rowPointers[nRows]);
+		for (int i = 0; i < section.order.length; i++) {
+			out.writeInt(section.order[i]);
+		}
+		for (int i = 0; i <= nRows; i++) {
+			out.writeLong(rowPointers[i]);
+		}
+		long[] words = absent.toLongArray();
+		for (int w = 0; w < (nRows + 63) / 64; w++) {
+			out.writeLong(w < words.length ? words[w] : 0);
+		}
+		// The sums as RowNorms computes them, which the reader keeps
+		double[] sumSquares = new double[nRows];
+		for (int i = 0; i < nRows; i++) {
+			VectorNode[] row = mx != null ? mx[i] : offHeapMx.getRow(i);
+			double sum = 0;
+			if (row != null) {
+				sum = SparseVector.sum(row);
+				sumSquares[i] = SparseVector.sumSquare(row);
+			}
+			out.writeDouble(sum);
+		}
+		for (int i = 0; i < nRows; i++) {
+			out.writeDouble(sumSquares[i]);
+		}
+		for (int i = 0; i < nRows; i++) {
+			if (mx != null) {
+				if (mx[i] != null) {
+					for (int j = 0; j < mx[i].length; j++) {
+						out.writeInt(mx[i][j].index);
+					}
+				}
+			} else {
+				for (long j = offHeapMx.getStart(i); j < offHeapMx.getEnd(i); j++) {
+					out.writeInt(offHeapMx.getColumn(j));
+				}
+			}
+		}
+		for (int i = 0; i < nRows; i++) {
+			if (mx != null) {
+				if (mx[i] != null) {
+					for (int j = 0; j < mx[i].length; j++) {
+						out.writeDouble(mx[i][j].value);
+					}
+				}
+			} else {
+				for (long j = offHeapMx.getStart(i); j < offHeapMx.getEnd(i); j++) {
+					out.writeDouble(offHeapMx.getValue(j));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a state written by {@link #write(String)} through memory
+	 * mapping.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @param offHeap
+	 *            whether the rows stay in the mapped file rather than being
+	 *            copied to the heap
+	 * @return the state
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred, or the file is
+	 *             not a state file.
+	 */
+	public static StateFile read(String filename, boolean offHeap)
+			throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = map(channel, 0, Math.min(channel.size(), 64),
+					filename);
+			if (header.remaining() < 14 || header.getInt() != MAGIC) {
+				throw new IOException(filename + " is not a state file.");
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported state file version "
+						+ version + " in " + filename + ".");
+			}
+			int updateIteration = header.getInt();
+			int nameLength = header.getShort() & 0xFFFF;
+			header = map(channel, 14, nameLength + 4, filename);
+			byte[] name = new byte[nameLength];
+			header.get(name);
+			Section[] sections = new Section[header.getInt()];
+			long position = 14 + nameLength + 4;
+			for (int s = 0; s < sections.length; s++) {
+				ByteBuffer in = map(channel, position, 24, filename);
+				in.getInt();
+				int nDimensions = in.getInt();
+				int nRows = in.getInt();
+				int[] order = new int[in.getInt()];
+				long nnz = in.getLong();
+				position += 24;
+				map(channel, position, 4L * order.length, filename)
+						.asIntBuffer().get(order);
+				position += 4L * order.length;
+				long[] rowPointers = new long[nRows + 1];
+				map(channel, position, 8L * rowPointers.length, filename)
+						.asLongBuffer().get(rowPointers);
+				position += 8L * rowPointers.length;
+				long[] words = new long[(nRows + 63) / 64];
+				map(channel, position, 8L * words.length, filename)
+						.asLongBuffer().get(words);
+				position += 8L * words.length;
+				double[] sums = new double[nRows];
+				map(channel, position, 8L * nRows, filename).asDoubleBuffer()
+						.get(sums);
+				position += 8L * nRows;
+				double[] sumSquares = new double[nRows];
+				map(channel, position, 8L * nRows, filename).asDoubleBuffer()
+						.get(sumSquares);
+				position += 8L * nRows;
+				ByteBuffer[] columns = mapSegments(channel, position, nnz, 4,
+						filename);
+				position += 4 * nnz;
+				ByteBuffer[] values = mapSegments(channel, position, nnz, 8,
+						filename);
+				position += 8 * nnz;
+				OffHeapMatrix mx = new OffHeapMatrix(rowPointers,
+						BitSet.valueOf(words), columns, values, null);
+				sections[s] = new Section(nDimensions, order, offHeap ? null
+						: mx.toVectorNodes(), offHeap ? mx : null, null);
+				sections[s].sums = sums;
+				sections[s].sumSquares = sumSquares;
+			}
+			return new StateFile(updateIteration, new String(name,
+					StandardCharsets.UTF_8), sections);
+		} finally {
+			file.close();
+		}
+	}
+
+	private static ByteBuffer map(FileChannel channel, long position,
+			long size, String filename) throws IOException {
+		if (position + size > channel.size() || size > Integer.MAX_VALUE) {
+			throw new IOException("Truncated state file " + filename + ".");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+	}
+
+	/**
+	 * Maps entries in the segments of an OffHeapMatrix.
+	 */
+	private static ByteBuffer[] mapSegments(FileChannel channel,
+			long position, long nEntries, int entrySize, String filename)
+			throws IOException {
+		ByteBuffer[] result = new ByteBuffer[OffHeapMatrix
+				.countSegments(nEntries)];
+		for (int s = 0; s < result.length; s++) {
+			long start = (long) s << OffHeapMatrix.SEGMENT_SHIFT;
+			result[s] = map(channel, position + entrySize * start,
+					(long) entrySize
+							* OffHeapMatrix.getSegmentLength(nEntries, s),
+					filename);
+		}
+		return result;
+	}
+
+}
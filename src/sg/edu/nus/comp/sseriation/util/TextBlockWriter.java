@@ -0,0 +1,218 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package sg.edu.nus.comp.sseriation.util;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes ASCII text into large byte blocks, which a background thread
+ * compresses (optionally) and writes to the file, so that formatting and
+ * output overlap. Integers and integral doubles are formatted without
+ * creating strings; other doubles are formatted by Double.toString, so the
+ * text is the same as that of string concatenation.
+ */
+public class TextBlockWriter {
+
+	private static final int BLOCK_SIZE = 1 << 20;
+	private static final int N_BLOCKS = 4;
+
+	/** Doubles with a larger magnitude are written in scientific notation. */
+	private static final double MAX_PLAIN_DOUBLE = 1e7;
+
+	private static final Block END = new Block(0);
+
+	private BlockingQueue<Block> full = new ArrayBlockingQueue<Block>(N_BLOCKS);
+	private BlockingQueue<Block> free = new ArrayBlockingQueue<Block>(N_BLOCKS);
+	private Block block;
+	private byte[] digits = new byte[20];
+	private Thread writerThread;
+	private volatile IOException failure;
+
+	/**
+	 * Opens a file for writing.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @param compress
+	 *            whether the file is gzip compressed
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public TextBlockWriter(String filename, boolean compress)
+			throws IOException {
+		final OutputStream out = compress ? new GZIPOutputStream(
+				new FileOutputStream(filename), 1 << 16)
+				: new FileOutputStream(filename);
+		for (int i = 0; i < N_BLOCKS - 1; i++) {
+			free.add(new Block(BLOCK_SIZE));
+		}
+		block = new Block(BLOCK_SIZE);
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeBlocks(out);
+			}
+		}, "writer " + filename);
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	private void writeBlocks(OutputStream out) {
+		try {
+			while (true) {
+				Block next = full.take();
+				if (next == END) {
+					break;
+				}
+				// After a failure, keep recycling blocks so that the
+				// producer does not block
+				if (failure == null) {
+					try {
+						out.write(next.data, 0, next.length);
+					} catch (IOException e) {
+						failure = e;
+					}
+				}
+				next.length = 0;
+				free.put(next);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				out.close();
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+	}
+
+	private void ensure(int nBytes) throws IOException {
+		if (block.length + nBytes > block.data.length) {
+			flushBlock();
+		}
+	}
+
+	private void flushBlock() throws IOException {
+		if (failure != null) {
+			throw failure;
+		}
+		try {
+			full.put(block);
+			block = free.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing", e);
+		}
+	}
+
+	/**
+	 * Writes an ASCII character.
+	 */
+	public void write(char c) throws IOException {
+		ensure(1);
+		block.data[block.length++] = (byte) c;
+	}
+
+	/**
+	 * Writes an ASCII string.
+	 */
+	public void write(String s) throws IOException {
+		for (int i = 0; i < s.length(); i++) {
+			write(s.charAt(i));
+		}
+	}
+
+	/**
+	 * Writes a long in decimal notation.
+	 */
+	public void write(long x) throws IOException {
+		if (x == Long.MIN_VALUE) {
+			write(Long.toString(x));
+			return;
+		}
+		ensure(20);
+		if (x < 0) {
+			block.data[block.length++] = '-';
+			x = -x;
+		}
+		int n = 0;
+		do {
+			digits[n++] = (byte) ('0' + x % 10);
+			x /= 10;
+		} while (x > 0);
+		while (n > 0) {
+			block.data[block.length++] = digits[--n];
+		}
+	}
+
+	/**
+	 * Writes a double as Double.toString would.
+	 */
+	public void write(double x) throws IOException {
+		if (x == Math.rint(x) && Math.abs(x) < MAX_PLAIN_DOUBLE
+				&& (x != 0 || 1 / x > 0)) {
+			write((long) x);
+			ensure(2);
+			block.data[block.length++] = '.';
+			block.data[block.length++] = '0';
+		} else {
+			write(Double.toString(x));
+		}
+	}
+
+	/**
+	 * Writes the remaining text and waits until the file is closed.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred while writing.
+	 */
+	public void close() throws IOException {
+		try {
+			if (block.length > 0 && failure == null) {
+				full.put(block);
+			}
+			full.put(END);
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing", e);
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private static class Block {
+		byte[] data;
+		int length = 0;
+
+		Block(int size) {
+			data = new byte[size];
+		}
+	}
+
+}
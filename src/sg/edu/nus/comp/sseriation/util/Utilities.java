@@ -19,12 +19,19 @@
 package sg.edu.nus.comp.sseriation.util;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class Utilities {
 
@@ -39,6 +46,28 @@ public class Utilities {
 		return result;
 	}
 
+	/**
+	 * Removes the extension of a file name, together with a .gz suffix, so
+	 * that collection.dat and collection.dat.gz both give collection.
+	 * 
+	 * @param filename
+	 *            the file name
+	 * @return the file name without extension
+	 */
+	public static String removeExtension(String filename) {
+		String result = filename;
+		if (result.endsWith(".gz")) {
+			result = result.substring(0, result.length() - 3);
+		}
+		int separator = Math.max(result.lastIndexOf('/'),
+				result.lastIndexOf(File.separatorChar));
+		int dot = result.lastIndexOf('.');
+		if (dot > separator + 1) {
+			result = result.substring(0, dot);
+		}
+		return result;
+	}
+
 	public static Object[][] insertColumn(Object[][] mx, Object[] column,
 			int index) {
 		Object[][] result = new Object[mx.length][];
@@ -159,7 +188,7 @@ public class Utilities {
 		return result;
 	}
 
-	public static void write(Object[] objectList, FileWriter out,
+	public static void write(Object[] objectList, Writer out,
 			String separator) throws IOException {
 		for (int i = 0; i < objectList.length; i++) {
 			if (objectList[i] == null) {
@@ -188,7 +217,8 @@ public class Utilities {
 
 	public static void writeTable(Object[][] objectTable, String filename,
 			String separator) throws IOException {
-		FileWriter out = new FileWriter(new File(filename));
+		Writer out = new BufferedWriter(new FileWriter(new File(filename)),
+				1 << 16);
 		for (int i = 0; i < objectTable.length; i++) {
 			if (objectTable[i] != null) {
 				write(objectTable[i], out, separator);
@@ -198,4 +228,53 @@ public class Utilities {
 		out.close();
 	}
 
+	/**
+	 * Creates a pool of a fixed number of threads. With one thread the tasks
+	 * run in the thread that submits them, so a caller limited to one thread,
+	 * such as a session of a SessionManager, starts no threads of its own.
+	 * 
+	 * @param nThreads
+	 *            the number of threads
+	 * @return the executor, to be shut down after use
+	 */
+	public static ExecutorService newFixedThreadPool(int nThreads) {
+		if (nThreads > 1) {
+			return Executors.newFixedThreadPool(nThreads);
+		}
+		return new AbstractExecutorService() {
+			private volatile boolean shutdown;
+
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+
+			@Override
+			public void shutdown() {
+				shutdown = true;
+			}
+
+			@Override
+			public List<Runnable> shutdownNow() {
+				shutdown = true;
+				return new ArrayList<Runnable>();
+			}
+
+			@Override
+			public boolean isShutdown() {
+				return shutdown;
+			}
+
+			@Override
+			public boolean isTerminated() {
+				return shutdown;
+			}
+
+			@Override
+			public boolean awaitTermination(long timeout, TimeUnit unit) {
+				return shutdown;
+			}
+		};
+	}
+
 }
@@ -0,0 +1,97 @@
+/**
+ * Two-way Incremental Seriation based on Hamiltonian Path
+ *  Copyright (C) 2012-2013 Peter Wittek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package se.hb.cd.biseriation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+
+import sg.edu.nus.comp.sseriation.util.CollectionGenerator;
+import sg.edu.nus.comp.sseriation.util.VectorNode;
+
+/**
+ * Checks of the SessionManager, run by ant test.
+ */
+public class SessionManagerTest {
+
+	public static void main(String[] args) throws IOException,
+			InterruptedException, ExecutionException {
+		testEvictThenSubmit();
+		System.out.println("SessionManagerTest passed");
+	}
+
+	/**
+	 * Rows added while an eviction is queued but has not run yet are folded
+	 * into the state read back, with the same orders as in a session that
+	 * was never evicted.
+	 */
+	static void testEvictThenSubmit() throws IOException, InterruptedException,
+			ExecutionException {
+		File directory = Files.createTempDirectory("sessions").toFile();
+		CollectionGenerator generator = new CollectionGenerator(60, 0.2, 4, 1);
+		VectorNode[][] rows = generator.generate(150);
+		VectorNode[][] update = generator.generate(20);
+		SessionManager manager = new SessionManager(1, 0, 0, directory);
+		try {
+			DynamicBiseriation[] biseriations = new DynamicBiseriation[2];
+			SessionManager.Session[] sessions = new SessionManager.Session[2];
+			for (int i = 0; i < 2; i++) {
+				String filename = new File(directory, "s" + i + ".dat")
+						.getPath();
+				CollectionGenerator.write(rows, filename);
+				biseriations[i] = new DynamicBiseriation(filename,
+						"Euclidean", "insert");
+				sessions[i] = manager.open("s" + i, biseriations[i]).get();
+			}
+			manager.evict(sessions[0]);
+			manager.addRows("s0", update).get();
+			manager.addRows("s1", update).get();
+			check(new File(directory, "s0.state").exists(),
+					"the session was evicted");
+			check(!sessions[0].isEvicted(), "the session was read back");
+			check(Arrays.equals(biseriations[0].getRowOrder(),
+					biseriations[1].getRowOrder()), "the row orders differ");
+			check(Arrays.equals(biseriations[0].getColumnOrder(),
+					biseriations[1].getColumnOrder()),
+					"the column orders differ");
+		} finally {
+			manager.shutdown();
+			delete(directory);
+		}
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}